@@ -245,6 +245,12 @@ public class Annotations{
          */
         boolean unreliable() default false;
 
+        /**
+         * Whether every call of this method contains the complete state it syncs, e.g. a snapshot, so that a call which could not be sent yet
+         * can be dropped once a newer one is queued. Only applies to unreliable methods.
+         */
+        boolean superseded() default false;
+
         /** Priority of this event. */
         PacketPriority priority() default PacketPriority.normal;
     }
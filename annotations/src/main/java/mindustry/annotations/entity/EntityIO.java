@@ -197,7 +197,8 @@ public class EntityIO{
 
         //base calculations
         st("float timeSinceUpdate = Time.timeSinceMillis(lastUpdated)");
-        st("float alpha = Math.min(timeSinceUpdate / updateSpacing, 2f)");
+        //extrapolate for at most one update, and no longer than the maximum extrapolation time
+        st("float alpha = mindustry.net.SnapshotBuffer.interpolationAlpha(timeSinceUpdate, updateSpacing)");
 
         //write interpolated data, using slerp / lerp
         for(Svar field : fields){
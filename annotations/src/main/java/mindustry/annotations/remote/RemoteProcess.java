@@ -90,7 +90,7 @@ public class RemoteProcess extends BaseProcessor{
 
                 //create and add entry
                 MethodEntry method = new MethodEntry(entry.name, BaseProcessor.getMethodName(element.e), annotation.targets(), annotation.variants(),
-                annotation.called(), annotation.unreliable(), annotation.forward(), lastMethodID++, element.e, annotation.priority());
+                annotation.called(), annotation.unreliable(), annotation.superseded(), annotation.forward(), lastMethodID++, element.e, annotation.priority());
 
                 entry.methods.add(method);
                 methods.add(method);
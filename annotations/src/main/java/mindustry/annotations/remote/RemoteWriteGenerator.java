@@ -1,5 +1,6 @@
 package mindustry.annotations.remote;
 
+import arc.func.*;
 import arc.struct.*;
 import arc.util.io.*;
 import com.squareup.javapoet.*;
@@ -35,6 +36,18 @@ public class RemoteWriteGenerator{
             classBuilder.addField(FieldSpec.builder(Writes.class, "WRITE", Modifier.STATIC, Modifier.PRIVATE, Modifier.FINAL)
             .initializer("new Writes(new $T(OUT))", DataOutputStream.class).build());
 
+            //add method names by ID, used for network stats
+            classBuilder.addField(FieldSpec.builder(String[].class, "methodNames", Modifier.STATIC, Modifier.PUBLIC, Modifier.FINAL)
+            .initializer("{$L}", methodNames(entry.methods)).build());
+
+            //add reliability by ID, used to forward calls with the mode they were sent with
+            classBuilder.addField(FieldSpec.builder(boolean[].class, "methodUnreliable", Modifier.STATIC, Modifier.PUBLIC, Modifier.FINAL)
+            .initializer("{$L}", methodFlags(entry.methods, m -> m.unreliable)).build());
+
+            //add whether queued calls can be dropped by ID, used by bandwidth limiting
+            classBuilder.addField(FieldSpec.builder(boolean[].class, "methodSuperseded", Modifier.STATIC, Modifier.PUBLIC, Modifier.FINAL)
+            .initializer("{$L}", methodFlags(entry.methods, m -> m.unreliable && m.superseded)).build());
+
             //go through each method entry in this class
             for(MethodEntry methodEntry : entry.methods){
                 //write the 'send event to all players' variant: always happens for clients, but only happens if 'all' is enabled on the server method
@@ -59,6 +72,56 @@ public class RemoteWriteGenerator{
         }
     }
 
+    /** @return a comma-separated list of quoted method names, indexed by method ID. Overloaded methods get their parameter types appended. */
+    private String methodNames(Seq<MethodEntry> methods){
+        int size = idCount(methods);
+        String[] names = new String[size];
+        ObjectIntMap<String> counts = new ObjectIntMap<>();
+
+        for(MethodEntry method : methods){
+            String name = method.element.getSimpleName().toString();
+            counts.put(name, counts.get(name, 0) + 1);
+        }
+
+        for(MethodEntry method : methods){
+            String name = method.element.getSimpleName().toString();
+            if(counts.get(name, 0) > 1){
+                name += "(" + Seq.with(method.element.getParameters()).map(p -> {
+                    String type = p.asType().toString();
+                    return type.substring(type.lastIndexOf('.') + 1);
+                }).toString(", ") + ")";
+            }
+            names[method.id] = name;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < size; i++){
+            if(i > 0) result.append(", ");
+            result.append(names[i] == null ? "null" : "\"" + names[i] + "\"");
+        }
+        return result.toString();
+    }
+
+    /** @return a comma-separated list of whether each method has a flag, indexed by method ID. */
+    private String methodFlags(Seq<MethodEntry> methods, Boolf<MethodEntry> flag){
+        boolean[] flags = new boolean[idCount(methods)];
+        for(MethodEntry method : methods){
+            flags[method.id] = flag.get(method);
+        }
+
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < flags.length; i++){
+            if(i > 0) result.append(", ");
+            result.append(flags[i]);
+        }
+        return result.toString();
+    }
+
+    /** @return the size of an array indexed by method ID; 0 for a class without methods. */
+    private int idCount(Seq<MethodEntry> methods){
+        return methods.isEmpty() ? 0 : methods.max(m -> m.id).id + 1;
+    }
+
     /** Creates a specific variant for a method entry. */
     private void writeMethodVariant(TypeSpec.Builder classBuilder, MethodEntry methodEntry, boolean toAll, boolean forwarded){
         ExecutableElement elem = methodEntry.element;
@@ -135,6 +198,9 @@ public class RemoteWriteGenerator{
         method.addStatement("packet.priority = (byte)" + methodEntry.priority.ordinal());
         //assign method ID
         method.addStatement("packet.type = (byte)" + methodEntry.id);
+        //start measuring encoding time, only if network stats are counted
+        method.addStatement("boolean measureEncode = mindustry.net.NetStats.enabled");
+        method.addStatement("long encodeStart = measureEncode ? System.nanoTime() : 0L");
         //reset stream
         method.addStatement("OUT.reset()");
 
@@ -193,19 +259,23 @@ public class RemoteWriteGenerator{
         method.addStatement("packet.bytes = OUT.getBytes()");
         //assign packet length
         method.addStatement("packet.length = OUT.size()");
+        //record encoding time
+        method.addStatement("if(measureEncode) mindustry.Vars.net.stats.encoded(packet.type, System.nanoTime() - encodeStart)");
 
         String sendString;
+        //unreliable calls sent by the server may be batched into one packet per frame
+        String batch = methodEntry.unreliable && methodEntry.where.isServer && methodEntry.priority != PacketPriority.high ? "Batched" : "";
 
         if(forwarded){ //forward packet
             if(!methodEntry.local.isClient){ //if the client doesn't get it called locally, forward it back after validation
-                sendString = "mindustry.Vars.net.send(";
+                sendString = "mindustry.Vars.net.send" + batch + "(";
             }else{
-                sendString = "mindustry.Vars.net.sendExcept(exceptConnection, ";
+                sendString = "mindustry.Vars.net.sendExcept" + batch + "(exceptConnection, ";
             }
         }else if(toAll){ //send to all players / to server
-            sendString = "mindustry.Vars.net.send(";
+            sendString = "mindustry.Vars.net.send" + batch + "(";
         }else{ //send to specific client from server
-            sendString = "playerConnection.send(";
+            sendString = "playerConnection.send" + batch + "(";
         }
 
         //send the actual packet
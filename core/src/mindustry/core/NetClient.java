@@ -7,7 +7,9 @@ import arc.math.*;
 import arc.struct.*;
 import arc.util.*;
 import arc.util.CommandHandler.*;
+import arc.util.async.*;
 import arc.util.io.*;
+import arc.util.pooling.*;
 import arc.util.serialization.*;
 import mindustry.*;
 import mindustry.annotations.Annotations.*;
@@ -21,19 +23,24 @@ import mindustry.net.Administration.*;
 import mindustry.net.Net.*;
 import mindustry.net.*;
 import mindustry.net.Packets.*;
+import mindustry.net.SnapshotBuffer.*;
 import mindustry.ui.*;
 import mindustry.world.*;
 import mindustry.world.modules.*;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
-import java.util.zip.*;
 
 import static mindustry.Vars.*;
 
 public class NetClient implements ApplicationListener{
     private static final float dataTimeout = 60 * 18;
     private static final float playerSyncTime = 2;
+    /** Time between snapshots that include far entities, used until the server sends it; see {@link #snapshotIntervals(int, int)}. */
+    private static final long defaultFarSnapshotTime = 800;
+    /** How often, in snapshot rounds, stale entity baselines are discarded. */
+    private static final int baselinePruneInterval = 60;
     public static final float viewScale = 2f;
 
     private long ping;
@@ -48,15 +55,41 @@ public class NetClient implements ApplicationListener{
     private float timeoutTime = 0f;
     /** Last sent client snapshot ID. */
     private int lastSent;
+    /** Time between snapshots that include entities outside the viewport, in milliseconds. */
+    private long farSnapshotTime = defaultFarSnapshotTime;
+
+    /** Identifies the world stream that is being received, so that regions of an earlier world are never loaded into a later one. */
+    private int worldStreamId;
+    /** Whether building data of the world is still being received after the world was loaded. */
+    private boolean receivingRegions;
+    /** Positions of buildings that changed since the world data was written, whose data in regions that are still being received is outdated. */
+    private IntSet outdatedBuildings = new IntSet();
 
     /** List of entities that were removed, and need not be added while syncing. */
     private IntSet removed = new IntSet();
     /** Byte stream for reading in snapshots. */
     private ReusableByteInStream byteStream = new ReusableByteInStream();
     private DataInputStream dataStream = new DataInputStream(byteStream);
+    /** Decoded sync data of a single entity. */
+    private byte[] entityBytes = new byte[256];
+    /** Byte stream for reading in the data of a single entity. */
+    private ReusableByteInStream entityStream = new ReusableByteInStream();
+    private DataInputStream entityData = new DataInputStream(entityStream);
+    /** Recently received entity data, used to decode delta-compressed snapshots. */
+    private SnapshotBaselines baselines = new SnapshotBaselines();
+    /** Holds back received snapshots, so that they are applied at an even pace. */
+    public final SnapshotBuffer snapshots = new SnapshotBuffer();
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons<String>>> customPacketHandlers = new ObjectMap<>();
 
+    //changes after the world data was written are newer than the regions that are still being received
+    private final Cons<TileChangeEvent> tileChanged = e -> {
+        if(receivingRegions) outdatedBuildings.add(e.tile.pos());
+    };
+    private final Cons<ConfigEvent> configured = e -> {
+        if(receivingRegions) outdatedBuildings.add(e.tile.pos());
+    };
+
     public NetClient(){
 
         net.handleClient(Connect.class, packet -> {
@@ -130,16 +163,60 @@ public class NetClient implements ApplicationListener{
             }
         });
 
-        net.handleClient(WorldStream.class, data -> {
-            Log.info("Received world data: @ bytes.", data.stream.available());
-            NetworkIO.loadWorld(new InflaterInputStream(data.stream));
+        net.handleClientStream(WorldStream.class, stream -> {
+            int id = ++worldStreamId;
+
+            //decompress world data while it is still being received, and load it on the main thread;
+            //playing starts once the nearby regions are loaded, the others are loaded as they arrive
+            Threads.daemon("World Decompressor", () -> {
+                try{
+                    NetworkIO.readWorld(stream.input(), data -> Core.app.post(() -> {
+                        //connection may have been closed in the meantime
+                        if(!net.client() || !connecting || id != worldStreamId) return;
+
+                        Log.info("Received world data: @ bytes.", stream.total);
+                        outdatedBuildings.clear();
+                        receivingRegions = true;
+                        NetworkIO.loadWorld(data);
+
+                        finishConnecting();
+                    }), region -> Core.app.post(() -> {
+                        if(net.client() && receivingRegions && id == worldStreamId){
+                            NetworkIO.loadRegion(region, outdatedBuildings);
+                        }
+                    }));
 
-            finishConnecting();
+                    Core.app.post(() -> {
+                        if(id == worldStreamId){
+                            receivingRegions = false;
+                            outdatedBuildings.clear();
+                        }
+                    });
+                }catch(Throwable e){
+                    //streams are cancelled when disconnecting, which is not an error
+                    if(net.client()){
+                        net.handleException(e);
+                    }
+                }
+            });
         });
 
         net.handleClient(InvokePacket.class, packet -> {
             RemoteReadClient.readPacket(packet.reader(), packet.type);
         });
+
+        net.handleClient(InvokeBundle.class, bundle -> {
+            bundle.each((type, read) -> RemoteReadClient.readPacket(read, type));
+        });
+
+        Events.on(TileChangeEvent.class, tileChanged);
+        Events.on(ConfigEvent.class, configured);
+    }
+
+    /** Removes the event listeners of this client. Only needed for clients that are discarded before the game exits, e.g. by a {@link ReplayPlayer}. */
+    public void removeListeners(){
+        Events.remove(TileChangeEvent.class, tileChanged);
+        Events.remove(ConfigEvent.class, configured);
     }
 
     public void addPacketHandler(String type, Cons<String> handler){
@@ -395,10 +472,30 @@ public class NetClient implements ApplicationListener{
         state.rules = rules;
     }
 
+    /**
+     * Tells the client how often entities are synced.
+     * @param interval time between snapshots, in milliseconds.
+     * @param farInterval number of snapshots between those that include entities outside the viewport.
+     */
+    @Remote(variants = Variant.both)
+    public static void snapshotIntervals(int interval, int farInterval){
+        netClient.farSnapshotTime = Math.max((long)interval * farInterval, 1);
+    }
+
+    /**
+     * @return the time after which an entity that wasn't synced is considered to have left the server's area of interest, in milliseconds.
+     * Far entities are only synced every {@link #farSnapshotTime}, so this is longer than that, with slack for jitter and a lost snapshot.
+     */
+    private long outOfScopeTime(){
+        return farSnapshotTime * 2 + 100;
+    }
+
     @Remote(variants = Variant.both)
     public static void worldDataBegin(){
         Groups.clear();
         netClient.removed.clear();
+        netClient.baselines.reset();
+        netClient.snapshots.clear();
         logic.reset();
         netClient.connecting = true;
 
@@ -427,15 +524,44 @@ public class NetClient implements ApplicationListener{
         Groups.player.removeByID(playerid);
     }
 
-    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
-    public static void entitySnapshot(short amount, short dataLen, byte[] data){
+    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true, superseded = true)
+    public static void entitySnapshot(int snapshotID, short part, boolean last, short amount, short dataLen, ByteBuffer data){
+        EntitySnapshot snapshot = Pools.obtain(EntitySnapshot.class, EntitySnapshot::new);
+        snapshot.snapshotID = snapshotID;
+        snapshot.part = part;
+        snapshot.last = last;
+        snapshot.amount = amount;
+        snapshot.dataLen = dataLen;
+        snapshot.data = data;
+        netClient.snapshots.add(snapshotID, snapshot);
+    }
+
+    private static void applyEntitySnapshot(int snapshotID, short part, boolean last, short amount, short dataLen, ByteBuffer data){
         try{
             netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
             DataInputStream input = netClient.dataStream;
+            SnapshotBaselines baselines = netClient.baselines;
+            boolean complete = true;
 
             for(int j = 0; j < amount; j++){
                 int id = input.readInt();
                 byte typeID = input.readByte();
+                int baseOffset = input.readUnsignedByte();
+                int length = input.readUnsignedShort();
+
+                if(netClient.entityBytes.length < length){
+                    netClient.entityBytes = new byte[length];
+                }
+                byte[] bytes = netClient.entityBytes;
+                input.readFully(bytes, 0, length);
+
+                //data is delta-encoded against a baseline
+                if(!baselines.decode(id, snapshotID, baseOffset, bytes, 0, length)){
+                    //should not happen, as the server only uses acknowledged baselines; this part won't be acknowledged, so the server falls back to older data
+                    complete = false;
+                    continue;
+                }
+                netClient.entityStream.setBytes(bytes);
 
                 Syncc entity = Groups.sync.getByID(id);
                 boolean add = false, created = false;
@@ -455,10 +581,13 @@ public class NetClient implements ApplicationListener{
                     created = true;
                 }
 
+                //entities coming back into scope should not slide across the screen from their old position
+                boolean rescoped = !created && !entity.isLocal() && entity.lastUpdated() != 0 && Time.timeSinceMillis(entity.lastUpdated()) > netClient.outOfScopeTime();
+
                 //read the entity
-                entity.readSync(Reads.get(input));
+                entity.readSync(Reads.get(netClient.entityData));
 
-                if(created){
+                if(created || rescoped){
                     //snap initial starting position
                     entity.snapSync();
                 }
@@ -468,13 +597,21 @@ public class NetClient implements ApplicationListener{
                     netClient.addRemovedEntity(entity.id());
                 }
             }
+
+            if(complete){
+                baselines.receivePart(snapshotID, last, part);
+            }
+
+            if(part == 0 && snapshotID % baselinePruneInterval == 0){
+                baselines.prune(snapshotID);
+            }
         }catch(IOException e){
             throw new RuntimeException(e);
         }
     }
 
-    @Remote(variants = Variant.both, priority = PacketPriority.low, unreliable = true)
-    public static void blockSnapshot(short amount, short dataLen, byte[] data){
+    @Remote(variants = Variant.both, priority = PacketPriority.low)
+    public static void blockSnapshot(short amount, short dataLen, ByteBuffer data){
         try{
             netClient.byteStream.setBytes(net.decompressSnapshot(data, dataLen));
             DataInputStream input = netClient.dataStream;
@@ -492,14 +629,28 @@ public class NetClient implements ApplicationListener{
                     break;
                 }
                 tile.build.readAll(Reads.get(input), tile.build.version());
+                if(netClient.receivingRegions) netClient.outdatedBuildings.add(pos);
             }
         }catch(Exception e){
             Log.err(e);
         }
     }
 
-    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
-    public static void stateSnapshot(float waveTime, int wave, int enemies, boolean paused, boolean gameOver, int timeData, short coreDataLen, byte[] coreData){
+    @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true, superseded = true)
+    public static void stateSnapshot(float waveTime, int wave, int enemies, boolean paused, boolean gameOver, int timeData, short coreDataLen, ByteBuffer coreData){
+        StateSnapshot snapshot = Pools.obtain(StateSnapshot.class, StateSnapshot::new);
+        snapshot.waveTime = waveTime;
+        snapshot.wave = wave;
+        snapshot.enemies = enemies;
+        snapshot.paused = paused;
+        snapshot.gameOver = gameOver;
+        snapshot.timeData = timeData;
+        snapshot.coreDataLen = coreDataLen;
+        snapshot.coreData = coreData;
+        netClient.snapshots.add(snapshot);
+    }
+
+    private static void applyStateSnapshot(float waveTime, int wave, int enemies, boolean paused, boolean gameOver, int timeData, short coreDataLen, ByteBuffer coreData){
         try{
             if(wave > state.wave){
                 state.wave = wave;
@@ -539,7 +690,10 @@ public class NetClient implements ApplicationListener{
         if(!net.client()) return;
 
         if(state.isGame()){
-            if(!connecting) sync();
+            if(!connecting){
+                snapshots.update();
+                sync();
+            }
         }else if(!connecting){
             net.disconnect();
         }else{ //...must be connecting
@@ -576,6 +730,11 @@ public class NetClient implements ApplicationListener{
     private void reset(){
         net.setClientLoaded(false);
         removed.clear();
+        receivingRegions = false;
+        outdatedBuildings.clear();
+        farSnapshotTime = defaultFarSnapshotTime;
+        baselines.reset();
+        snapshots.clear();
         timeoutTime = 0f;
         connecting = true;
         quietReset = false;
@@ -654,6 +813,7 @@ public class NetClient implements ApplicationListener{
 
             Call.clientSnapshot(
             lastSent++,
+            baselines.latestAcknowledged(), baselines.acknowledgedMask(),
             uid,
             player.dead(),
             player.dead() ? player.x : unit.x, player.dead() ? player.y : unit.y,
@@ -690,4 +850,41 @@ public class NetClient implements ApplicationListener{
             return result;
         }
     }
+
+    /** Arguments of {@link #entitySnapshot}, buffered until they are applied. */
+    static class EntitySnapshot extends Snapshot{
+        int snapshotID;
+        short part, amount, dataLen;
+        boolean last;
+        ByteBuffer data;
+
+        @Override
+        public void apply(){
+            applyEntitySnapshot(snapshotID, part, last, amount, dataLen, data);
+        }
+
+        @Override
+        public void reset(){
+            data = null;
+        }
+    }
+
+    /** Arguments of {@link #stateSnapshot}, buffered until they are applied. */
+    static class StateSnapshot extends Snapshot{
+        float waveTime;
+        int wave, enemies, timeData;
+        boolean paused, gameOver;
+        short coreDataLen;
+        ByteBuffer coreData;
+
+        @Override
+        public void apply(){
+            applyStateSnapshot(waveTime, wave, enemies, paused, gameOver, timeData, coreDataLen, coreData);
+        }
+
+        @Override
+        public void reset(){
+            coreData = null;
+        }
+    }
 }
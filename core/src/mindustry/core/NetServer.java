@@ -35,8 +35,16 @@ import static mindustry.Vars.*;
 
 public class NetServer implements ApplicationListener{
     /** note that snapshots are compressed, so the max snapshot size here is above the typical UDP safe limit */
-    private static final int maxSnapshotSize = 800, timerBlockSync = 0, serverSyncTime = 200;
+    private static final int maxSnapshotSize = 800, timerBlockSync = 0;
     private static final float blockSyncTime = 60 * 6;
+    /** Number of block sync rounds it takes to resend every building, changed or not. */
+    private static final int blockSweepRounds = 10;
+    /** Entities outside a player's viewport are only synced every N snapshots. */
+    private static final int farSyncInterval = 4;
+    /** Extra space around each player's viewport in which entities are still considered near. */
+    private static final float interestMargin = tilesize * 8f;
+    /** How often, in snapshot rounds, stale entity baselines are discarded. */
+    private static final int baselinePruneInterval = 60;
     private static final FloatBuffer fbuffer = FloatBuffer.allocate(20);
     private static final Vec2 vector = new Vec2();
     private static final Rect viewport = new Rect();
@@ -75,8 +83,26 @@ public class NetServer implements ApplicationListener{
     private ReusableByteOutStream syncStream = new ReusableByteOutStream();
     /** Data stream for writing player sync data to. */
     private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /** Compressed map data shared by all joining players. */
+    private WorldDataCache worldCache = new WorldDataCache();
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons2<Player, String>>> customPacketHandlers = new ObjectMap<>();
+    /** Spatial index of synced entities, rebuilt at most once per sync round. */
+    private InterestGrid interest = new InterestGrid();
+    /** Encoded entity sync data, shared between all players in a sync round. */
+    private SnapshotCache snapshotCache = new SnapshotCache();
+    /** Whether the interest grid, snapshot cache and core data need to be rebuilt before they are used. */
+    private boolean interestDirty = true;
+    /** Compressed core item data for this sync round. Has its own backing array, as it is sent after other snapshots are compressed. */
+    private ByteBuffer coreData = ByteBuffer.allocate(0);
+    /** Uncompressed length of {@link #coreData}. */
+    private int coreDataLength;
+    /** Buildings with an ID of this value modulo {@link #blockSweepRounds} are all resent in the next block sync. */
+    private int blockSweepRound;
+    /** Index of the next entity snapshot part sent in the current round. */
+    private int entityPart;
+    /** Temporary list of entities near a player's viewport. */
+    private Seq<Syncc> nearEntities = new Seq<>(false, 256, Syncc.class);
 
     public NetServer(){
 
@@ -168,6 +194,7 @@ public class NetServer implements ApplicationListener{
                 info.adminUsid = packet.usid;
                 info.lastName = packet.name;
                 info.id = packet.uuid;
+                admins.updateInfo(info);
                 admins.save();
                 Call.infoMessage(con, "You are not whitelisted here.");
                 info("&lcDo &lywhitelist-add @&lc to whitelist the player &lb'@'", packet.uuid, packet.name);
@@ -214,6 +241,11 @@ public class NetServer implements ApplicationListener{
                 return;
             }
 
+            if(packet.protocol != Version.protocol){
+                con.kick(packet.protocol > Version.protocol ? KickReason.serverOutdated : KickReason.clientOutdated);
+                return;
+            }
+
             if(packet.version == -1){
                 con.modclient = true;
             }
@@ -231,6 +263,7 @@ public class NetServer implements ApplicationListener{
             //save admin ID but don't overwrite it
             if(!player.admin && !info.admin){
                 info.adminUsid = packet.usid;
+                admins.updateInfo(info);
             }
 
             try{
@@ -361,6 +394,7 @@ public class NetServer implements ApplicationListener{
                 if(votes >= votesRequired()){
                     Call.sendMessage(Strings.format("[orange]Vote passed.[scarlet] @[orange] will be banned from the server for @ minutes.", target.name, (kickDuration / 60)));
                     target.getInfo().lastKicked = Time.millis() + kickDuration * 1000;
+                    admins.updateInfo(target.getInfo());
                     Groups.player.each(p -> p.uuid().equals(target.uuid()), p -> p.kick(KickReason.vote));
                     map[0] = null;
                     task.cancel();
@@ -508,9 +542,11 @@ public class NetServer implements ApplicationListener{
     }
 
     public void sendWorldData(Player player){
+        //entities will be recreated by the client, so old baselines are useless
+        player.con.baselines.reset();
+
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        DeflaterOutputStream def = new FastDeflaterOutputStream(stream);
-        NetworkIO.writeWorld(player, def);
+        NetworkIO.writeWorld(player, stream, worldCache.get(player));
         WorldStream data = new WorldStream();
         data.stream = new ByteArrayInputStream(stream.toByteArray());
         player.con.sendStream(data);
@@ -566,10 +602,12 @@ public class NetServer implements ApplicationListener{
         return Float.isInfinite(f) || Float.isNaN(f);
     }
 
-    @Remote(targets = Loc.client, unreliable = true)
+    @Remote(targets = Loc.client, unreliable = true, superseded = true)
     public static void clientSnapshot(
         Player player,
         int snapshotID,
+        int ackedSnapshotID,
+        int ackedSnapshotMask,
         int unitID,
         boolean dead,
         float x, float y,
@@ -582,7 +620,12 @@ public class NetServer implements ApplicationListener{
         float viewX, float viewY, float viewWidth, float viewHeight
     ){
         NetConnection con = player.con;
-        if(con == null || snapshotID < con.lastReceivedClientSnapshot) return;
+        if(con == null) return;
+
+        //acknowledgements are valid even if this snapshot arrived out of order
+        con.baselines.acknowledge(ackedSnapshotID, ackedSnapshotMask);
+
+        if(snapshotID < con.lastReceivedClientSnapshot) return;
 
         //validate coordinates just in case
         if(invalid(x)) x = 0f;
@@ -764,6 +807,7 @@ public class NetServer implements ApplicationListener{
         if(player.con == null || player.con.hasConnected) return;
 
         player.con.hasConnected = true;
+        netServer.sendSnapshotIntervals(player.con);
 
         if(Config.showConnectMessages.bool()){
             Call.sendMessage("[accent]" + player.name + "[accent] has connected.");
@@ -810,6 +854,17 @@ public class NetServer implements ApplicationListener{
 
             sync();
         }
+
+        if(net.server()){
+            for(NetConnection con : net.getConnections()){
+                con.flush();
+            }
+
+            ReplayRecorder recorder = net.recorder;
+            if(recorder != null && state.isGame()){
+                recorder.update();
+            }
+        }
     }
 
     /** Should only be used on the headless backend. */
@@ -826,20 +881,53 @@ public class NetServer implements ApplicationListener{
         }
     }
 
+    /** Tells clients how often entities are synced, so that they can tell far entities from ones that left their area of interest. */
+    public void sendSnapshotIntervals(@Nullable NetConnection con){
+        if(con == null){
+            Call.snapshotIntervals(Config.snapshotInterval.num(), farSyncInterval);
+        }else{
+            Call.snapshotIntervals(con, Config.snapshotInterval.num(), farSyncInterval);
+        }
+    }
+
     public void kickAll(KickReason reason){
         for(NetConnection con : net.getConnections()){
             con.kick(reason);
         }
     }
 
-    /** Sends a block snapshot to all players. */
+    /**
+     * Combines a value into a {@link Building#syncState()}. Multiplying by a large odd constant spreads small changes over all 64 bits,
+     * so two different states practically never result in the same value.
+     */
+    public static long syncHash(long state, long value){
+        return (state ^ value) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Sends a block snapshot to all players.
+     * Only buildings whose {@link Building#syncState()} changed since they were last sent are included,
+     * along with a slice of all buildings that is rotated every call, so that state the sync state does not cover is resent eventually.
+     * As snapshots only contain changes, they are sent reliably; a lost snapshot would otherwise leave buildings outdated until the sweep.
+     * Players that join between calls get the full state of every building with the world data, so they are never behind the others.
+     */
     public void writeBlockSnapshots() throws IOException{
         syncStream.reset();
 
         short sent = 0;
         for(Building entity : Groups.build){
             if(!entity.block.sync) continue;
+
+            //slices are chosen by ID rather than by position in the group, which changes when buildings are removed
+            boolean sweep = entity.id() % blockSweepRounds == blockSweepRound;
+
+            long syncState = entity.syncState();
+            if(!sweep && syncState == entity.lastSyncState()) continue;
+
+            entity.lastSyncState(syncState);
             sent ++;
+            //players joining after this must not get building state from before it, as it would never be corrected
+            worldCache.invalidate(entity.tile);
 
             dataStream.writeInt(entity.pos());
             dataStream.writeShort(entity.block.id);
@@ -847,21 +935,62 @@ public class NetServer implements ApplicationListener{
 
             if(syncStream.size() > maxSnapshotSize){
                 dataStream.close();
-                byte[] stateBytes = syncStream.toByteArray();
-                Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+                Call.blockSnapshot(sent, (short)syncStream.size(), compressSyncStream("blockSnapshot"));
                 sent = 0;
                 syncStream.reset();
             }
         }
 
+        blockSweepRound = (blockSweepRound + 1) % blockSweepRounds;
+
         if(sent > 0){
             dataStream.close();
-            byte[] stateBytes = syncStream.toByteArray();
-            Call.blockSnapshot(sent, (short)stateBytes.length, net.compressSnapshot(stateBytes));
+            Call.blockSnapshot(sent, (short)syncStream.size(), compressSyncStream("blockSnapshot"));
         }
     }
 
     public void writeEntitySnapshot(Player player) throws IOException{
+        viewport.setSize(player.con.viewWidth + interestMargin * 2f, player.con.viewHeight + interestMargin * 2f).setCenter(player.con.viewX, player.con.viewY);
+        writeEntitySnapshot(player.con, false);
+    }
+
+    /**
+     * Writes the state and entity snapshot of a sync round for a connection.
+     * @param everything whether to send all entities; otherwise, only entities near the current {@link #viewport} are sent every round.
+     */
+    private void writeEntitySnapshot(NetConnection con, boolean everything) throws IOException{
+        if(interestDirty){
+            interest.rebuild();
+            snapshotCache.clear();
+            writeCoreData();
+            interestDirty = false;
+        }
+
+        //write basic state data; core data is the same for every player, so it is only compressed once per round
+        Call.stateSnapshot(con, state.wavetime, state.wave, state.enemies, state.serverPaused, state.gameOver, universe.seconds(), (short)coreDataLength, coreData);
+
+        //far entities are only sent every few snapshots; near and always-relevant ones are sent every time
+        int round = con.snapshotsSent++;
+        boolean far = everything || round % farSyncInterval == 0;
+
+        if(round % baselinePruneInterval == 0){
+            con.baselines.prune(round);
+        }
+
+        syncStream.reset();
+        entityPart = 0;
+
+        int sent = writeEntities(con, round, interest.getAlways(), 0);
+        sent = writeEntities(con, round, far ? interest.getSpatial() : interest.getNear(viewport, nearEntities), sent);
+
+        if(sent > 0){
+            flushEntitySnapshot(con, round, sent, true);
+        }
+
+    }
+
+    /** Writes and compresses the item data of every core into {@link #coreData}. */
+    private void writeCoreData() throws IOException{
         syncStream.reset();
         int sum = state.teams.present.sum(t -> t.cores.size);
 
@@ -875,41 +1004,60 @@ public class NetServer implements ApplicationListener{
         }
 
         dataStream.close();
-        byte[] stateBytes = syncStream.toByteArray();
+        coreDataLength = syncStream.size();
+        ByteBuffer compressed = compressSyncStream("stateSnapshot");
+        if(coreData.capacity() < compressed.remaining()){
+            coreData = ByteBuffer.allocate(compressed.remaining());
+        }
+        coreData.clear();
+        coreData.put(compressed);
+        coreData.flip();
+    }
 
-        //write basic state data.
-        Call.stateSnapshot(player.con, state.wavetime, state.wave, state.enemies, state.serverPaused, state.gameOver, universe.seconds(), (short)stateBytes.length, net.compressSnapshot(stateBytes));
+    /**
+     * Writes a list of entities into the sync stream, flushing it as a snapshot part whenever it gets too large.
+     * Entity data is delta-encoded against the last baseline that the connection has acknowledged, if there is one.
+     */
+    private int writeEntities(NetConnection con, int round, Seq<Syncc> entities, int sent) throws IOException{
+        for(int i = 0; i < entities.size; i++){
+            Syncc entity = entities.items[i];
 
-        viewport.setSize(player.con.viewWidth, player.con.viewHeight).setCenter(player.con.viewX, player.con.viewY);
+            //the grid may be stale if this is called outside of a sync round
+            if(!entity.isAdded()) continue;
 
-        syncStream.reset();
+            //flush before writing, so the last part of a round is never empty
+            if(syncStream.size() > maxSnapshotSize){
+                flushEntitySnapshot(con, round, sent, false);
+                sent = 0;
+            }
 
-        int sent = 0;
+            //each entity is only encoded once per round
+            int offset = snapshotCache.encode(entity), length = snapshotCache.length(entity);
 
-        for(Syncc entity : Groups.sync){
-            //write all entities now
             dataStream.writeInt(entity.id()); //write id
             dataStream.writeByte(entity.classId()); //write type ID
-            entity.writeSync(Writes.get(dataStream)); //write entity
+            con.baselines.encode(entity.id(), round, snapshotCache.getBytes(), offset, length, dataStream);
 
             sent++;
-
-            if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                byte[] syncBytes = syncStream.toByteArray();
-                Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
-                sent = 0;
-                syncStream.reset();
-            }
         }
 
-        if(sent > 0){
-            dataStream.close();
+        return sent;
+    }
 
-            byte[] syncBytes = syncStream.toByteArray();
-            Call.entitySnapshot(player.con, (short)sent, (short)syncBytes.length, net.compressSnapshot(syncBytes));
-        }
+    private void flushEntitySnapshot(NetConnection con, int round, int amount, boolean last) throws IOException{
+        dataStream.close();
+        Call.entitySnapshot(con, round, (short)entityPart++, last, (short)amount, (short)syncStream.size(), compressSyncStream("entitySnapshot"));
+        syncStream.reset();
+    }
 
+    /**
+     * Compresses the contents of the sync stream, and records the compression ratio for the network stats of a call.
+     * The result is only valid until the next call, which is enough for the remote call it is passed to, as its payload is written immediately.
+     */
+    private ByteBuffer compressSyncStream(String call){
+        ByteBuffer result = net.compressSnapshot(syncStream.getBytes(), 0, syncStream.size());
+        if(NetStats.enabled) net.stats.compressed(call, syncStream.size(), result.remaining());
+        return result;
     }
 
     String fixName(String name){
@@ -963,6 +1111,8 @@ public class NetServer implements ApplicationListener{
 
     void sync(){
         try{
+            interestDirty = true;
+
             Groups.player.each(p -> !p.isLocal(), player -> {
                 if(player.con == null || !player.con.isConnected()){
                     onDisconnect(player, "disappeared");
@@ -971,7 +1121,7 @@ public class NetServer implements ApplicationListener{
 
                 var connection = player.con;
 
-                if(Time.timeSinceMillis(connection.syncTime) < serverSyncTime || !connection.hasConnected) return;
+                if(Time.timeSinceMillis(connection.syncTime) < Config.snapshotInterval.num() || !connection.hasConnected) return;
 
                 connection.syncTime = Time.millis();
 
@@ -982,10 +1132,19 @@ public class NetServer implements ApplicationListener{
                 }
             });
 
-            if(Groups.player.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
+            //replays get a snapshot of every entity, as they can be viewed from anywhere
+            ReplayRecorder recorder = net.recorder;
+            if(recorder != null && Time.timeSinceMillis(recorder.syncTime) >= Config.snapshotInterval.num()){
+                recorder.syncTime = Time.millis();
+                writeEntitySnapshot(recorder, true);
+            }
+
+            if((Groups.player.size() > 0 || recorder != null) && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
                 writeBlockSnapshots();
             }
 
+            //make sure snapshots written outside of a sync round never use stale data
+            interestDirty = true;
         }catch(IOException e){
             Log.err(e);
         }
@@ -145,6 +145,11 @@ public interface Platform{
         }
     }
 
+    /** Terminates the application. Servers that share their process with other instances only stop themselves. */
+    default void exit(int status){
+        System.exit(status);
+    }
+
     /** Hide the app. Android only. */
     default void hide(){
     }
@@ -18,6 +18,11 @@ public class Version{
     public static int build = 0;
     /** Revision number. Used for hotfixes. Does not affect server compatibility. */
     public static int revision = 0;
+    /**
+     * Network protocol version. Incremented whenever packets change in an incompatible way, e.g. the delta-encoded entity snapshots of version 1.
+     * Unlike the build number, this is also checked for custom builds, which could not read each other's packets either.
+     */
+    public static final int protocol = 1;
     /** Whether version loading is enabled. */
     public static boolean enabled = true;
 
@@ -17,6 +17,7 @@ import mindustry.game.*;
 import mindustry.game.Teams.*;
 import mindustry.gen.*;
 import mindustry.io.*;
+import mindustry.io.SaveIO.*;
 import mindustry.maps.*;
 import mindustry.maps.filters.*;
 import mindustry.maps.filters.GenerateFilter.*;
@@ -336,7 +337,7 @@ public class World{
     }
 
     public Context filterContext(Map map){
-        return new FilterContext(map);
+        return new FilterContext(map, null);
     }
 
     public void loadMap(Map map){
@@ -344,6 +345,11 @@ public class World{
     }
 
     public void loadMap(Map map, Rules checkRules){
+        loadMap(map, checkRules, null);
+    }
+
+    /** @param preloaded the map file read by {@link SaveIO#preload}, or null to read it now. */
+    public void loadMap(Map map, Rules checkRules, @Nullable PreloadedSave preloaded){
         //load using custom loader if possible
         if(customMapLoaders.containsKey(map)){
             customMapLoaders.get(map).run();
@@ -351,7 +357,11 @@ public class World{
         }
 
         try{
-            SaveIO.load(map.file, new FilterContext(map));
+            if(preloaded != null){
+                SaveIO.load(preloaded.data, new FilterContext(map, preloaded.tiles));
+            }else{
+                SaveIO.load(map.file, new FilterContext(map, null));
+            }
         }catch(Throwable e){
             Log.err(e);
             if(!headless){
@@ -556,10 +566,16 @@ public class World{
     }
 
     private class Context implements WorldContext{
+        /** Tiles decoded by {@link SaveIO#preload}, which replace the tile array instead of creating new tiles. */
+        @Nullable Tiles preloaded;
 
         Context(){
         }
 
+        Context(@Nullable Tiles preloaded){
+            this.preloaded = preloaded;
+        }
+
         @Override
         public Tile tile(int index){
             return tiles.geti(index);
@@ -567,11 +583,20 @@ public class World{
 
         @Override
         public void resize(int width, int height){
-            World.this.resize(width, height);
+            if(preloaded != null && preloaded.width == width && preloaded.height == height){
+                clearTileEntities();
+                tiles = preloaded;
+            }else{
+                preloaded = null;
+                World.this.resize(width, height);
+            }
         }
 
         @Override
         public Tile create(int x, int y, int floorID, int overlayID, int wallID){
+            //preloaded tiles already have the same floors, and no block yet
+            if(preloaded != null) return preloaded.getn(x, y);
+
             Tile tile = new Tile(x, y, floorID, overlayID, wallID);
             tiles.set(x, y, tile);
             return tile;
@@ -589,6 +614,7 @@ public class World{
 
         @Override
         public void end(){
+            preloaded = null;
             endMapLoad();
         }
     }
@@ -597,7 +623,8 @@ public class World{
     private class FilterContext extends Context{
         final Map map;
 
-        FilterContext(Map map){
+        FilterContext(Map map, @Nullable Tiles preloaded){
+            super(preloaded);
             this.map = map;
         }
 
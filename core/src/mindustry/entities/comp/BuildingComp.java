@@ -64,6 +64,10 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
     transient boolean enabled = true;
     transient float enabledControlTime;
     transient String lastAccessed;
+    /** Number of times this building has been configured. Used for block sync change detection. */
+    transient int configChanges;
+    /** Value of {@link #syncState()} when this building was last sent in a block snapshot. */
+    transient long lastSyncState;
 
     PowerModule power;
     ItemModule items;
@@ -398,6 +402,21 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
         return 0;
     }
 
+    /**
+     * @return a value that changes whenever state relevant to block syncing changes.
+     * Buildings with an unchanged sync state are skipped in block snapshots, apart from a slow periodic sweep.
+     * Override to include block-specific state that clients can't predict, combining it with {@link NetServer#syncHash(long, long)}.
+     */
+    public long syncState(){
+        long result = NetServer.syncHash(Float.floatToIntBits(health), rotation);
+        result = NetServer.syncHash(result, team.id);
+        result = NetServer.syncHash(result, configChanges);
+        if(items != null) result = NetServer.syncHash(result, items.changes());
+        if(liquids != null) result = NetServer.syncHash(result, liquids.changes());
+        if(power != null) result = NetServer.syncHash(result, Float.floatToIntBits(power.status));
+        return result;
+    }
+
     //endregion
     //region handler methods
 
@@ -954,6 +973,8 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
             lastAccessed = builder.getPlayer().name;
         }
 
+        configChanges++;
+
         if(block.configurations.containsKey(type)){
             block.configurations.get(type).get(this, value);
         }else if(value instanceof Building build){
@@ -54,6 +54,7 @@ public class Saves{
                 slot.meta = SaveIO.getMeta(file);
             }
         }
+        SaveIndex.flush();
 
         lastSectorSave = saves.find(s -> s.isSector() && s.getName().equals(Core.settings.getString("last-sector-save", "<none>")));
 
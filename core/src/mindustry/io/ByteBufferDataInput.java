@@ -0,0 +1,127 @@
+package mindustry.io;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Reads big-endian data directly from a {@link ByteBuffer}, like a {@link DataInputStream} would.
+ * Unlike a stream chain, every read is a bounds check and an array access, which matters when decoding millions of tiles.
+ */
+public class ByteBufferDataInput implements DataInput{
+    private final ByteBuffer buffer;
+
+    public ByteBufferDataInput(ByteBuffer buffer){
+        this.buffer = buffer;
+    }
+
+    /** @return the number of bytes read so far, relative to the start of the buffer. */
+    public int position(){
+        return buffer.position();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException{
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException{
+        require(len);
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n){
+        int amount = Math.max(Math.min(n, buffer.remaining()), 0);
+        buffer.position(buffer.position() + amount);
+        return amount;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException{
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException{
+        require(1);
+        return buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException{
+        return readByte() & 0xff;
+    }
+
+    @Override
+    public short readShort() throws IOException{
+        require(2);
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException{
+        return readShort() & 0xffff;
+    }
+
+    @Override
+    public char readChar() throws IOException{
+        require(2);
+        return buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException{
+        require(4);
+        return buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException{
+        require(8);
+        return buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException{
+        require(4);
+        return buffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException{
+        require(8);
+        return buffer.getDouble();
+    }
+
+    /** Reads a line of bytes as characters, ending at a line feed, a carriage return with an optional line feed, or the end of the buffer. */
+    @Override
+    public String readLine(){
+        if(!buffer.hasRemaining()) return null;
+
+        StringBuilder result = new StringBuilder();
+        while(buffer.hasRemaining()){
+            int c = buffer.get() & 0xff;
+            if(c == '\n') break;
+            if(c == '\r'){
+                if(buffer.hasRemaining() && buffer.get(buffer.position()) == '\n'){
+                    buffer.get();
+                }
+                break;
+            }
+            result.append((char)c);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException{
+        return DataInputStream.readUTF(this);
+    }
+
+    private void require(int amount) throws EOFException{
+        if(buffer.remaining() < amount){
+            throw new EOFException("Tried to read " + amount + " bytes at position " + buffer.position() + ", but only " + buffer.remaining() + " are left.");
+        }
+    }
+}
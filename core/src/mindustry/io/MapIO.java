@@ -37,7 +37,16 @@ public class MapIO{
     }
 
     public static Map createMap(Fi file, boolean custom) throws IOException{
-        try(InputStream is = new InflaterInputStream(file.read(bufferSize)); CounterInputStream counter = new CounterInputStream(is); DataInputStream stream = new DataInputStream(counter)){
+        SaveIndex.Entry entry = SaveIndex.get(file);
+        if(entry != null){
+            StringMap tags = entry.tags();
+            Map map = new Map(file, tags.getInt("width"), tags.getInt("height"), tags, custom, entry.version, Version.build);
+            map.previewHash = entry.previewHash;
+            return map;
+        }
+
+        //not a valid map; read it again to report the actual problem
+        try(InputStream is = new BufferedInputStream(new InflaterInputStream(file.read(bufferSize)), bufferSize); CounterInputStream counter = new CounterInputStream(is); DataInputStream stream = new DataInputStream(counter)){
             SaveIO.readHeader(stream);
             int version = stream.readInt();
             SaveVersion ver = SaveIO.getSaveWriter(version);
@@ -67,7 +76,7 @@ public class MapIO{
         map.spawns = 0;
         map.teams.clear();
 
-        try(InputStream is = new InflaterInputStream(map.file.read(bufferSize)); CounterInputStream counter = new CounterInputStream(is); DataInputStream stream = new DataInputStream(counter)){
+        try(InputStream is = new BufferedInputStream(new InflaterInputStream(map.file.read(bufferSize)), bufferSize); CounterInputStream counter = new CounterInputStream(is); DataInputStream stream = new DataInputStream(counter)){
             SaveIO.readHeader(stream);
             int version = stream.readInt();
             SaveVersion ver = SaveIO.getSaveWriter(version);
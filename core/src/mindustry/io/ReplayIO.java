@@ -0,0 +1,238 @@
+package mindustry.io;
+
+import arc.files.*;
+import arc.struct.*;
+import arc.util.*;
+
+import java.io.*;
+
+/**
+ * Reading and writing of replay files. A replay is a header followed by a sequence of records.
+ * Every record is a kind byte, the time since the previous record in milliseconds, the length of its data and the data itself;
+ * times and lengths are written as variable-length integers, so small packets only take a few bytes of overhead.
+ * <p>
+ * The first record is always the world, as sent to joining players. After that, server packets are interleaved with periodic keyframes,
+ * which are full saves. Playback can seek by loading the last keyframe before a point in time and applying the packets after it.
+ */
+public class ReplayIO{
+    /** Format header. This is the string 'MREP' in ASCII. */
+    public static final byte[] header = {77, 82, 69, 80};
+    public static final int version = 2;
+
+    /** World data written by {@link mindustry.net.NetworkIO#writeWorld}. */
+    public static final byte recordWorld = 0;
+    /** A packet, written as its registered ID followed by its contents. */
+    public static final byte recordPacket = 1;
+    /** A deflated save written by {@link SaveIO#write(OutputStream, StringMap)}. */
+    public static final byte recordKeyframe = 2;
+
+    public static class ReplayWriter implements Closeable{
+        private final DataOutputStream stream;
+        private final long startTime = Time.millis();
+        private long lastTime;
+
+        public ReplayWriter(Fi file) throws IOException{
+            stream = new DataOutputStream(file.write(false, 8192));
+            stream.write(header);
+            stream.writeInt(version);
+        }
+
+        /** Appends a record, timestamped with the time since this writer was created. */
+        public void write(byte kind, byte[] data, int offset, int length) throws IOException{
+            write(kind, time(), data, offset, length);
+        }
+
+        /** Appends a record with a timestamp from {@link #time()}. Records are kept in order, so timestamps before the previous record are moved up to it. */
+        public synchronized void write(byte kind, long time, byte[] data, int offset, int length) throws IOException{
+            time = Math.max(time, lastTime);
+            stream.writeByte(kind);
+            writeVar(time - lastTime);
+            writeVar(length);
+            stream.write(data, offset, length);
+            lastTime = time;
+        }
+
+        /** @return the time since recording started, in milliseconds. */
+        public long time(){
+            return Time.timeSinceMillis(startTime);
+        }
+
+        @Override
+        public synchronized void close() throws IOException{
+            stream.close();
+        }
+
+        private void writeVar(long value) throws IOException{
+            while((value & ~0x7fL) != 0){
+                stream.writeByte((int)((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            stream.writeByte((int)value);
+        }
+    }
+
+    public static class ReplayReader implements Closeable{
+        private final Fi file;
+        /** World and keyframe records, in order. Used for seeking. */
+        private final Seq<Keyframe> keyframes = new Seq<>();
+        private final long duration;
+
+        private DataInputStream stream;
+        private long position, time;
+
+        /** Opens a replay and indexes its keyframes. Only record headers are read for this, so it is fast even for long replays. */
+        public ReplayReader(Fi file) throws IOException{
+            this.file = file;
+            open(0);
+
+            byte[] head = new byte[header.length];
+            stream.readFully(head);
+            position += head.length;
+            for(int i = 0; i < header.length; i++){
+                if(head[i] != header[i]) throw new IOException("Not a replay file: " + file);
+            }
+
+            int fileVersion = stream.readInt();
+            position += 4;
+            if(fileVersion != version) throw new IOException("Unknown replay version: " + fileVersion);
+
+            long start = position, end = 0;
+            ReplayRecord record = new ReplayRecord();
+            try{
+                while(readHeader(record)){
+                    skip(record.length);
+                    if(record.kind == recordWorld || record.kind == recordKeyframe){
+                        keyframes.add(new Keyframe(record.kind, record.time, record.position, record.time - record.delta));
+                    }
+                    end = record.time;
+                }
+            }catch(EOFException e){
+                //the recording was not closed properly; the last record is incomplete and is ignored
+            }
+
+            if(keyframes.isEmpty() || keyframes.first().kind != recordWorld) throw new IOException("Replay does not start with world data: " + file);
+
+            duration = end;
+            open(start);
+            time = 0;
+        }
+
+        /** Reads the next record, reusing the data array of the record. @return false at the end of the replay. */
+        public boolean next(ReplayRecord record) throws IOException{
+            try{
+                if(!readHeader(record)) return false;
+
+                if(record.data.length < record.length){
+                    record.data = new byte[record.length];
+                }
+                stream.readFully(record.data, 0, record.length);
+                position += record.length;
+                return true;
+            }catch(EOFException e){
+                //incomplete last record
+                return false;
+            }
+        }
+
+        /** Moves to a keyframe; it is returned by the next call to {@link #next(ReplayRecord)}. */
+        public void seek(Keyframe keyframe) throws IOException{
+            open(keyframe.position);
+            time = keyframe.previousTime;
+        }
+
+        /** @return the last keyframe at or before a point in time, or the world record if there is none. */
+        public Keyframe keyframeAt(long time){
+            Keyframe result = keyframes.first();
+            for(Keyframe keyframe : keyframes){
+                if(keyframe.time > time) break;
+                result = keyframe;
+            }
+            return result;
+        }
+
+        public Seq<Keyframe> keyframes(){
+            return keyframes;
+        }
+
+        /** @return the time of the last record, in milliseconds. */
+        public long duration(){
+            return duration;
+        }
+
+        @Override
+        public void close() throws IOException{
+            stream.close();
+        }
+
+        private void open(long position) throws IOException{
+            if(stream != null) stream.close();
+
+            FileInputStream input = new FileInputStream(file.file());
+            input.getChannel().position(position);
+            stream = new DataInputStream(new BufferedInputStream(input, 8192));
+            this.position = position;
+        }
+
+        private boolean readHeader(ReplayRecord record) throws IOException{
+            long start = position;
+            int kind = stream.read();
+            if(kind == -1) return false;
+            position++;
+
+            record.kind = (byte)kind;
+            record.position = start;
+            record.delta = readVar();
+            record.length = (int)readVar();
+            record.time = time += record.delta;
+            return true;
+        }
+
+        private void skip(int amount) throws IOException{
+            int left = amount;
+            while(left > 0){
+                long skipped = stream.skip(left);
+                if(skipped <= 0){
+                    //skip() may return 0 before the end; read a byte to tell the two apart
+                    if(stream.read() == -1) throw new EOFException();
+                    skipped = 1;
+                }
+                left -= skipped;
+            }
+            position += amount;
+        }
+
+        private long readVar() throws IOException{
+            long result = 0;
+            for(int shift = 0; ; shift += 7){
+                int b = stream.readUnsignedByte();
+                position++;
+                result |= (long)(b & 0x7f) << shift;
+                if((b & 0x80) == 0) return result;
+            }
+        }
+    }
+
+    public static class ReplayRecord{
+        public byte kind;
+        /** Time of this record since recording started, in milliseconds. */
+        public long time;
+        /** Only the first {@link #length} bytes are valid. */
+        public byte[] data = new byte[256];
+        public int length;
+
+        long delta, position;
+    }
+
+    public static class Keyframe{
+        public final byte kind;
+        public final long time;
+        final long position, previousTime;
+
+        Keyframe(byte kind, long time, long position, long previousTime){
+            this.kind = kind;
+            this.time = time;
+            this.position = position;
+            this.previousTime = previousTime;
+        }
+    }
+}
@@ -63,8 +63,10 @@ public abstract class SaveFileReader{
     protected int lastRegionLength;
     protected @Nullable CounterInputStream currCounter;
 
-    public void region(String name, DataInput stream, CounterInputStream counter, IORunner<DataInput> cons) throws IOException{
-        counter.resetCount();
+    /** Reads a region. The counter is used to validate its length; it may be null if the stream is a {@link ByteBufferDataInput}, which tracks its own position. */
+    public void region(String name, DataInput stream, @Nullable CounterInputStream counter, IORunner<DataInput> cons) throws IOException{
+        int start = stream instanceof ByteBufferDataInput buffer ? buffer.position() : 0;
+        if(counter != null) counter.resetCount();
         this.currCounter = counter;
         int length;
         try{
@@ -73,8 +75,9 @@ public abstract class SaveFileReader{
             throw new IOException("Error reading region \"" + name + "\".", e);
         }
 
-        if(length != counter.count - 4){
-            throw new IOException("Error reading region \"" + name + "\": read length mismatch. Expected: " + length + "; Actual: " + (counter.count - 4));
+        int read = stream instanceof ByteBufferDataInput buffer ? buffer.position() - start : counter.count;
+        if(length != read - 4){
+            throw new IOException("Error reading region \"" + name + "\": read length mismatch. Expected: " + length + "; Actual: " + (read - 4));
         }
     }
 
@@ -152,7 +155,13 @@ public abstract class SaveFileReader{
         return map;
     }
 
-    public abstract void read(DataInputStream stream, CounterInputStream counter, WorldContext context) throws IOException;
+    public abstract void read(DataInput stream, @Nullable CounterInputStream counter, WorldContext context) throws IOException;
+
+    /** @deprecated saves are read from any {@link DataInput}; kept for plugins that call this with a stream. */
+    @Deprecated
+    public void read(DataInputStream stream, CounterInputStream counter, WorldContext context) throws IOException{
+        read((DataInput)stream, counter, context);
+    }
 
     public abstract void write(DataOutputStream stream) throws IOException;
 
@@ -2,6 +2,7 @@ package mindustry.io;
 
 import arc.*;
 import arc.files.*;
+import arc.func.*;
 import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
@@ -12,7 +13,9 @@ import mindustry.io.versions.*;
 import mindustry.world.*;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import static mindustry.Vars.*;
@@ -21,7 +24,26 @@ public class SaveIO{
     /** Format header. This is the string 'MSAV' in ASCII. */
     public static final byte[] header = {77, 83, 65, 86};
     public static final IntMap<SaveVersion> versions = new IntMap<>();
-    public static final Seq<SaveVersion> versionArray = Seq.with(new Save1(), new Save2(), new Save3(), new Save4());
+    public static final Seq<SaveVersion> versionArray = Seq.with(new Save1(), new Save2(), new Save3(), new Save4(), new Save5());
+
+    /** Compresses and writes saves made by {@link #saveAsync}, one at a time. */
+    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Save Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Reads and inflates saves for {@link #preload(Fi)}. */
+    private static final ExecutorService preloadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Save Preloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Initial and retained size of {@link #inflated}. */
+    private static final int inflatedSize = 1024 * 256, maxRetainedInflated = 1024 * 1024 * 8;
+    /** Reusable buffer that save files are inflated into when loading, one per thread, as saves can be loaded and checked from workers. */
+    private static final ThreadLocal<ByteBuffer> inflated = new ThreadLocal<>();
+    /** Size of the last uncompressed save image, used to size the next one. */
+    private static int lastImageSize = 1024 * 64;
 
     static{
         for(SaveVersion version : versionArray){
@@ -42,26 +64,80 @@ public class SaveIO{
         if(exists) file.moveTo(backupFileFor(file));
         try{
             write(file);
+            //a full save contains everything the journal recorded
+            journalFileFor(file).delete();
+            SaveIndex.update(file);
         }catch(Throwable e){
             if(exists) backupFileFor(file).moveTo(file);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Saves the game in two phases. Serialization is synchronous: the whole game state is written into memory on the calling thread,
+     * which blocks it for a time that grows with the map size and entity count. This is still much faster than a full save, as nothing is compressed.
+     * Only compression and file output happen on a background thread.
+     * The file is only replaced once the new save has been written completely; the previous save is kept as its backup, like {@link #save(Fi)}.
+     * @param done called on the main thread once the file is written, with the exception if saving failed, or null.
+     */
+    public static void saveAsync(Fi file, @Nullable StringMap tags, Cons<Throwable> done){
+        SaveVersion version = getVersion();
+        OutputWriter output;
+
+        if(version instanceof Save5 chunked){
+            //regions are compressed in parallel on the background thread
+            Save5.Image image;
+            try{
+                image = chunked.capture(tags);
+            }catch(IOException e){
+                throw new RuntimeException(e);
+            }
+
+            output = out -> writeImage(out, chunked, image);
+        }else{
+            ByteArrayOutputStream image = new ByteArrayOutputStream(lastImageSize);
+            write(image, tags);
+            lastImageSize = image.size();
+
+            output = out -> {
+                try(OutputStream stream = deflate(out)){
+                    image.writeTo(stream);
+                }
+            };
+        }
+
+        saveExecutor.submit(() -> {
+            Throwable error = null;
+            Fi temp = file.sibling(file.name() + ".tmp");
+            try{
+                output.write(temp.write(false, bufferSize));
+
+                if(file.exists()){
+                    backupFileFor(file).delete();
+                    file.moveTo(backupFileFor(file));
+                }
+                temp.moveTo(file);
+                SaveIndex.update(file);
+            }catch(Throwable e){
+                temp.delete();
+                error = e;
+            }
+
+            Throwable result = error;
+            Core.app.post(() -> done.get(result));
+        });
+    }
+
     public static DataInputStream getStream(Fi file){
-        return new DataInputStream(new InflaterInputStream(file.read(bufferSize)));
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(file.read(bufferSize)), bufferSize));
     }
 
     public static DataInputStream getBackupStream(Fi file){
-        return new DataInputStream(new InflaterInputStream(backupFileFor(file).read(bufferSize)));
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(backupFileFor(file).read(bufferSize)), bufferSize));
     }
 
     public static boolean isSaveValid(Fi file){
-        try(DataInputStream stream = new DataInputStream(new InflaterInputStream(file.read(bufferSize)))){
-            return isSaveValid(stream);
-        }catch(Throwable e){
-            return false;
-        }
+        return SaveIndex.get(file) != null;
     }
 
     public static boolean isSaveValid(DataInputStream stream){
@@ -74,7 +150,13 @@ public class SaveIO{
         }
     }
 
+    /** Reads the metadata of a save. Uses the {@link SaveIndex} of its directory, so only new or changed files are read. */
     public static SaveMeta getMeta(Fi file){
+        SaveIndex.Entry entry = SaveIndex.get(file);
+        if(entry != null){
+            return versions.get(entry.version).getMeta(entry.tags());
+        }
+
         try{
             return getMeta(getStream(file));
         }catch(Throwable e){
@@ -104,8 +186,21 @@ public class SaveIO{
         return file.sibling(file.name() + "-backup." + file.extension());
     }
 
+    /** @return the file that changes made after a save are recorded to; see {@link SaveJournal}. */
+    public static Fi journalFileFor(Fi file){
+        return file.sibling(file.name() + ".journal");
+    }
+
     public static void write(Fi file, StringMap tags){
-        write(new FastDeflaterOutputStream(file.write(false, bufferSize)), tags);
+        write(deflate(file.write(false, bufferSize)), tags);
+    }
+
+    /**
+     * @return a stream that compresses a save written to it, as expected by {@link #load(InputStream, WorldContext)}.
+     * If the current version compresses its regions itself, the data is only framed as a deflate stream, without compressing it again.
+     */
+    public static OutputStream deflate(OutputStream output){
+        return getVersion().compressesRegions() ? new StoredOutputStream(output) : new FastDeflaterOutputStream(output);
     }
 
     public static void write(Fi file){
@@ -126,6 +221,15 @@ public class SaveIO{
         }
     }
 
+    /** Compresses and writes a game state captured with {@link Save5#capture(StringMap)} as a complete save. Can be called from any thread. */
+    public static void writeImage(OutputStream os, Save5 version, Save5.Image image) throws IOException{
+        try(DataOutputStream stream = new DataOutputStream(deflate(os))){
+            stream.write(header);
+            stream.writeInt(version.version);
+            version.write(stream, image);
+        }
+    }
+
     public static void load(String saveName) throws SaveException{
         load(saveDirectory.child(saveName + ".msav"));
     }
@@ -137,28 +241,84 @@ public class SaveIO{
     public static void load(Fi file, WorldContext context) throws SaveException{
         try{
             //try and load; if any exception at all occurs
-            load(new InflaterInputStream(file.read(bufferSize)), context);
+            loadInflated(file, context);
         }catch(SaveException e){
+            //the journal belongs to the save that failed to load, so it is not applied to the backup
             Log.err(e);
             Fi backup = file.sibling(file.name() + "-backup." + file.extension());
             if(backup.exists()){
-                load(new InflaterInputStream(backup.read(bufferSize)), context);
+                loadInflated(backup, context);
             }else{
                 throw new SaveException(e.getCause());
             }
+            return;
+        }
+
+        Fi journal = journalFileFor(file);
+        if(journal.exists()){
+            try{
+                Time.mark();
+                int records = SaveJournal.replay(journal);
+                Log.info("Replayed @ journal records of @ in @ms.", records, file.name(), Time.elapsed());
+            }catch(Throwable e){
+                //the base save is still consistent; only the changes after it are lost
+                Log.err("Failed to replay save journal " + journal.name(), e);
+            }
         }
     }
 
     /** Loads from a deflated (!) input stream. */
     public static void load(InputStream is, WorldContext context) throws SaveException{
         try(CounterInputStream counter = new CounterInputStream(is); DataInputStream stream = new DataInputStream(counter)){
-            logic.reset();
-            readHeader(stream);
-            int version = stream.readInt();
-            SaveVersion ver = versions.get(version);
+            read(stream, counter, context);
+        }catch(Throwable e){
+            throw new SaveException(e);
+        }finally{
+            world.setGenerating(false);
+            content.setTemporaryMapper(null);
+        }
+    }
 
-            ver.read(stream, counter, context);
-            Events.fire(new SaveLoadEvent());
+    /**
+     * Loads a save file by inflating all of it into memory first, and decoding it with a {@link ByteBufferDataInput}.
+     * This is much faster than reading through a chain of streams, where every single value read goes through the inflater.
+     */
+    static void loadInflated(Fi file, WorldContext context) throws SaveException{
+        ByteBuffer data;
+        try{
+            data = inflate(file);
+        }catch(Throwable e){
+            throw new SaveException(e);
+        }
+
+        try{
+            load(data, context);
+        }finally{
+            //the buffer grows to the largest save loaded; huge ones are not worth keeping around
+            if(data.capacity() > maxRetainedInflated){
+                inflated.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads and inflates a save file on a background thread, so that it can be loaded later with {@link #load(ByteBuffer, WorldContext)}
+     * without waiting for the disk or for decompression. For saves of {@link Save5}, the floors of the map are decoded on that thread as well.
+     * Errors are thrown by {@link Future#get()} as an {@link ExecutionException}.
+     */
+    public static Future<PreloadedSave> preload(Fi file){
+        return preloadExecutor.submit(() -> {
+            //inflated saves are usually a few times larger than the file
+            int estimate = (int)Math.min(Math.max(file.length() * 4, 1024 * 64), 1024 * 1024 * 256);
+            ByteBuffer data = inflate(file, ByteBuffer.allocate(estimate));
+            return new PreloadedSave(data, versions.get(Save5.versionOf(data)) instanceof Save5 chunked ? chunked.readFloors(data) : null);
+        });
+    }
+
+    /** Loads an inflated save, e.g. one returned by {@link #preload(Fi)}. */
+    public static void load(ByteBuffer inflated, WorldContext context) throws SaveException{
+        try{
+            read(new ByteBufferDataInput(inflated), null, context);
         }catch(Throwable e){
             throw new SaveException(e);
         }finally{
@@ -167,6 +327,63 @@ public class SaveIO{
         }
     }
 
+    private static void read(DataInput stream, @Nullable CounterInputStream counter, WorldContext context) throws IOException{
+        logic.reset();
+        readHeader(stream);
+        int version = stream.readInt();
+        SaveVersion ver = versions.get(version);
+
+        ver.read(stream, counter, context);
+        Events.fire(new SaveLoadEvent());
+    }
+
+    /**
+     * Inflates a whole save file.
+     * @return a buffer with the inflated data, which is reused by the next call on the same thread.
+     */
+    static ByteBuffer inflate(Fi file) throws IOException, DataFormatException{
+        ByteBuffer buffer = inflated.get();
+        buffer = inflate(file, buffer == null ? ByteBuffer.allocate(inflatedSize) : buffer);
+        inflated.set(buffer);
+        return buffer;
+    }
+
+    /**
+     * Inflates a whole save file into a buffer. Thread-safe, as long as the buffer is not used elsewhere.
+     * The file is read into an array rather than memory-mapped, as mapped files cannot be unmapped explicitly,
+     * and would stay locked on Windows until collected, which breaks replacing the save.
+     * @return the buffer with the inflated data, which is a larger replacement if the given one was too small.
+     */
+    static ByteBuffer inflate(Fi file, ByteBuffer output) throws IOException, DataFormatException{
+        byte[] input = file.readBytes();
+
+        Inflater inflater = new Inflater();
+        try{
+            inflater.setInput(input);
+            byte[] bytes = output.array();
+            int size = 0;
+
+            while(!inflater.finished()){
+                if(size == bytes.length){
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+
+                int read = inflater.inflate(bytes, size, bytes.length - size);
+                if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+                    throw new EOFException("Save file is truncated: " + file);
+                }
+                size += read;
+            }
+
+            output = bytes == output.array() ? output : ByteBuffer.wrap(bytes);
+            output.clear();
+            output.limit(size);
+            return output;
+        }finally{
+            inflater.end();
+        }
+    }
+
     public static SaveVersion getVersion(){
         return versionArray.peek();
     }
@@ -179,9 +396,43 @@ public class SaveIO{
         }
     }
 
+    interface OutputWriter{
+        void write(OutputStream output) throws IOException;
+    }
+
+    /** A deflate stream that stores data without compressing it. */
+    static class StoredOutputStream extends DeflaterOutputStream{
+
+        StoredOutputStream(OutputStream output){
+            super(output, new Deflater(Deflater.NO_COMPRESSION), bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException{
+            try{
+                super.close();
+            }finally{
+                def.end();
+            }
+        }
+    }
+
     public static class SaveException extends RuntimeException{
         public SaveException(Throwable throwable){
             super(throwable);
         }
     }
+
+    /** A save read by {@link #preload(Fi)}. It can only be loaded once, as its tiles become part of the world. */
+    public static class PreloadedSave{
+        /** The inflated save file. */
+        public final ByteBuffer data;
+        /** The floors and overlays of the map, not yet part of the world; null if they are read when loading. */
+        public final @Nullable Tiles tiles;
+
+        PreloadedSave(ByteBuffer data, @Nullable Tiles tiles){
+            this.data = data;
+            this.tiles = tiles;
+        }
+    }
 }
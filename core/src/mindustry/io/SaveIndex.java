@@ -0,0 +1,180 @@
+package mindustry.io;
+
+import arc.Files.*;
+import arc.files.*;
+import arc.struct.*;
+import arc.util.*;
+
+import java.io.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Caches the metadata of the save and map files in a directory, so that listing them does not decompress every file.
+ * The index is stored as one small file in the directory. Entries are validated by file size and modification time,
+ * and are read from the file again whenever either changed.
+ * <p>
+ * Changes are kept in memory until {@link #flush()} is called; listings should flush once they are done.
+ */
+public class SaveIndex{
+    /** Name of the index file in every indexed directory. */
+    public static final String fileName = "index.dat";
+    static final int indexVersion = 1;
+
+    private static final ObjectMap<String, SaveIndex> indices = new ObjectMap<>();
+
+    final Fi directory;
+    final ObjectMap<String, Entry> entries = new ObjectMap<>();
+    boolean dirty;
+
+    SaveIndex(Fi directory){
+        this.directory = directory;
+        read();
+    }
+
+    /** @return the indexed metadata of a file, or null if it is not a valid save or map. */
+    public static synchronized @Nullable Entry get(Fi file){
+        SaveIndex index = of(file);
+        if(index == null) return readEntry(file);
+
+        Entry entry = index.entries.get(file.name());
+        if(entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()){
+            return entry;
+        }
+
+        entry = readEntry(file);
+        if(entry == null){
+            index.dirty |= index.entries.remove(file.name()) != null;
+        }else{
+            index.entries.put(file.name(), entry);
+            index.dirty = true;
+        }
+        return entry;
+    }
+
+    /** Reads the metadata of a file that was just written, and saves the index of its directory. */
+    public static synchronized void update(Fi file){
+        SaveIndex index = of(file);
+        if(index == null) return;
+
+        //entries are only replaced if their size or date changed, which may not be the case for fast consecutive writes
+        index.entries.remove(file.name());
+        get(file);
+        index.write();
+    }
+
+    /** Writes the indices of all directories that changed. */
+    public static synchronized void flush(){
+        for(SaveIndex index : indices.values()){
+            if(index.dirty) index.write();
+        }
+    }
+
+    static @Nullable SaveIndex of(Fi file){
+        //files in jars, classpath resources and similar cannot be indexed
+        if(file.type() != FileType.local && file.type() != FileType.absolute && file.type() != FileType.external) return null;
+
+        Fi directory = file.parent();
+        return indices.get(directory.absolutePath(), () -> new SaveIndex(directory));
+    }
+
+    static @Nullable Entry readEntry(Fi file){
+        try(DataInputStream stream = SaveIO.getStream(file)){
+            SaveIO.readHeader(stream);
+            int version = stream.readInt();
+            SaveVersion ver = SaveIO.getSaveWriter(version);
+            if(ver == null) return null;
+
+            //the meta region is never compressed by the version itself
+            stream.readInt();
+            StringMap tags = ver.readStringMap(stream);
+            long size = file.length(), modified = file.lastModified();
+            return new Entry(size, modified, version, Long.hashCode(size * 31 + modified), tags);
+        }catch(Throwable e){
+            Log.debug("Not indexing @: @", file.name(), Strings.getSimpleMessage(e));
+            return null;
+        }
+    }
+
+    void read(){
+        Fi file = directory.child(fileName);
+        if(!file.exists()) return;
+
+        try(DataInputStream stream = new DataInputStream(new InflaterInputStream(file.read(bufferSize)))){
+            if(stream.readInt() != indexVersion) return;
+
+            int amount = stream.readInt();
+            for(int i = 0; i < amount; i++){
+                String name = stream.readUTF();
+                long size = stream.readLong(), modified = stream.readLong();
+                int version = stream.readInt(), previewHash = stream.readInt();
+                StringMap tags = new StringMap();
+                int tagAmount = stream.readShort();
+                for(int j = 0; j < tagAmount; j++){
+                    tags.put(stream.readUTF(), stream.readUTF());
+                }
+                entries.put(name, new Entry(size, modified, version, previewHash, tags));
+            }
+        }catch(Throwable e){
+            //the index is rebuilt from the files
+            Log.warn("Discarding invalid save index @: @", file.absolutePath(), Strings.getSimpleMessage(e));
+            entries.clear();
+        }
+    }
+
+    void write(){
+        //files that were deleted outside the game
+        for(String name : entries.keys().toSeq()){
+            if(!directory.child(name).exists()) entries.remove(name);
+        }
+
+        Fi file = directory.child(fileName);
+        try(DataOutputStream stream = new DataOutputStream(new DeflaterOutputStream(file.write(false, bufferSize)))){
+            stream.writeInt(indexVersion);
+            stream.writeInt(entries.size);
+            for(var entry : entries.entries()){
+                Entry value = entry.value;
+                stream.writeUTF(entry.key);
+                stream.writeLong(value.size);
+                stream.writeLong(value.lastModified);
+                stream.writeInt(value.version);
+                stream.writeInt(value.previewHash);
+                stream.writeShort(value.tags.size);
+                for(var tag : value.tags.entries()){
+                    stream.writeUTF(tag.key);
+                    stream.writeUTF(tag.value);
+                }
+            }
+        }catch(Throwable e){
+            //e.g. read-only workshop folders; the files are read again next time
+            Log.debug("Failed to write save index @: @", file.absolutePath(), Strings.getSimpleMessage(e));
+        }
+        dirty = false;
+    }
+
+    /** Metadata of an indexed file. */
+    public static class Entry{
+        public final long size, lastModified;
+        /** Version of the save format. */
+        public final int version;
+        /** Changes whenever the file changes, so that cached previews can be checked. */
+        public final int previewHash;
+        final StringMap tags;
+
+        Entry(long size, long lastModified, int version, int previewHash, StringMap tags){
+            this.size = size;
+            this.lastModified = lastModified;
+            this.version = version;
+            this.previewHash = previewHash;
+            this.tags = tags;
+        }
+
+        /** @return a copy of the tags of the meta region, which can be modified. */
+        public StringMap tags(){
+            StringMap copy = new StringMap();
+            copy.putAll(tags);
+            return copy;
+        }
+    }
+}
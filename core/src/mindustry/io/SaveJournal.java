@@ -0,0 +1,412 @@
+package mindustry.io;
+
+import arc.files.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import mindustry.game.*;
+import mindustry.gen.*;
+import mindustry.world.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * An append-only log of changes since a save was written, so that the game can be saved often without writing full saves.
+ * Tile and configuration changes are logged as they happen. Periodic checkpoints add the game state, the buildings whose
+ * {@link Building#syncState()} changed and the units that changed since the last checkpoint. {@link SaveIO#load(Fi)} replays the journal of a save over it.
+ * The rules are only written when they were replaced, or marked with {@link #rulesChanged()}.
+ * <p>
+ * Units are identified by their ID in the game that wrote the journal, which differs from the IDs they get when the save is loaded.
+ * The first checkpoint therefore contains every unit and replaces those of the save; later ones only contain units that moved
+ * or whose health, ammo, items or plans changed, and the IDs of removed units. Like block syncing, this misses state that does not
+ * affect these values, e.g. the progress of a drill or the status effects of a unit that stands still, until something else changes.
+ * <p>
+ * A journal is a header, the save version used for entity data, and a sequence of records: a kind byte, an int length and the data.
+ * An incomplete last record, e.g. after a crash, is ignored. Content is referenced by ID, so a journal is only valid for the same content.
+ */
+public class SaveJournal implements Closeable{
+    /** Format header. This is the string 'MJNL' in ASCII. */
+    public static final byte[] header = {77, 74, 78, 76};
+
+    static final byte recordTile = 0, recordConfig = 1, recordCheckpoint = 2;
+    /** Maximum time between flushes of logged changes to the file, in milliseconds. */
+    static final long flushSpacing = 1000;
+
+    public final Fi file;
+
+    private final DataOutputStream stream;
+    private final SaveVersion version = SaveIO.getSaveWriter();
+    private final ReusableByteOutStream record = new ReusableByteOutStream();
+    private final DataOutputStream recordData = new DataOutputStream(record);
+    private final Writes writes = new Writes(recordData);
+    private final ReusableByteOutStream entityData = new ReusableByteOutStream();
+    private final Writes entityWrites = new Writes(new DataOutputStream(entityData));
+    /** Sync states of the buildings as of the last checkpoint, by tile position. Buildings that are missing are written with the next one. */
+    private final IntMap<Long> buildingStates = new IntMap<>();
+    /** States of the units as of the last checkpoint, by entity ID. */
+    private final IntIntMap entityStates = new IntIntMap(), lastEntityStates = new IntIntMap();
+    /** Rules as of the last checkpoint that wrote them. Replacing {@link mindustry.core.GameState#rules} is detected by identity; changing them in place is not. */
+    private @Nullable Rules lastRules;
+    private boolean rulesChanged;
+    private long lastCheckpoint = Time.millis(), lastFlush = Time.millis();
+    private boolean dirty, closed, wroteEntities;
+
+    /** Starts a journal for a save. Any previous journal of it is replaced, so this should be called right after the save's data was captured. */
+    public SaveJournal(Fi save) throws IOException{
+        file = SaveIO.journalFileFor(save);
+        stream = new DataOutputStream(file.write(false, bufferSize));
+        stream.write(header);
+        stream.writeInt(version.version);
+        stream.flush();
+
+        //the buildings are part of the save already
+        for(Building build : Groups.build){
+            if(build.tile.isCenter()) buildingStates.put(build.tile.pos(), build.syncState());
+        }
+    }
+
+    /** Logs a changed tile. Only the block of the tile is logged; the state of new buildings is written with the next checkpoint. */
+    public void tileChanged(Tile tile){
+        if(closed || (tile.build != null && !tile.isCenter())) return;
+
+        begin();
+        writes.i(tile.pos());
+        writes.s(tile.blockID());
+        writes.b(tile.team().id);
+        writes.b(tile.build == null ? 0 : tile.build.rotation);
+        end(recordTile);
+        buildingStates.remove(tile.pos());
+    }
+
+    /** Logs a configuration applied to a building. */
+    public void configured(Building build, @Nullable Object value){
+        if(closed) return;
+
+        begin();
+        writes.i(build.tile.pos());
+        TypeIO.writeObject(writes, value);
+        end(recordConfig);
+        buildingStates.remove(build.tile.pos());
+    }
+
+    /**
+     * Marks the rules as changed, so that they are written with the next checkpoint.
+     * Must be called when the current rules are modified in place, e.g. before they are sent to players with {@link Call#setRules(Rules)}.
+     */
+    public void rulesChanged(){
+        rulesChanged = true;
+    }
+
+    /** Writes a checkpoint if it is due, and flushes logged changes. Should be called every frame while playing. */
+    public void update(long checkpointSpacing){
+        if(closed) return;
+
+        if(Time.timeSinceMillis(lastCheckpoint) >= checkpointSpacing){
+            checkpoint();
+        }else if(dirty && Time.timeSinceMillis(lastFlush) >= flushSpacing){
+            flush();
+        }
+    }
+
+    /** Writes the game state and all buildings and units that changed since the last checkpoint. */
+    public void checkpoint(){
+        if(closed) return;
+
+        Time.mark();
+        try{
+            record.reset();
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(record, new Deflater(Deflater.BEST_SPEED), true){
+                @Override
+                public void close() throws IOException{
+                    super.close();
+                    def.end();
+                }
+            });
+
+            out.writeInt(state.wave);
+            out.writeFloat(state.wavetime);
+
+            //rules rarely change, and may be larger than writeUTF allows
+            boolean writeRules = rulesChanged || state.rules != lastRules;
+            out.writeBoolean(writeRules);
+            if(writeRules){
+                byte[] bytes = JsonIO.write(state.rules).getBytes(Strings.utf8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                lastRules = state.rules;
+                rulesChanged = false;
+            }
+
+            int buildings = writeBuildings(out);
+            version.writeTeamBlocks(out);
+            int units = writeEntities(out);
+            out.close();
+
+            writeRecord(recordCheckpoint, record.getBytes(), record.size());
+            flush();
+            Log.debug("Wrote journal checkpoint with @ changed buildings and @ changed units (@ KB) in @ms.", buildings, units, record.size() / 1024, Time.elapsed());
+        }catch(IOException e){
+            Log.err("Failed to write journal checkpoint", e);
+            close();
+        }
+        lastCheckpoint = Time.millis();
+    }
+
+    /** Writes the buildings whose sync state changed. @return the amount of buildings written. */
+    private int writeBuildings(DataOutputStream out) throws IOException{
+        Seq<Building> changed = new Seq<>();
+        for(Building build : Groups.build){
+            if(!build.tile.isCenter()) continue;
+            int pos = build.tile.pos();
+            long syncState = build.syncState();
+            Long last = buildingStates.get(pos);
+            if(last == null || last != syncState){
+                changed.add(build);
+                buildingStates.put(pos, syncState);
+            }
+        }
+
+        out.writeInt(changed.size);
+        for(Building build : changed){
+            entityData.reset();
+            build.writeAll(entityWrites);
+            out.writeInt(build.tile.pos());
+            out.writeShort(build.block.id);
+            out.writeByte(build.version());
+            out.writeInt(entityData.size());
+            out.write(entityData.getBytes(), 0, entityData.size());
+        }
+        return changed.size;
+    }
+
+    /** Writes the IDs of removed units, and the units that are new or changed. The first checkpoint writes every unit. @return the amount of units written. */
+    private int writeEntities(DataOutputStream out) throws IOException{
+        lastEntityStates.clear();
+        lastEntityStates.putAll(entityStates);
+        entityStates.clear();
+
+        Seq<Entityc> changed = new Seq<>();
+        for(Entityc entity : Groups.all){
+            if(!entity.serialize()) continue;
+            int id = entity.id(), entityState = state(entity);
+            entityStates.put(id, entityState);
+            //only units have a known state; anything else is always written
+            if(!(entity instanceof Unit) || !lastEntityStates.containsKey(id) || lastEntityStates.get(id, 0) != entityState){
+                changed.add(entity);
+            }
+        }
+
+        out.writeBoolean(!wroteEntities);
+        int removed = 0;
+        for(var entry : lastEntityStates){
+            if(!entityStates.containsKey(entry.key)) removed++;
+        }
+        out.writeInt(removed);
+        for(var entry : lastEntityStates){
+            if(!entityStates.containsKey(entry.key)) out.writeInt(entry.key);
+        }
+
+        out.writeInt(changed.size);
+        for(Entityc entity : changed){
+            entityData.reset();
+            entityWrites.b(entity.classId());
+            entity.write(entityWrites);
+            out.writeInt(entity.id());
+            out.writeInt(entityData.size());
+            out.write(entityData.getBytes(), 0, entityData.size());
+        }
+
+        wroteEntities = true;
+        return changed.size;
+    }
+
+    public void flush(){
+        if(closed) return;
+
+        try{
+            stream.flush();
+        }catch(IOException e){
+            Log.err("Failed to write journal", e);
+            close();
+        }
+        dirty = false;
+        lastFlush = Time.millis();
+    }
+
+    @Override
+    public void close(){
+        if(closed) return;
+
+        try{
+            stream.close();
+        }catch(IOException e){
+            Log.err("Failed to close journal", e);
+        }
+        closed = true;
+    }
+
+    /**
+     * Applies a journal to the current game state, which should be the save it belongs to.
+     * @return the number of records that were applied.
+     */
+    public static int replay(Fi file) throws IOException{
+        try(DataInputStream stream = new DataInputStream(new BufferedInputStream(file.read(bufferSize), bufferSize))){
+            byte[] bytes = new byte[header.length];
+            stream.readFully(bytes);
+            if(!Arrays.equals(bytes, header)) throw new IOException("Not a save journal: " + file);
+
+            SaveVersion version = SaveIO.getSaveWriter(stream.readInt());
+            if(version == null) throw new IOException("Unknown save version in journal: " + file);
+
+            int records = 0;
+            byte[] data = new byte[256];
+            //units created by the journal, by their ID in the game that wrote it
+            IntMap<Entityc> entities = new IntMap<>();
+
+            while(true){
+                int kind = stream.read();
+                if(kind == -1) break;
+
+                int length;
+                try{
+                    length = stream.readInt();
+                    if(data.length < length) data = new byte[length];
+                    stream.readFully(data, 0, length);
+                }catch(EOFException e){
+                    //incomplete last record
+                    break;
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+                switch(kind){
+                    case recordTile -> applyTile(in);
+                    case recordConfig -> applyConfig(in);
+                    case recordCheckpoint -> applyCheckpoint(new DataInputStream(new InflaterInputStream(in)), version, entities);
+                    default -> throw new IOException("Unknown journal record: " + kind);
+                }
+                records++;
+            }
+
+            return records;
+        }
+    }
+
+    static void applyTile(DataInputStream in) throws IOException{
+        Tile tile = world.tile(in.readInt());
+        Block block = content.block(in.readShort());
+        Team team = Team.get(in.readByte());
+        int rotation = in.readByte();
+
+        if(tile != null && block != null){
+            tile.setBlock(block, team, rotation);
+        }
+    }
+
+    static void applyConfig(DataInputStream in) throws IOException{
+        Tile tile = world.tile(in.readInt());
+        Object value = TypeIO.readObject(Reads.get(in));
+
+        if(tile != null && tile.build != null){
+            tile.build.configured(null, value);
+        }
+    }
+
+    static void applyCheckpoint(DataInputStream in, SaveVersion version, IntMap<Entityc> entities) throws IOException{
+        state.wave = in.readInt();
+        state.wavetime = in.readFloat();
+        if(in.readBoolean()){
+            byte[] rules = new byte[in.readInt()];
+            in.readFully(rules);
+            state.rules = JsonIO.read(Rules.class, new String(rules, Strings.utf8));
+        }
+
+        int buildings = in.readInt();
+        for(int i = 0; i < buildings; i++){
+            Tile tile = world.tile(in.readInt());
+            short block = in.readShort();
+            byte revision = in.readByte();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+
+            if(tile != null && tile.build != null && tile.isCenter() && tile.build.block.id == block){
+                tile.build.readAll(Reads.get(new DataInputStream(new ByteArrayInputStream(data))), revision);
+            }
+        }
+
+        version.readTeamBlocks(in);
+
+        if(in.readBoolean()){
+            //the first checkpoint replaces the units of the save
+            Seq<Entityc> removed = new Seq<>();
+            for(Entityc entity : Groups.all){
+                if(entity.serialize()) removed.add(entity);
+            }
+            removed.each(Entityc::remove);
+            entities.clear();
+        }
+
+        int removed = in.readInt();
+        for(int i = 0; i < removed; i++){
+            Entityc entity = entities.remove(in.readInt());
+            if(entity != null) entity.remove();
+        }
+
+        int changed = in.readInt();
+        for(int i = 0; i < changed; i++){
+            int id = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+
+            Entityc previous = entities.remove(id);
+            if(previous != null) previous.remove();
+
+            var type = EntityMapping.map(data[0]);
+            if(type == null) continue;
+
+            Entityc entity = (Entityc)type.get();
+            entity.read(Reads.get(new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1))));
+            entity.add();
+            entities.put(id, entity);
+        }
+    }
+
+    /** @return a value that changes whenever a unit moves, or its health, ammo, items or plans change. */
+    static int state(Entityc entity){
+        if(!(entity instanceof Unit unit)) return 0;
+
+        int result = Float.floatToIntBits(unit.x) * 31 + Float.floatToIntBits(unit.y);
+        result = result * 31 + Float.floatToIntBits(unit.rotation);
+        result = result * 31 + Float.floatToIntBits(unit.health);
+        result = result * 31 + Float.floatToIntBits(unit.shield);
+        result = result * 31 + Float.floatToIntBits(unit.ammo);
+        result = result * 31 + Float.floatToIntBits(unit.elevation);
+        result = result * 31 + unit.team.id;
+        result = result * 31 + unit.stack.item.id * 31 + unit.stack.amount;
+        result = result * 31 + unit.plans.size;
+        return result;
+    }
+
+    private void begin(){
+        record.reset();
+    }
+
+    private void end(byte kind){
+        try{
+            writeRecord(kind, record.getBytes(), record.size());
+        }catch(IOException e){
+            Log.err("Failed to write journal", e);
+            close();
+        }
+    }
+
+    private void writeRecord(byte kind, byte[] data, int length) throws IOException{
+        stream.writeByte(kind);
+        stream.writeInt(length);
+        stream.write(data, 0, length);
+        dirty = true;
+    }
+}
@@ -31,7 +31,11 @@ public abstract class SaveVersion extends SaveFileReader{
 
     public SaveMeta getMeta(DataInput stream) throws IOException{
         stream.readInt(); //length of data, doesn't matter here
-        StringMap map = readStringMap(stream);
+        return getMeta(readStringMap(stream));
+    }
+
+    /** @return the metadata described by the tags of a meta region. */
+    public SaveMeta getMeta(StringMap map){
         return new SaveMeta(
             map.getInt("version"),
             map.getLong("saved"),
@@ -44,13 +48,18 @@ public abstract class SaveVersion extends SaveFileReader{
         );
     }
 
+    /** @return whether this version compresses its regions itself, so that files of it should not be compressed again. */
+    public boolean compressesRegions(){
+        return false;
+    }
+
     @Override
     public final void write(DataOutputStream stream) throws IOException{
         write(stream, new StringMap());
     }
 
     @Override
-    public final void read(DataInputStream stream, CounterInputStream counter, WorldContext context) throws IOException{
+    public final void read(DataInput stream, @Nullable CounterInputStream counter, WorldContext context) throws IOException{
         region("meta", stream, counter, this::readMeta);
         region("content", stream, counter, this::readContentHeader);
 
@@ -62,7 +71,7 @@ public abstract class SaveVersion extends SaveFileReader{
         }
     }
 
-    public final void write(DataOutputStream stream, StringMap extraTags) throws IOException{
+    public void write(DataOutputStream stream, StringMap extraTags) throws IOException{
         region("meta", stream, out -> writeMeta(out, extraTags));
         region("content", stream, this::writeContentHeader);
         region("map", stream, this::writeMap);
@@ -131,6 +140,11 @@ public abstract class SaveVersion extends SaveFileReader{
     }
 
     public void writeMap(DataOutput stream) throws IOException{
+        writeMap(stream, true);
+    }
+
+    /** @param buildings whether to write buildings; if false, their tiles are written as air. */
+    public void writeMap(DataOutput stream, boolean buildings) throws IOException{
         //write world size
         stream.writeShort(world.width());
         stream.writeShort(world.height());
@@ -159,16 +173,18 @@ public abstract class SaveVersion extends SaveFileReader{
         //blocks
         for(int i = 0; i < world.width() * world.height(); i++){
             Tile tile = world.rawTile(i % world.width(), i / world.width());
-            stream.writeShort(tile.blockID());
+            boolean skipped = !buildings && tile.build != null;
+            short id = skipped ? Blocks.air.id : tile.blockID();
+            stream.writeShort(id);
 
-            boolean savedata = tile.block().saveData;
-            byte packed = (byte)((tile.build != null ? 1 : 0) | (savedata ? 2 : 0));
+            boolean savedata = !skipped && tile.block().saveData;
+            byte packed = (byte)((!skipped && tile.build != null ? 1 : 0) | (savedata ? 2 : 0));
 
             //make note of whether there was an entity/rotation here
             stream.writeByte(packed);
 
             //only write the entity for multiblocks once - in the center
-            if(tile.build != null){
+            if(!skipped && tile.build != null){
                 if(tile.isCenter()){
                     stream.writeBoolean(true);
                     writeChunk(stream, true, out -> {
@@ -187,7 +203,7 @@ public abstract class SaveVersion extends SaveFileReader{
                 for(int j = i + 1; j < world.width() * world.height() && consecutives < 255; j++){
                     Tile nextTile = world.rawTile(j % world.width(), j / world.width());
 
-                    if(nextTile.blockID() != tile.blockID()){
+                    if((!buildings && nextTile.build != null ? Blocks.air.id : nextTile.blockID()) != id){
                         break;
                     }
 
@@ -286,6 +302,21 @@ public abstract class SaveVersion extends SaveFileReader{
 
     public void writeEntities(DataOutput stream) throws IOException{
         //write team data with entities.
+        writeTeamBlocks(stream);
+
+        stream.writeInt(Groups.all.count(Entityc::serialize));
+        for(Entityc entity : Groups.all){
+            if(!entity.serialize()) continue;
+
+            writeChunk(stream, true, out -> {
+                out.writeByte(entity.classId());
+                entity.write(Writes.get(out));
+            });
+        }
+    }
+
+    /** Writes the block plans of every active team. */
+    public void writeTeamBlocks(DataOutput stream) throws IOException{
         Seq<TeamData> data = state.teams.getActive().copy();
         if(!data.contains(Team.sharded.data())) data.add(Team.sharded.data());
         stream.writeInt(data.size);
@@ -300,19 +331,28 @@ public abstract class SaveVersion extends SaveFileReader{
                 TypeIO.writeObject(Writes.get(stream), block.config);
             }
         }
+    }
 
-        stream.writeInt(Groups.all.count(Entityc::serialize));
-        for(Entityc entity : Groups.all){
-            if(!entity.serialize()) continue;
+    public void readEntities(DataInput stream) throws IOException{
+        readTeamBlocks(stream);
 
-            writeChunk(stream, true, out -> {
-                out.writeByte(entity.classId());
-                entity.write(Writes.get(out));
+        int amount = stream.readInt();
+        for(int j = 0; j < amount; j++){
+            readChunk(stream, true, in -> {
+                byte typeid = in.readByte();
+                if(EntityMapping.map(typeid) == null){
+                    in.skipBytes(lastRegionLength - 1);
+                    return;
+                }
+
+                Entityc entity = (Entityc)EntityMapping.map(typeid).get();
+                entity.read(Reads.get(in));
+                entity.add();
             });
         }
     }
 
-    public void readEntities(DataInput stream) throws IOException{
+    public void readTeamBlocks(DataInput stream) throws IOException{
         int teamc = stream.readInt();
 
         for(int i = 0; i < teamc; i++){
@@ -333,24 +373,14 @@ public abstract class SaveVersion extends SaveFileReader{
                 }
             }
         }
-
-        int amount = stream.readInt();
-        for(int j = 0; j < amount; j++){
-            readChunk(stream, true, in -> {
-                byte typeid = in.readByte();
-                if(EntityMapping.map(typeid) == null){
-                    in.skipBytes(lastRegionLength - 1);
-                    return;
-                }
-
-                Entityc entity = (Entityc)EntityMapping.map(typeid).get();
-                entity.read(Reads.get(in));
-                entity.add();
-            });
-        }
     }
 
     public void readContentHeader(DataInput stream) throws IOException{
+        content.setTemporaryMapper(readContentMapper(stream));
+    }
+
+    /** Reads the content header without applying it, so that it can be used on other threads. */
+    public MappableContent[][] readContentMapper(DataInput stream) throws IOException{
         byte mapped = stream.readByte();
 
         MappableContent[][] map = new MappableContent[ContentType.all.length][0];
@@ -366,7 +396,7 @@ public abstract class SaveVersion extends SaveFileReader{
             }
         }
 
-        content.setTemporaryMapper(map);
+        return map;
     }
 
     public void writeContentHeader(DataOutput stream) throws IOException{
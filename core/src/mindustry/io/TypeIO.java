@@ -560,6 +560,16 @@ public class TypeIO{
         return read.b(new byte[length]);
     }
 
+    /** Writes the remaining bytes of a buffer in the same format as {@link #writeBytes(Writes, byte[])}, without changing its position. */
+    public static void writeBuffer(Writes write, ByteBuffer buffer){
+        write.s((short)buffer.remaining());
+        write.b(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    public static ByteBuffer readBuffer(Reads read){
+        return ByteBuffer.wrap(readBytes(read));
+    }
+
     public static void writeInts(Writes write, int[] ints){
         write.s((short)ints.length);
         for(int i : ints){
@@ -0,0 +1,335 @@
+package mindustry.io.versions;
+
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import mindustry.content.*;
+import mindustry.ctype.*;
+import mindustry.io.*;
+import mindustry.world.*;
+import mindustry.world.blocks.environment.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Stores every region except the meta region as independently compressed blocks, which are compressed and decompressed in parallel.
+ * The meta region is stored uncompressed as in older versions, so it can be read without decompressing anything else.
+ * It is followed by a table with the inflated length and stored size of every other region, so that any region can be found
+ * without reading the ones before it; see {@link #readRegion(ByteBuffer, int)}.
+ * Every region then starts with its length and the compressed size of each of its blocks, followed by the blocks;
+ * a region is only inflated when it is read, so e.g. map previews never inflate the entities.
+ * As regions are compressed already, the file itself is written with a stream that does not compress again; see {@link SaveIO#deflate(OutputStream)}.
+ * <p>
+ * This class keeps no state between regions, so the shared instance can be used by several reads and writes at once.
+ */
+public class Save5 extends SaveVersion{
+    /** Regions are split into blocks of this size, which are compressed independently. */
+    public static final int blockSize = 1024 * 128;
+    /** Regions stored after the meta region, in order. Indices into this array are used by {@link #readRegion(ByteBuffer, int)}. */
+    public static final String[] regions = {"content", "map", "entities"};
+
+    /** Compresses and decompresses blocks. */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Math.max(OS.cores, 1), r -> {
+        Thread thread = new Thread(r, "Save Compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Save5(){
+        super(5);
+    }
+
+    @Override
+    public boolean compressesRegions(){
+        return true;
+    }
+
+    /**
+     * Serializes the game state without compressing it. This reads the live world, so it must run on the main thread, which it blocks until the whole state is copied.
+     * The result can then be compressed and written on any thread with {@link #write(DataOutput, Image)};
+     * the header and version need to be written before it, like for {@link #write(DataOutputStream, StringMap)}.
+     */
+    public Image capture(@Nullable StringMap tags) throws IOException{
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        super.region("meta", new DataOutputStream(meta), out -> writeMeta(out, tags == null ? new StringMap() : tags));
+
+        return new Image(meta.toByteArray(), new byte[][]{
+            serialize("content", this::writeContentHeader),
+            serialize("map", this::writeMap),
+            serialize("entities", this::writeEntities)
+        });
+    }
+
+    /** Compresses and writes a captured game state. Thread-safe. */
+    public void write(DataOutput stream, Image image) throws IOException{
+        stream.write(image.meta);
+
+        //blocks of all regions are compressed at once
+        Seq<Future<byte[]>> blocks = new Seq<>();
+        for(byte[] region : image.regions){
+            compress(region, blocks);
+        }
+
+        //the table needs the stored size of every region, so all blocks are compressed before anything else is written
+        byte[][][] compressed = new byte[image.regions.length][][];
+        int block = 0;
+        for(int i = 0; i < compressed.length; i++){
+            compressed[i] = new byte[blockCount(image.regions[i].length)][];
+            for(int j = 0; j < compressed[i].length; j++){
+                compressed[i][j] = await(blocks.get(block++));
+            }
+        }
+
+        stream.writeInt(image.regions.length);
+        for(int i = 0; i < compressed.length; i++){
+            int size = 8 + compressed[i].length * 4;
+            for(byte[] data : compressed[i]){
+                size += data.length;
+            }
+            stream.writeInt(image.regions[i].length);
+            stream.writeInt(size);
+        }
+
+        for(int i = 0; i < compressed.length; i++){
+            writeRegion(stream, image.regions[i].length, compressed[i]);
+        }
+    }
+
+    @Override
+    public void write(DataOutputStream stream, StringMap extraTags) throws IOException{
+        write(stream, capture(extraTags));
+    }
+
+    @Override
+    public void region(String name, DataOutput stream, IORunner<DataOutput> cons) throws IOException{
+        if(!name.equals("meta")){
+            throw new IOException("Region \"" + name + "\" can not be written by itself, as the save starts with a table of all regions. Use write(DataOutput, Image).");
+        }
+        super.region(name, stream, cons);
+    }
+
+    @Override
+    public void region(String name, DataInput stream, @Nullable CounterInputStream counter, IORunner<DataInput> cons) throws IOException{
+        if(name.equals("meta")){
+            super.region(name, stream, counter, cons);
+            return;
+        }
+
+        byte[] raw;
+        try{
+            //the table is only needed for random access; regions read in order are self-describing
+            if(name.equals(regions[0])){
+                for(int i = stream.readInt() * 2; i > 0; i--){
+                    stream.readInt();
+                }
+            }
+            raw = readRegion(stream);
+        }catch(IOException e){
+            throw new IOException("Error decompressing region \"" + name + "\".", e);
+        }
+
+        ByteBufferDataInput input = new ByteBufferDataInput(ByteBuffer.wrap(raw));
+        try{
+            cons.accept(input);
+        }catch(Throwable e){
+            throw new IOException("Error reading region \"" + name + "\".", e);
+        }
+
+        if(input.position() != raw.length){
+            throw new IOException("Error reading region \"" + name + "\": read length mismatch. Expected: " + raw.length + "; Actual: " + input.position());
+        }
+    }
+
+    static byte[] serialize(String name, IORunner<DataOutput> cons) throws IOException{
+        ReusableByteOutStream raw = new ReusableByteOutStream();
+        try{
+            cons.accept(new DataOutputStream(raw));
+        }catch(Throwable e){
+            throw new IOException("Error writing region \"" + name + "\".", e);
+        }
+        return Arrays.copyOf(raw.getBytes(), raw.size());
+    }
+
+    /** Starts compressing the blocks of a region, adding them to the list in order. */
+    static void compress(byte[] region, Seq<Future<byte[]>> blocks){
+        for(int offset = 0; offset < region.length; offset += blockSize){
+            int start = offset;
+            blocks.add(executor.submit(() -> compress(region, start, Math.min(blockSize, region.length - start))));
+        }
+    }
+
+    static void writeRegion(DataOutput stream, int length, byte[][] compressed) throws IOException{
+        stream.writeInt(length);
+        stream.writeInt(compressed.length);
+        for(byte[] data : compressed){
+            stream.writeInt(data.length);
+        }
+        for(byte[] data : compressed){
+            stream.write(data);
+        }
+    }
+
+    /**
+     * Inflates a single region of an inflated save, e.g. one returned by {@link SaveIO#preload(arc.files.Fi)}, without inflating the regions before it.
+     * @param index the index of the region in {@link #regions}.
+     * @return the inflated region, which can be read by the matching method of this class, e.g. {@link #readMap(DataInput, mindustry.world.WorldContext)}.
+     */
+    public static byte[] readRegion(ByteBuffer save, int index) throws IOException{
+        ByteBufferDataInput input = start(save);
+        int version = input.readInt();
+        if(version != 5) throw new IOException("Regions can not be read from saves of version " + version + ".");
+        input.skipBytes(input.readInt());
+
+        int count = input.readInt(), offset = 0;
+        if(index < 0 || index >= count) throw new IOException("Invalid region " + index + "; the save has " + count + " regions.");
+        for(int i = 0; i < count; i++){
+            input.readInt();
+            int size = input.readInt();
+            if(i < index) offset += size;
+        }
+
+        input.skipBytes(offset);
+        return readRegion(input);
+    }
+
+    /** Reads and inflates the next region. Blocks are inflated in parallel while the following ones are read. */
+    static byte[] readRegion(DataInput stream) throws IOException{
+        int length = stream.readInt(), amount = stream.readInt();
+        if(length < 0 || amount != blockCount(length)) throw new IOException("Invalid region: " + length + " bytes in " + amount + " blocks.");
+
+        int[] sizes = new int[amount];
+        for(int i = 0; i < amount; i++){
+            sizes[i] = stream.readInt();
+        }
+
+        byte[] raw = new byte[length];
+        Seq<Future<?>> blocks = new Seq<>(amount);
+        for(int i = 0; i < amount; i++){
+            byte[] data = new byte[sizes[i]];
+            stream.readFully(data);
+            int offset = i * blockSize;
+            blocks.add(executor.submit(() -> decompress(data, raw, offset, Math.min(blockSize, length - offset))));
+        }
+
+        for(Future<?> block : blocks){
+            await(block);
+        }
+        return raw;
+    }
+
+    /** @return the version of an inflated save. */
+    public static int versionOf(ByteBuffer save) throws IOException{
+        return start(save).readInt();
+    }
+
+    /** @return an input positioned after the header of an inflated save, which does not change the position of the buffer. */
+    static ByteBufferDataInput start(ByteBuffer save) throws IOException{
+        ByteBuffer buffer = save.duplicate();
+        buffer.position(0);
+        ByteBufferDataInput input = new ByteBufferDataInput(buffer);
+        SaveIO.readHeader(input);
+        return input;
+    }
+
+    /**
+     * Decodes the floors and overlays of an inflated save into tiles that are not part of the world yet.
+     * No global state is used, so this can run on any thread while the game continues; the tiles replace the tile array when the save is loaded.
+     * @return the tiles, or null if the save uses content that can only be resolved when it is loaded.
+     */
+    public @Nullable Tiles readFloors(ByteBuffer save) throws IOException{
+        MappableContent[] blocks = readContentMapper(new ByteBufferDataInput(ByteBuffer.wrap(readRegion(save, 0))))[ContentType.block.ordinal()];
+        //the same substitutions as readMap, which uses the mapper that is set when loading
+        Block air = block(blocks, 0), stone = block(blocks, Blocks.stone.id);
+        if(air != Blocks.air || !(stone instanceof Floor)) return null;
+
+        DataInput stream = new ByteBufferDataInput(ByteBuffer.wrap(readRegion(save, 1)));
+        int width = stream.readUnsignedShort(), height = stream.readUnsignedShort();
+        Tiles tiles = new Tiles(width, height);
+
+        for(int i = 0; i < width * height; i++){
+            Block floor = block(blocks, stream.readShort()), overlay = block(blocks, stream.readShort());
+            int consecutives = stream.readUnsignedByte();
+            if(floor == Blocks.air) floor = stone;
+            if(!(floor instanceof Floor f) || !(overlay instanceof Floor o)) return null;
+
+            for(int j = i; j < i + 1 + consecutives; j++){
+                tiles.set(j % width, j / width, new Tile(j % width, j / width, f, o));
+            }
+
+            i += consecutives;
+        }
+
+        return tiles;
+    }
+
+    /** Looks up a block like {@link mindustry.core.ContentLoader#block(int)} while a mapper is set, without setting the global one. */
+    static @Nullable Block block(MappableContent[] mapper, int id){
+        if(mapper.length == 0) return id < 0 || id >= content.blocks().size ? null : content.blocks().get(id);
+        if(id < 0) return null;
+        return id >= mapper.length || mapper[id] == null ? content.blocks().get(0) : (Block)mapper[id];
+    }
+
+    static <T> T await(Future<T> future) throws IOException{
+        try{
+            return future.get();
+        }catch(InterruptedException | ExecutionException e){
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    static int blockCount(int length){
+        return (length + blockSize - 1) / blockSize;
+    }
+
+    static byte[] compress(byte[] data, int offset, int length){
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try{
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+
+            ReusableByteOutStream out = new ReusableByteOutStream(length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()){
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return Arrays.copyOf(out.getBytes(), out.size());
+        }finally{
+            deflater.end();
+        }
+    }
+
+    static void decompress(byte[] data, byte[] target, int offset, int length){
+        Inflater inflater = new Inflater();
+        try{
+            inflater.setInput(data);
+            int read = 0;
+            while(read < length && !inflater.finished()){
+                int amount = inflater.inflate(target, offset + read, length - read);
+                if(amount == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += amount;
+            }
+            if(read != length) throw new IllegalStateException("Block is truncated. Expected: " + length + "; Actual: " + read);
+        }catch(DataFormatException e){
+            throw new IllegalStateException(e);
+        }finally{
+            inflater.end();
+        }
+    }
+
+    /** Game state captured by {@link #capture(StringMap)}. */
+    public static class Image{
+        final byte[] meta;
+        final byte[][] regions;
+
+        Image(byte[] meta, byte[][] regions){
+            this.meta = meta;
+            this.regions = regions;
+        }
+    }
+}
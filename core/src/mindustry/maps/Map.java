@@ -38,6 +38,8 @@ public class Map implements Comparable<Map>, Publishable{
     public int spawns = 0;
     /** Associated mod. If null, no mod is associated. */
     public @Nullable LoadedMod mod;
+    /** Changes whenever the map file changes. Used to detect outdated previews; 0 if unknown. */
+    public int previewHash;
 
     public Map(Fi file, int width, int height, StringMap tags, boolean custom, int version, int build){
         this.custom = custom;
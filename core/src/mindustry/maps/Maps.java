@@ -149,6 +149,8 @@ public class Maps{
                 Log.err(e);
             }
         });
+
+        SaveIndex.flush();
     }
 
     public void reload(){
@@ -192,6 +194,9 @@ public class Maps{
             //create map, write it, etc etc etc
             Map map = new Map(file, world.width(), world.height(), tags, true);
             MapIO.writeMap(file, map);
+            SaveIndex.update(file);
+            SaveIndex.Entry entry = SaveIndex.get(file);
+            if(entry != null) map.previewHash = entry.previewHash;
 
             if(!headless){
                 //reset attributes
@@ -423,7 +428,8 @@ public class Maps{
 
     private void writeCache(Map map) throws IOException{
         try(DataOutputStream stream = new DataOutputStream(map.cacheFile().write(false, Streams.DEFAULT_BUFFER_SIZE))){
-            stream.write(0);
+            stream.write(1);
+            stream.writeInt(map.previewHash);
             stream.writeInt(map.spawns);
             stream.write(map.teams.size);
             IntSetIterator iter = map.teams.iterator();
@@ -435,7 +441,11 @@ public class Maps{
 
     private void readCache(Map map) throws IOException{
         try(DataInputStream stream = new DataInputStream(map.cacheFile().read(Streams.DEFAULT_BUFFER_SIZE))){
-            stream.read(); //version
+            int version = stream.read();
+            //previews of maps that were changed since are generated again
+            if(version >= 1 && stream.readInt() != map.previewHash){
+                throw new IOException("Preview of map '" + map.name() + "' is outdated.");
+            }
             map.spawns = stream.readInt();
             int teamsize = stream.readByte();
             for(int i = 0; i < teamsize; i++){
@@ -23,8 +23,8 @@ public class Administration{
     public Seq<String> subnetBans = new Seq<>();
     public ObjectMap<String, Long> kickedIPs = new ObjectMap<>();
 
-    /** All player info. Maps UUIDs to info. This persists throughout restarts. Do not access directly. */
-    private ObjectMap<String, PlayerInfo> playerInfo = new ObjectMap<>();
+    /** All player info, indexed by UUID, IP and name. This persists throughout restarts. Do not access directly. */
+    private PlayerStore players;
 
     public Administration(){
         load();
@@ -96,6 +96,7 @@ public class Administration{
         PlayerInfo info = getInfo(uuid);
         info.timesKicked++;
         info.lastKicked = Math.max(Time.millis() + duration, info.lastKicked);
+        players.changed(info);
     }
 
     public Seq<String> getSubnetBans(){
@@ -186,6 +187,16 @@ public class Administration{
         info.timesJoined++;
         if(!info.names.contains(name, false)) info.names.add(name);
         if(!info.ips.contains(ip, false)) info.ips.add(ip);
+        players.changed(info);
+        players.flush();
+    }
+
+    /**
+     * Call after modifying player info directly, so that the change is indexed and persisted with the next flush.
+     * Changes made without this are only found by {@link #save()}, which compares the players that were looked up since the last save.
+     */
+    public void updateInfo(PlayerInfo info){
+        players.changed(info);
     }
 
     public boolean banPlayer(String uuid){
@@ -200,10 +211,9 @@ public class Administration{
         if(bannedIPs.contains(ip, false))
             return false;
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                info.banned = true;
-            }
+        for(PlayerInfo info : players.byIP(ip)){
+            info.banned = true;
+            players.changed(info);
         }
 
         bannedIPs.add(ip);
@@ -214,10 +224,13 @@ public class Administration{
 
     /** Bans a player by UUID; returns whether this player was already banned. */
     public boolean banPlayerID(String id){
-        if(playerInfo.containsKey(id) && playerInfo.get(id).banned)
+        PlayerInfo existing = players.get(id);
+        if(existing != null && existing.banned)
             return false;
 
-        getCreateInfo(id).banned = true;
+        PlayerInfo info = getCreateInfo(id);
+        info.banned = true;
+        players.changed(info);
 
         save();
         Events.fire(new PlayerBanEvent(Groups.player.find(p -> id.equals(p.uuid())), id));
@@ -231,11 +244,10 @@ public class Administration{
     public boolean unbanPlayerIP(String ip){
         boolean found = bannedIPs.contains(ip, false);
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                info.banned = false;
-                found = true;
-            }
+        for(PlayerInfo info : players.byIP(ip)){
+            info.banned = false;
+            players.changed(info);
+            found = true;
         }
 
         bannedIPs.remove(ip, false);
@@ -257,6 +269,7 @@ public class Administration{
         if(!info.banned) return false;
 
         info.banned = false;
+        players.changed(info);
         bannedIPs.removeAll(info.ips, false);
         save();
         Events.fire(new PlayerUnbanEvent(Groups.player.find(p -> id.equals(p.uuid())), id));
@@ -267,26 +280,14 @@ public class Administration{
      * Returns list of all players with admin status
      */
     public Seq<PlayerInfo> getAdmins(){
-        Seq<PlayerInfo> result = new Seq<>();
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.admin){
-                result.add(info);
-            }
-        }
-        return result;
+        return players.admins();
     }
 
     /**
      * Returns list of all players which are banned
      */
     public Seq<PlayerInfo> getBanned(){
-        Seq<PlayerInfo> result = new Seq<>();
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.banned){
-                result.add(info);
-            }
-        }
-        return result;
+        return players.banned();
     }
 
     /**
@@ -305,6 +306,7 @@ public class Administration{
 
         info.adminUsid = usid;
         info.admin = true;
+        players.changed(info);
         save();
 
         return true;
@@ -320,6 +322,7 @@ public class Administration{
         if(!info.admin) return false;
 
         info.admin = false;
+        players.changed(info);
         save();
 
         return true;
@@ -352,7 +355,9 @@ public class Administration{
     }
 
     public boolean isIPBanned(String ip){
-        return bannedIPs.contains(ip, false) || (findByIP(ip) != null && findByIP(ip).banned);
+        if(bannedIPs.contains(ip, false)) return true;
+        PlayerInfo info = findByIP(ip);
+        return info != null && info.banned;
     }
 
     public boolean isIDBanned(String uuid){
@@ -368,7 +373,12 @@ public class Administration{
     public ObjectSet<PlayerInfo> findByName(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
 
-        for(PlayerInfo info : playerInfo.values()){
+        //every match is in one of these indices; the exact conditions are checked below
+        Seq<PlayerInfo> candidates = players.byName(name).addAll(players.byIP(name));
+        PlayerInfo byId = players.get(name);
+        if(byId != null) candidates.add(byId);
+
+        for(PlayerInfo info : candidates){
             if(info.lastName.equalsIgnoreCase(name) || (info.names.contains(name, false))
             || Strings.stripColors(Strings.stripColors(info.lastName)).equals(name)
             || info.ips.contains(name, false) || info.id.equals(name)){
@@ -382,9 +392,11 @@ public class Administration{
     /** Finds by name, using contains(). */
     public ObjectSet<PlayerInfo> searchNames(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
+        String lower = name.toLowerCase();
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.names.contains(n -> n.toLowerCase().contains(name.toLowerCase()) || Strings.stripColors(n).trim().toLowerCase().contains(name))){
+        //all matches contain the lowercase name in one of their indexed names
+        for(PlayerInfo info : players.searchNames(name)){
+            if(info.names.contains(n -> n.toLowerCase().contains(lower) || Strings.stripColors(n).trim().toLowerCase().contains(name))){
                 result.add(info);
             }
         }
@@ -393,15 +405,7 @@ public class Administration{
     }
 
     public Seq<PlayerInfo> findByIPs(String ip){
-        Seq<PlayerInfo> result = new Seq<>();
-
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                result.add(info);
-            }
-        }
-
-        return result;
+        return players.byIP(ip);
     }
 
     public PlayerInfo getInfo(String id){
@@ -409,35 +413,27 @@ public class Administration{
     }
 
     public PlayerInfo getInfoOptional(String id){
-        return playerInfo.get(id);
+        return players.get(id);
     }
 
     public PlayerInfo findByIP(String ip){
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                return info;
-            }
-        }
-        return null;
+        return players.firstByIP(ip);
     }
 
     public Seq<PlayerInfo> getWhitelisted(){
-        return playerInfo.values().toSeq().select(p -> isWhitelisted(p.id, p.adminUsid));
+        Seq<PlayerInfo> result = new Seq<>();
+        for(PlayerInfo info : players.all()){
+            if(isWhitelisted(info.id, info.adminUsid)) result.add(info);
+        }
+        return result;
     }
 
     private PlayerInfo getCreateInfo(String id){
-        if(playerInfo.containsKey(id)){
-            return playerInfo.get(id);
-        }else{
-            PlayerInfo info = new PlayerInfo(id);
-            playerInfo.put(id, info);
-            save();
-            return info;
-        }
+        return players.getCreate(id);
     }
 
     public void save(){
-        Core.settings.putJson("player-data", playerInfo);
+        players.flushAll();
         Core.settings.putJson("ip-bans", String.class, bannedIPs);
         Core.settings.putJson("whitelist-ids", String.class, whitelist);
         Core.settings.putJson("banned-subnets", String.class, subnetBans);
@@ -446,7 +442,18 @@ public class Administration{
     @SuppressWarnings("unchecked")
     private void load(){
         //load default data
-        playerInfo = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+        players = new PlayerStore(Core.settings.getDataDirectory().child("player-data.bin"));
+
+        //player data used to be stored in the settings as one large JSON object
+        if(Core.settings.has("player-data")){
+            ObjectMap<String, PlayerInfo> legacy = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+            for(PlayerInfo info : legacy.values()){
+                players.add(info);
+            }
+            players.compact();
+            Core.settings.remove("player-data");
+            Log.info("Moved @ player records from the settings to @.", legacy.size, players.file.name());
+        }
         bannedIPs = Core.settings.getJson("ip-bans", Seq.class, Seq::new);
         whitelist = Core.settings.getJson("whitelist-ids", Seq.class, Seq::new);
         subnetBans = Core.settings.getJson("banned-subnets", Seq.class, Seq::new);
@@ -479,6 +486,17 @@ public class Administration{
         autosave("Whether the periodically save the map when playing.", false),
         autosaveAmount("The maximum amount of autosaves. Older ones get replaced.", 10),
         autosaveSpacing("Spacing between autosaves in seconds.", 60 * 5),
+        packetBudget("Maximum amount of packets handled per connection each frame. Packets over the budget are handled in the next frame.", 100),
+        packetQueueLimit("Maximum amount of packets queued per connection. Further packets are dropped until the queue is drained.", 1000),
+        outboundBandwidth("Maximum outgoing bandwidth per connection, in kilobytes per second. Packets over the limit are queued by priority. 0 to disable.", 0),
+        batchCalls("Whether unreliable remote calls are packed into one packet per player and frame. Requires clients of this version.", false),
+        snapshotInterval("Time between entity snapshots sent to each player, in milliseconds. Clients buffer snapshots, so higher values save bandwidth without stutter.", 200, () -> {
+            if(net.server()) netServer.sendSnapshotIntervals(null);
+        }),
+        replayKeyframeInterval("Interval in seconds between keyframes in replay recordings. Keyframes are full saves, which are used to seek quickly.", 60),
+        relayLogLimit("Maximum size in KB of the reliable calls a relay keeps for viewers that join late. When it is exceeded, the relay reconnects for fresh world data.", 4096),
+        journalInterval("Interval in seconds between checkpoints of the autosave journal, which records changes since the last autosave so they survive a crash. 0 to disable.", 0),
+        netStatsInterval("Interval in seconds at which network stats are written to netstats.json in the config folder. 0 to disable.", 0),
         debug("Enable debug logging", false, () -> Log.level = debug() ? LogLevel.debug : LogLevel.info);
 
         public static final Config[] all = values();
@@ -567,6 +585,30 @@ public class Administration{
 
         public PlayerInfo(){
         }
+
+        /** @return a copy of the persisted data of this player. */
+        public PlayerInfo copy(){
+            PlayerInfo copy = new PlayerInfo(id);
+            copy.lastName = lastName;
+            copy.lastIP = lastIP;
+            copy.ips.addAll(ips);
+            copy.names.addAll(names);
+            copy.adminUsid = adminUsid;
+            copy.timesKicked = timesKicked;
+            copy.timesJoined = timesJoined;
+            copy.banned = banned;
+            copy.admin = admin;
+            copy.lastKicked = lastKicked;
+            return copy;
+        }
+
+        /** @return whether the persisted data of both players is equal. */
+        public boolean same(@Nullable PlayerInfo other){
+            return other != null && id.equals(other.id) && Structs.eq(lastName, other.lastName) && Structs.eq(lastIP, other.lastIP)
+                && ips.equals(other.ips) && names.equals(other.names) && Structs.eq(adminUsid, other.adminUsid)
+                && timesKicked == other.timesKicked && timesJoined == other.timesJoined && banned == other.banned && admin == other.admin
+                && lastKicked == other.lastKicked;
+        }
     }
 
     /** Handles chat messages from players and changes their contents. */
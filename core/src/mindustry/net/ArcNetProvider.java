@@ -8,6 +8,7 @@ import arc.struct.*;
 import arc.util.*;
 import arc.util.async.*;
 import arc.util.pooling.*;
+import mindustry.net.Administration.*;
 import mindustry.net.Net.*;
 import mindustry.net.Packets.*;
 
@@ -16,6 +17,7 @@ import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import static mindustry.Vars.*;
 
@@ -26,6 +28,13 @@ public class ArcNetProvider implements NetProvider{
 
     final Server server;
     final CopyOnWriteArrayList<ArcConnection> connections = new CopyOnWriteArrayList<>();
+    /** Whether a task to handle queued inbound packets has been posted, but not run yet. */
+    final AtomicBoolean inboundPosted = new AtomicBoolean();
+    /** Connections that have packets waiting to be handled. */
+    final ConcurrentLinkedQueue<ArcConnection> inboundConnections = new ConcurrentLinkedQueue<>();
+    final Runnable inboundHandler = this::handleInbound;
+    /** Copy of {@link Config#packetQueueLimit}, as settings are not read from the network thread. */
+    volatile int queueLimit = 1000;
     Thread serverThread;
 
     public ArcNetProvider(){
@@ -91,7 +100,7 @@ public class ArcNetProvider implements NetProvider{
                 Log.debug("&bReceived connection: @", c.addressTCP);
 
                 connections.add(kn);
-                Core.app.post(() -> net.handleServerReceived(kn, c));
+                queue(kn, c);
             }
 
             @Override
@@ -102,10 +111,7 @@ public class ArcNetProvider implements NetProvider{
                 Disconnect c = new Disconnect();
                 c.reason = reason.toString();
 
-                Core.app.post(() -> {
-                    net.handleServerReceived(k, c);
-                    connections.remove(k);
-                });
+                queue(k, c);
             }
 
             @Override
@@ -113,17 +119,81 @@ public class ArcNetProvider implements NetProvider{
                 ArcConnection k = getByArcID(connection.getID());
                 if(object instanceof FrameworkMessage || k == null) return;
 
-                Core.app.post(() -> {
-                    try{
-                        net.handleServerReceived(k, object);
-                    }catch(Throwable e){
-                        e.printStackTrace();
-                    }
-                });
+                queue(k, object);
             }
         });
     }
 
+    /** Queues a packet received by the network thread, to be handled on the main thread. */
+    void queue(ArcConnection con, Object object){
+        //connection events are never dropped
+        if(!(object instanceof Connect || object instanceof Disconnect) && con.inboundSize.get() >= queueLimit){
+            con.packetsDropped++;
+            Pools.free(object);
+            return;
+        }
+
+        con.inbound.add(object);
+        con.inboundSize.incrementAndGet();
+        con.packetsQueued++;
+
+        if(con.inboundScheduled.compareAndSet(false, true)){
+            inboundConnections.add(con);
+        }
+
+        if(inboundPosted.compareAndSet(false, true)){
+            Core.app.post(inboundHandler);
+        }
+    }
+
+    /**
+     * Handles queued packets of every connection in one batch. Each connection gets at most {@link Config#packetBudget} packets per frame,
+     * so a single flooding client cannot stall the server; anything over the budget is handled in the next frame.
+     */
+    void handleInbound(){
+        inboundPosted.set(false);
+        queueLimit = Config.packetQueueLimit.num();
+
+        int budget = Config.packetBudget.num();
+        boolean remaining = false;
+
+        for(int amount = inboundConnections.size(); amount > 0; amount--){
+            ArcConnection con = inboundConnections.poll();
+            if(con == null) break;
+
+            con.inboundScheduled.set(false);
+
+            for(int i = 0; i < budget; i++){
+                Object object = con.inbound.poll();
+                if(object == null) break;
+
+                con.inboundSize.decrementAndGet();
+                con.packetsProcessed++;
+
+                try{
+                    net.handleServerReceived(con, object);
+                }catch(Throwable e){
+                    e.printStackTrace();
+                }
+
+                if(object instanceof Disconnect){
+                    connections.remove(con);
+                    con.outbound.clear();
+                    break;
+                }
+            }
+
+            if(!con.inbound.isEmpty() && con.inboundScheduled.compareAndSet(false, true)){
+                inboundConnections.add(con);
+                remaining = true;
+            }
+        }
+
+        if(remaining && inboundPosted.compareAndSet(false, true)){
+            Core.app.post(inboundHandler);
+        }
+    }
+
     private static boolean isLocal(InetAddress addr){
         if(addr.isAnyLocalAddress() || addr.isLoopbackAddress()) return true;
 
@@ -164,6 +234,8 @@ public class ArcNetProvider implements NetProvider{
 
     @Override
     public void sendClient(Object object, SendMode mode){
+        if(NetStats.enabled) net.stats.sent(object, NetStats.size(object));
+
         try{
             if(mode == SendMode.tcp){
                 client.sendTCP(object);
@@ -272,12 +344,25 @@ public class ArcNetProvider implements NetProvider{
 
     class ArcConnection extends NetConnection{
         public final Connection connection;
+        /** Packets received by the network thread that have not been handled yet. Only the main thread polls from this queue. */
+        final ConcurrentLinkedQueue<Object> inbound = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inboundSize = new AtomicInteger();
+        /** Whether this connection is in {@link #inboundConnections}. */
+        final AtomicBoolean inboundScheduled = new AtomicBoolean();
+        final OutboundQueue outbound = new OutboundQueue(this::write);
 
         public ArcConnection(String address, Connection connection){
             super(address);
             this.connection = connection;
         }
 
+        @Override
+        public void flush(){
+            super.flush();
+            outbound.setRate(Config.outboundBandwidth.num() * 1024);
+            outbound.flush();
+        }
+
         @Override
         public boolean isConnected(){
             return connection.isConnected();
@@ -285,7 +370,7 @@ public class ArcNetProvider implements NetProvider{
 
         @Override
         public void sendStream(Streamable stream){
-            connection.addListener(new InputStreamSender(stream.stream, 512){
+            connection.addListener(new InputStreamSender(stream.stream, Streamable.chunkSize){
                 int id;
 
                 @Override
@@ -298,11 +383,20 @@ public class ArcNetProvider implements NetProvider{
                     id = begin.id;
                 }
 
+                @Override
+                public void idle(Connection connection){
+                    //world data waits for snapshots and other packets, and respects the bandwidth limit
+                    if(outbound.takeStream(Streamable.chunkSize)){
+                        super.idle(connection);
+                    }
+                }
+
                 @Override
                 protected Object next(byte[] bytes){
                     StreamChunk chunk = new StreamChunk();
                     chunk.id = id;
                     chunk.data = bytes;
+                    countSent(chunk, NetStats.size(chunk));
                     return chunk; //wrap the byte[] with an object so the receiving side knows how to handle it.
                 }
             });
@@ -310,6 +404,12 @@ public class ArcNetProvider implements NetProvider{
 
         @Override
         public void send(Object object, SendMode mode){
+            outbound.send(object, mode);
+        }
+
+        void write(Object object, SendMode mode){
+            countSent(object, NetStats.size(object));
+
             try{
                 if(mode == SendMode.tcp){
                     connection.sendTCP(object);
@@ -153,11 +153,11 @@ public class CrashSender{
             httpPost(Vars.crashReportURL, value.toJson(OutputType.json), r -> {
                 Log.info("Crash sent successfully.");
                 sent[0] = true;
-                System.exit(1);
+                platform.exit(1);
             }, t -> {
                 t.printStackTrace();
                 sent[0] = true;
-                System.exit(-1);
+                platform.exit(-1);
             });
 
             //sleep until report is sent
@@ -174,7 +174,7 @@ public class CrashSender{
     }
 
     private static void ret(){
-        System.exit(1);
+        platform.exit(1);
     }
 
     private static void httpPost(String url, String content, Cons<HttpResponse> success, Cons<Throwable> failure){
@@ -0,0 +1,92 @@
+package mindustry.net;
+
+import arc.math.*;
+import arc.math.geom.*;
+import arc.struct.*;
+import mindustry.gen.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Coarse spatial grid of synced entities, used by the server to decide which entities are relevant to a connection.
+ * Entities are split into three tiers: always relevant (players, player-controlled units, bosses and anything without a position),
+ * near (inside the grid cells a viewport overlaps) and far (everything else).
+ */
+public class InterestGrid{
+    /** Size of a single grid cell, in world units. */
+    public static final float cellSize = tilesize * 16f;
+
+    private final Seq<Syncc> always = new Seq<>(false, 32, Syncc.class);
+    private final Seq<Syncc> spatial = new Seq<>(false, 256, Syncc.class);
+    private Seq<Syncc>[] cells = new Seq[0];
+    private int width, height;
+
+    /** Re-buckets every entity in {@link Groups#sync}. Should be called at most once per sync round. */
+    @SuppressWarnings("unchecked")
+    public void rebuild(){
+        int w = Math.max(Mathf.ceil(world.unitWidth() / cellSize), 1), h = Math.max(Mathf.ceil(world.unitHeight() / cellSize), 1);
+
+        if(w != width || h != height){
+            width = w;
+            height = h;
+            cells = new Seq[w * h];
+        }
+
+        for(Seq<Syncc> cell : cells){
+            if(cell != null) cell.clear();
+        }
+        always.clear();
+        spatial.clear();
+
+        for(Syncc entity : Groups.sync){
+            if(isAlwaysRelevant(entity)){
+                always.add(entity);
+            }else{
+                Posc pos = (Posc)entity;
+                int index = cellX(pos.getX()) + cellY(pos.getY()) * width;
+                if(cells[index] == null) cells[index] = new Seq<>(false, 16, Syncc.class);
+                cells[index].add(entity);
+                spatial.add(entity);
+            }
+        }
+    }
+
+    /** @return every entity that must be sent regardless of distance. Do not modify. */
+    public Seq<Syncc> getAlways(){
+        return always;
+    }
+
+    /** @return every entity that is not always relevant. Do not modify. */
+    public Seq<Syncc> getSpatial(){
+        return spatial;
+    }
+
+    /** Adds every non-always entity in the cells that overlap the specified rectangle to the output. */
+    public Seq<Syncc> getNear(Rect rect, Seq<Syncc> out){
+        out.clear();
+        if(cells.length == 0) return out;
+
+        int minx = cellX(rect.x), miny = cellY(rect.y), maxx = cellX(rect.x + rect.width), maxy = cellY(rect.y + rect.height);
+
+        for(int cy = miny; cy <= maxy; cy++){
+            for(int cx = minx; cx <= maxx; cx++){
+                Seq<Syncc> cell = cells[cx + cy * width];
+                if(cell != null) out.addAll(cell);
+            }
+        }
+        return out;
+    }
+
+    /** @return whether this entity should be synced every round to every player. */
+    public boolean isAlwaysRelevant(Syncc entity){
+        return !(entity instanceof Posc) || entity instanceof Player || (entity instanceof Unit u && (u.isPlayer() || u.isBoss()));
+    }
+
+    private int cellX(float x){
+        return Mathf.clamp((int)(x / cellSize), 0, width - 1);
+    }
+
+    private int cellY(float y){
+        return Mathf.clamp((int)(y / cellSize), 0, height - 1);
+    }
+}
@@ -26,12 +26,20 @@ public class Net{
 
     private final Seq<Object> packetQueue = new Seq<>();
     private final ObjectMap<Class<?>, Cons> clientListeners = new ObjectMap<>();
+    private final ObjectMap<Class<?>, Cons<StreamBuilder>> streamListeners = new ObjectMap<>();
     private final ObjectMap<Class<?>, Cons2<NetConnection, Object>> serverListeners = new ObjectMap<>();
     private final IntMap<StreamBuilder> streams = new IntMap<>();
 
     private final NetProvider provider;
+    /** Traffic counters of all connections. */
+    public final NetStats stats = new NetStats();
+    /** Records everything the server broadcasts, if a recording is running. */
+    public @Nullable ReplayRecorder recorder;
     private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
     private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private byte[] compressBuffer = {}, decompressBuffer = {};
+    /** View of {@link #compressBuffer} that is returned by {@link #compressSnapshot(byte[], int, int)}. */
+    private ByteBuffer compressed = ByteBuffer.wrap(compressBuffer);
 
     public Net(NetProvider provider){
         this.provider = provider;
@@ -152,6 +160,11 @@ public class Net{
             Call.kick(con, KickReason.serverClose);
         }
 
+        if(recorder != null){
+            recorder.close();
+            recorder = null;
+        }
+
         provider.closeServer();
         server = false;
         active = false;
@@ -166,17 +179,49 @@ public class Net{
         if(active && !server){
             Log.info("Disconnecting.");
         }
+        //unblock anything that is still reading incoming streams
+        for(StreamBuilder builder : streams.values()){
+            builder.cancel();
+        }
+        streams.clear();
+        currentStream = null;
         provider.disconnectClient();
         server = false;
         active = false;
     }
 
-    public byte[] compressSnapshot(byte[] input){
-        return compressor.compress(input);
+    public ByteBuffer compressSnapshot(byte[] input){
+        return compressSnapshot(input, 0, input.length);
     }
 
-    public byte[] decompressSnapshot(byte[] input, int size){
-        return decompressor.decompress(input, size);
+    /**
+     * Compresses part of an array into a reusable buffer, which only grows when a larger snapshot is compressed.
+     * The compressed data is between the position and limit of the result, and is overwritten by the next call; this must only be called from the main thread.
+     */
+    public ByteBuffer compressSnapshot(byte[] input, int offset, int length){
+        int max = compressor.maxCompressedLength(length);
+        if(compressBuffer.length < max){
+            compressBuffer = new byte[max];
+            compressed = ByteBuffer.wrap(compressBuffer);
+            NetBuffers.countAllocation(max);
+        }
+
+        int size = compressor.compress(input, offset, length, compressBuffer, 0, max);
+        compressed.clear();
+        compressed.limit(size);
+        return compressed;
+    }
+
+    /**
+     * Decompresses a snapshot into a reusable buffer. Only the first {@code size} bytes of the result are valid,
+     * and its contents are overwritten by the next call; this must only be called from the main thread.
+     */
+    public byte[] decompressSnapshot(ByteBuffer input, int size){
+        if(decompressBuffer.length < size){
+            decompressBuffer = new byte[size];
+        }
+        decompressor.decompress(input.array(), input.arrayOffset() + input.position(), decompressBuffer, 0, size);
+        return decompressBuffer;
     }
 
     /**
@@ -200,11 +245,34 @@ public class Net{
             for(NetConnection con : provider.getConnections()){
                 con.send(object, mode);
             }
+            record(object);
         }else{
             provider.sendClient(object, mode);
         }
     }
 
+    /** Sends a remote call like {@link #send(Object, SendMode)}, but allows the server to batch it. See {@link NetConnection#sendBatched(InvokePacket, SendMode)}. */
+    public void sendBatched(InvokePacket packet, SendMode mode){
+        if(server){
+            for(NetConnection con : provider.getConnections()){
+                con.sendBatched(packet, mode);
+            }
+            record(packet);
+        }else{
+            provider.sendClient(packet, mode);
+        }
+    }
+
+    /** Sends a remote call like {@link #sendExcept(NetConnection, Object, SendMode)}, but allows it to be batched. Server-side only. */
+    public void sendExceptBatched(NetConnection except, InvokePacket packet, SendMode mode){
+        for(NetConnection con : getConnections()){
+            if(con != except){
+                con.sendBatched(packet, mode);
+            }
+        }
+        record(packet);
+    }
+
     /** Send an object to everyone EXCEPT a certain client. Server-side only.*/
     public void sendExcept(NetConnection except, Object object, SendMode mode){
         for(NetConnection con : getConnections()){
@@ -212,6 +280,13 @@ public class Net{
                 con.send(object, mode);
             }
         }
+        record(object);
+    }
+
+    private void record(Object object){
+        if(recorder != null){
+            recorder.send(object, SendMode.tcp);
+        }
     }
 
     public @Nullable StreamBuilder getCurrentStream(){
@@ -225,6 +300,14 @@ public class Net{
         clientListeners.put(type, listener);
     }
 
+    /**
+     * Registers a client listener for when a stream of some type begins.
+     * The stream is not built when it is done; the listener is expected to consume it progressively through {@link StreamBuilder#input()}.
+     */
+    public <T extends Streamable> void handleClientStream(Class<T> type, Cons<StreamBuilder> listener){
+        streamListeners.put(type, listener);
+    }
+
     /**
      * Registers a server listener for when an object is received.
      */
@@ -240,22 +323,33 @@ public class Net{
         if(object instanceof StreamBegin b){
             streams.put(b.id, currentStream = new StreamBuilder(b));
 
+            Cons<StreamBuilder> listener = streamListeners.get(Registrator.getByID(b.type).type);
+            if(listener != null){
+                listener.get(currentStream);
+            }
+
         }else if(object instanceof StreamChunk c){
             StreamBuilder builder = streams.get(c.id);
             if(builder == null){
                 throw new RuntimeException("Received stream chunk without a StreamBegin beforehand!");
             }
             builder.add(c.data);
+            if(NetStats.enabled) stats.received(c, NetStats.size(c), 0);
             if(builder.isDone()){
                 streams.remove(builder.id);
-                handleClientReceived(builder.build());
+                //progressively consumed streams have already been handled
+                if(!streamListeners.containsKey(Registrator.getByID(builder.type).type)){
+                    handleClientReceived(builder.build());
+                }
                 currentStream = null;
             }
         }else if(clientListeners.get(object.getClass()) != null){
 
             if(clientLoaded || ((object instanceof Packet) && ((Packet)object).isImportant())){
                 if(clientListeners.get(object.getClass()) != null){
+                    long time = Time.nanos();
                     clientListeners.get(object.getClass()).get(object);
+                    if(NetStats.enabled) stats.received(object, NetStats.size(object), Time.timeSinceNanos(time));
                 }
                 Pools.free(object);
             }else if(!((object instanceof Packet) && ((Packet)object).isUnimportant())){
@@ -274,7 +368,15 @@ public class Net{
     public void handleServerReceived(NetConnection connection, Object object){
 
         if(serverListeners.get(object.getClass()) != null){
+            long time = Time.nanos();
             serverListeners.get(object.getClass()).get(connection, object);
+            time = Time.timeSinceNanos(time);
+
+            if(NetStats.enabled){
+                int size = NetStats.size(object);
+                connection.stats.received(object, size, time);
+                stats.received(object, size, time);
+            }
             Pools.free(object);
         }else{
             Log.err("Unhandled packet type: '@'!", object.getClass());
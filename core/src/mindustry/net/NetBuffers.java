@@ -0,0 +1,82 @@
+package mindustry.net;
+
+import arc.struct.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Thread-safe pool of byte arrays used for packet payloads.
+ * Arrays are bucketed by power-of-two size, so an obtained array may be larger than requested.
+ * Every array that has to be allocated on the packet path is counted, which makes it possible to verify that steady-state networking creates no garbage.
+ */
+public class NetBuffers{
+    /** Smallest and largest pooled array size, as powers of two. Larger requests are allocated directly. */
+    private static final int minShift = 6, maxShift = 16;
+    /** Maximum amount of arrays kept per size. */
+    private static final int maxPooled = 64;
+
+    @SuppressWarnings("unchecked")
+    private static final Seq<byte[]>[] pools = new Seq[maxShift - minShift + 1];
+    private static final AtomicLong allocations = new AtomicLong(), allocatedBytes = new AtomicLong();
+
+    static{
+        for(int i = 0; i < pools.length; i++){
+            pools[i] = new Seq<>(false, maxPooled, byte[].class);
+        }
+    }
+
+    /** @return an array with a length of at least {@code size}. Must be returned with {@link #free(byte[])} once it is no longer used. */
+    public static byte[] obtain(int size){
+        int index = index(size);
+        if(index == -1){
+            countAllocation(size);
+            return new byte[size];
+        }
+
+        Seq<byte[]> pool = pools[index];
+        synchronized(pool){
+            if(!pool.isEmpty()) return pool.pop();
+        }
+
+        int capacity = 1 << (index + minShift);
+        countAllocation(capacity);
+        return new byte[capacity];
+    }
+
+    /**
+     * Returns an array to the pool. Only arrays whose length is exactly one of the pooled sizes are kept, others are ignored.
+     * Ownership is not tracked, so this must only be called with arrays obtained from {@link #obtain(int)}:
+     * any other array of a pooled size would be handed out again while its owner still uses it.
+     */
+    public static void free(byte[] bytes){
+        int index = index(bytes.length);
+        if(index == -1 || bytes.length != 1 << (index + minShift)) return;
+
+        Seq<byte[]> pool = pools[index];
+        synchronized(pool){
+            if(pool.size < maxPooled) pool.add(bytes);
+        }
+    }
+
+    /** Records an allocation made on the packet path outside of this pool. */
+    public static void countAllocation(int bytes){
+        allocations.incrementAndGet();
+        allocatedBytes.addAndGet(bytes);
+    }
+
+    /** @return the total number of arrays allocated on the packet path. */
+    public static long allocations(){
+        return allocations.get();
+    }
+
+    /** @return the total size of all arrays allocated on the packet path, in bytes. */
+    public static long allocatedBytes(){
+        return allocatedBytes.get();
+    }
+
+    private static int index(int size){
+        if(size <= 1 << minShift) return 0;
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > maxShift ? -1 : shift - minShift;
+    }
+}
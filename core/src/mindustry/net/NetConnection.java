@@ -19,6 +19,8 @@ public abstract class NetConnection{
     public @Nullable Player player;
     public boolean kicked = false;
     public long syncTime;
+    /** Number of entity snapshot rounds sent to this connection. Used to schedule far entity syncs. */
+    public int snapshotsSent;
 
     /** When this connection was established. */
     public long connectTime = Time.millis();
@@ -26,6 +28,14 @@ public abstract class NetConnection{
     public int lastReceivedClientSnapshot = -1;
     /** Timestamp of last received snapshot. */
     public long lastReceivedClientTime;
+    /** Inbound packet counters: packets queued for handling, dropped because the queue was full, and handled. */
+    public volatile long packetsQueued, packetsDropped, packetsProcessed;
+    /** Traffic counters of this connection. */
+    public final NetStats stats = new NetStats();
+    /** Entity data sent to this connection, used for delta-compressing entity snapshots. */
+    public final SnapshotBaselines baselines = new SnapshotBaselines();
+    /** Unreliable remote calls waiting to be sent at the end of the frame. */
+    private final InvokeBundle bundle = new InvokeBundle();
     /** Build requests that have been recently rejected. This is cleared every snapshot. */
     public Seq<BuildPlan> rejectedRequests = new Seq<>();
 
@@ -46,6 +56,7 @@ public abstract class NetConnection{
             PlayerInfo info = netServer.admins.getInfo(uuid);
             info.timesKicked++;
             info.lastKicked = Math.max(Time.millis() + 30 * 1000, info.lastKicked);
+            netServer.admins.updateInfo(info);
         }
 
         Call.kick(this, reason);
@@ -91,7 +102,7 @@ public abstract class NetConnection{
             cid = begin.id;
 
             while(stream.stream.available() > 0){
-                byte[] bytes = new byte[Math.min(512, stream.stream.available())];
+                byte[] bytes = new byte[Math.min(Streamable.chunkSize, stream.stream.available())];
                 stream.stream.read(bytes);
 
                 StreamChunk chunk = new StreamChunk();
@@ -106,5 +117,41 @@ public abstract class NetConnection{
 
     public abstract void send(Object object, SendMode mode);
 
+    /**
+     * Sends a remote call. If call batching is enabled, unreliable calls are packed into a single bundle,
+     * which is sent when this connection is flushed or when it is full. Other calls are sent immediately,
+     * as are calls that may be superseded, so that a bandwidth limit can drop them on their own.
+     */
+    public void sendBatched(InvokePacket packet, SendMode mode){
+        if(mode == SendMode.udp && !packet.isImportant() && !OutboundQueue.superseded(packet) && Config.batchCalls.bool() && InvokeBundle.fits(packet)){
+            if(!bundle.add(packet)){
+                flushBundle();
+                bundle.add(packet);
+            }
+        }else{
+            send(packet, mode);
+        }
+    }
+
+    /** Sends all batched calls. */
+    public void flushBundle(){
+        if(bundle.count > 0){
+            send(bundle, SendMode.udp);
+            bundle.clear();
+        }
+    }
+
+    /** Counts a packet that was sent to this connection, both in this connection's and the global stats. */
+    protected void countSent(Object object, int bytes){
+        if(!NetStats.enabled) return;
+        stats.sent(object, bytes);
+        net.stats.sent(object, bytes);
+    }
+
+    /** Sends packets that have been held back, e.g. by batching or a bandwidth limit. Called every frame. */
+    public void flush(){
+        flushBundle();
+    }
+
     public abstract void close();
 }
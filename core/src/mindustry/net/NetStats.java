@@ -0,0 +1,156 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+import mindustry.gen.*;
+import mindustry.net.Packets.*;
+
+import java.nio.*;
+
+/**
+ * Traffic counters for every packet type, split by direction.
+ * Remote calls are counted by method name, other packets by class name. All methods are thread-safe.
+ * The global and connection counters are only updated while {@link #enabled} is set.
+ */
+public class NetStats{
+    /** Whether network traffic is counted. When this is off, remote calls don't measure their encoding time either. */
+    public static volatile boolean enabled;
+
+    private final ObjectMap<String, Entry> sent = new ObjectMap<>(), received = new ObjectMap<>();
+    private long startTime = Time.millis();
+
+    /** Counts a packet that was sent. */
+    public synchronized void sent(Object packet, int bytes){
+        entry(sent, name(packet)).add(bytes);
+    }
+
+    /** Counts a packet that was received and handled, which took the specified time. */
+    public void received(Object packet, int bytes, long nanos){
+        received(name(packet), bytes, nanos);
+    }
+
+    /** Counts a received packet by name. */
+    public synchronized void received(String name, int bytes, long nanos){
+        Entry entry = entry(received, name);
+        entry.add(bytes);
+        entry.nanos += nanos;
+    }
+
+    /** Records the time it took to encode a remote call. */
+    public synchronized void encoded(int callType, long nanos){
+        entry(sent, callName(callType)).nanos += nanos;
+    }
+
+    /** Records the size of data of a packet type before and after compression. */
+    public synchronized void compressed(String name, int raw, int compressed){
+        Entry entry = entry(sent, name);
+        entry.rawBytes += raw;
+        entry.compressedBytes += compressed;
+    }
+
+    public synchronized void reset(){
+        sent.clear();
+        received.clear();
+        startTime = Time.millis();
+    }
+
+    /** @return the time since counting started, in milliseconds. */
+    public long elapsed(){
+        return Time.timeSinceMillis(startTime);
+    }
+
+    /** @return a copy of the counters of one direction, sorted by total bytes. */
+    public synchronized Seq<Entry> entries(boolean outgoing){
+        Seq<Entry> result = new Seq<>();
+        for(Entry entry : (outgoing ? sent : received).values()){
+            result.add(entry.copy());
+        }
+        result.sort(e -> -e.bytes);
+        return result;
+    }
+
+    /** @return all counters as a JSON object. */
+    public String toJson(){
+        StringBuilder out = new StringBuilder();
+        out.append("{\"elapsed\":").append(elapsed());
+        writeJson(out, "sent", entries(true));
+        writeJson(out, "received", entries(false));
+        return out.append("}").toString();
+    }
+
+    private void writeJson(StringBuilder out, String key, Seq<Entry> entries){
+        out.append(",\"").append(key).append("\":{");
+        for(int i = 0; i < entries.size; i++){
+            Entry e = entries.get(i);
+            if(i > 0) out.append(",");
+            out.append("\"").append(e.name).append("\":{\"count\":").append(e.count).append(",\"bytes\":").append(e.bytes)
+            .append(",\"rawBytes\":").append(e.rawBytes).append(",\"compressedBytes\":").append(e.compressedBytes).append(",\"nanos\":").append(e.nanos).append("}");
+        }
+        out.append("}");
+    }
+
+    private Entry entry(ObjectMap<String, Entry> map, String name){
+        Entry entry = map.get(name);
+        if(entry == null){
+            map.put(name, entry = new Entry(name));
+        }
+        return entry;
+    }
+
+    public static String name(Object packet){
+        return packet instanceof InvokePacket invoke ? callName(invoke.type) : packet.getClass().getSimpleName();
+    }
+
+    static String callName(int type){
+        type &= 0xff;
+        return type < Call.methodNames.length ? Call.methodNames[type] : "call" + type;
+    }
+
+    /** @return the serialized size of a packet, including its ID. Framework messages are not counted. */
+    public static int size(Object packet){
+        if(packet instanceof InvokePacket invoke) return invoke.length + 5;
+        if(packet instanceof InvokeBundle bundle) return bundle.length + 6;
+        if(packet instanceof StreamChunk chunk) return chunk.data.length + 7;
+        if(packet instanceof StreamBegin) return 10;
+        if(packet instanceof Packet other){
+            //other packets are rare, so they are simply written to find their size
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            try{
+                other.write(buffer);
+            }catch(BufferOverflowException e){
+                return buffer.capacity() + 1;
+            }
+            return buffer.position() + 1;
+        }
+        return 0;
+    }
+
+    public static class Entry{
+        public final String name;
+        /** Number of packets and their total size on the wire. */
+        public long count, bytes;
+        /** Size of compressed payloads before and after compression. */
+        public long rawBytes, compressedBytes;
+        /** Time spent encoding (sent) or decoding and handling (received) packets, in nanoseconds. */
+        public long nanos;
+
+        Entry(String name){
+            this.name = name;
+        }
+
+        void add(int bytes){
+            count++;
+            this.bytes += bytes;
+        }
+
+        Entry copy(){
+            Entry entry = new Entry(name);
+            entry.count = count;
+            entry.bytes = bytes;
+            entry.rawBytes = rawBytes;
+            entry.compressedBytes = compressedBytes;
+            entry.nanos = nanos;
+            return entry;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package mindustry.net;
 
 import arc.*;
+import arc.func.*;
+import arc.math.*;
+import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
 import mindustry.content.*;
@@ -11,18 +14,39 @@ import mindustry.gen.*;
 import mindustry.io.*;
 import mindustry.maps.Map;
 import mindustry.net.Administration.*;
+import mindustry.world.*;
 
 import java.io.*;
 import java.nio.*;
 import java.util.*;
+import java.util.zip.*;
 
 import static mindustry.Vars.*;
 
 public class NetworkIO{
+    /** Size of the square regions that building data is sent in, in tiles. */
+    public static final int worldRegionSize = 32;
+    /** Regions whose center is within this many tiles of the player's spawn are loaded before the player can start playing. */
+    public static final float nearbyWorldRange = 80f;
 
+    /**
+     * Writes all world data for a player. The format is a length-prefixed compressed header with rules and player data,
+     * followed by compressed map data; see {@link #writeWorldMap(OutputStream, Tile)}.
+     */
     public static void writeWorld(Player player, OutputStream os){
+        ByteArrayOutputStream map = new ByteArrayOutputStream();
+        writeWorldMap(new FastDeflaterOutputStream(map), worldOrigin(player));
+        writeWorld(player, os, map.toByteArray());
+    }
 
-        try(DataOutputStream stream = new DataOutputStream(os)){
+    /**
+     * Writes world data for a player, using map data that has already been written and compressed.
+     * @param compressedMap the deflated output of {@link #writeWorldMap(OutputStream, Tile)}, ordered around the {@link #worldOrigin(Player)} of the player.
+     */
+    public static void writeWorld(Player player, OutputStream os, byte[] compressedMap){
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+        try(DataOutputStream stream = new DataOutputStream(new FastDeflaterOutputStream(header))){
             //write all researched content to rules if hosting
             if(state.isCampaign()){
                 state.rules.researched.clear();
@@ -43,17 +67,190 @@ public class NetworkIO{
 
             stream.writeInt(player.id);
             player.write(Writes.get(stream));
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+
+        try(DataOutputStream stream = new DataOutputStream(os)){
+            stream.writeInt(header.size());
+            header.writeTo(stream);
+            stream.write(compressedMap);
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the tile that the map data for a player is ordered around, which is the core the player spawns at. */
+    public static Tile worldOrigin(Player player){
+        Building core = player.team().core();
+        return core != null ? core.tile : world.tile(world.width() / 2, world.height() / 2);
+    }
+
+    /**
+     * Writes the content header and map of the world, split so that clients can start playing before all of it is received.
+     * The map starts with a length-prefixed section with the terrain and every building without its data.
+     * The data of the buildings follows in length-prefixed regions of {@link #worldRegionSize} tiles, ordered by their distance from the origin;
+     * clients load the regions within {@link #nearbyWorldRange} of it before they start playing, and the others as they arrive.
+     * This is identical for every player with the same origin, so it can be cached.
+     */
+    public static void writeWorldMap(OutputStream os, Tile origin){
+        IntMap<byte[]> regions = new IntMap<>();
+        for(var entry : worldRegions()){
+            regions.put(entry.key, writeWorldRegion(entry.value));
+        }
+        writeWorldMap(os, origin, writeWorldBase(), regions);
+    }
+
+    /**
+     * Writes the map data from its parts, which do not depend on the origin, so that they can be cached separately.
+     * @param base the terrain and building list, written with {@link #writeWorldBase()}.
+     * @param regions the data of each region, written with {@link #writeWorldRegion(Seq)}, by the keys of {@link #worldRegions()}.
+     */
+    public static void writeWorldMap(OutputStream os, Tile origin, byte[] base, IntMap<byte[]> regions){
+        try(DataOutputStream stream = new DataOutputStream(os)){
+            stream.writeInt(base.length);
+            stream.write(base);
+
+            IntSeq keys = regions.keys().toArray();
+            Seq<Integer> sorted = new Seq<>(keys.size);
+            for(int i = 0; i < keys.size; i++){
+                sorted.add(keys.get(i));
+            }
+            sorted.sort(Structs.comparingFloat(key -> regionDst(key, origin)));
+            int nearby = sorted.count(key -> regionDst(key, origin) <= nearbyWorldRange);
 
-            SaveIO.getSaveWriter().writeContentHeader(stream);
-            SaveIO.getSaveWriter().writeMap(stream);
+            stream.writeInt(sorted.size);
+            stream.writeInt(nearby);
+
+            for(int key : sorted){
+                byte[] region = regions.get(key);
+                stream.writeInt(region.length);
+                stream.write(region);
+            }
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the content header, terrain and list of every building without its data, uncompressed. */
+    public static byte[] writeWorldBase(){
+        try{
+            ByteArrayOutputStream base = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(base);
+            SaveIO.getSaveWriter().writeContentHeader(out);
+            SaveIO.getSaveWriter().writeMap(out, false);
+
+            out.writeInt(Groups.build.size());
+            for(Building build : Groups.build){
+                out.writeInt(build.tile.pos());
+                out.writeShort(build.block.id);
+                out.writeByte(build.team.id);
+                out.writeByte(build.rotation);
+            }
+            return base.toByteArray();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return all buildings, grouped by the key of the region that contains their tile. */
+    public static IntMap<Seq<Building>> worldRegions(){
+        IntMap<Seq<Building>> regions = new IntMap<>();
+        for(Building build : Groups.build){
+            regions.get(worldRegion(build.tile), Seq::new).add(build);
+        }
+        return regions;
+    }
+
+    /** @return the key of the region that contains a tile, as used by {@link #worldRegions()}. */
+    public static int worldRegion(Tile tile){
+        return tile.x / worldRegionSize + tile.y / worldRegionSize * Mathf.ceil((float)world.width() / worldRegionSize);
+    }
+
+    /** @return the data of the buildings of a region, uncompressed. */
+    public static byte[] writeWorldRegion(Seq<Building> buildings){
+        try{
+            ByteArrayOutputStream region = new ByteArrayOutputStream();
+            DataOutputStream regionOut = new DataOutputStream(region);
+            ReusableByteOutStream data = new ReusableByteOutStream();
+            Writes writes = new Writes(new DataOutputStream(data));
+
+            regionOut.writeInt(buildings.size);
+            for(Building build : buildings){
+                data.reset();
+                build.writeAll(writes);
+                regionOut.writeInt(build.tile.pos());
+                regionOut.writeShort(build.block.id);
+                regionOut.writeByte(build.version());
+                regionOut.writeInt(data.size());
+                regionOut.write(data.getBytes(), 0, data.size());
+            }
+            return region.toByteArray();
         }catch(IOException e){
             throw new RuntimeException(e);
         }
     }
 
+    /** @return the distance from the center of a region to the origin, in tiles. */
+    static float regionDst(int key, Tile origin){
+        int regionsWide = Mathf.ceil((float)world.width() / worldRegionSize);
+        float x = (key % regionsWide + 0.5f) * worldRegionSize, y = (key / regionsWide + 0.5f) * worldRegionSize;
+        return Mathf.dst(x, y, origin.x, origin.y);
+    }
+
+    /**
+     * Decompresses world data written by {@link #writeWorld(Player, OutputStream)}.
+     * This does not touch any game state, so it can run on another thread while the data is still being received.
+     * @param loaded receives the data needed to start playing as soon as the nearby regions are decompressed. Load it with {@link #loadWorld(WorldData)}.
+     * @param region receives the data of each remaining region as it is decompressed. Load it with {@link #loadRegion(byte[], IntSet)} after the world.
+     */
+    public static void readWorld(InputStream is, Cons<WorldData> loaded, Cons<byte[]> region) throws IOException{
+        DataInputStream input = new DataInputStream(is);
+        byte[] header = new byte[input.readInt()];
+        input.readFully(header);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Streams.copy(new InflaterInputStream(new ByteArrayInputStream(header)), output);
+
+        DataInputStream map = new DataInputStream(new InflaterInputStream(input));
+        WorldData data = new WorldData(output.toByteArray(), readSection(map));
+        int regions = map.readInt(), nearby = map.readInt();
+        for(int i = 0; i < nearby; i++){
+            data.regions.add(readSection(map));
+        }
+
+        loaded.get(data);
+        for(int i = nearby; i < regions; i++){
+            region.get(readSection(map));
+        }
+    }
+
+    /** Decompresses world data written by {@link #writeWorld(Player, OutputStream)}, including all of its regions. */
+    public static WorldData decompressWorld(InputStream is) throws IOException{
+        WorldData[] result = {null};
+        readWorld(is, data -> result[0] = data, region -> result[0].regions.add(region));
+        return result[0];
+    }
+
+    static byte[] readSection(DataInputStream stream) throws IOException{
+        byte[] bytes = new byte[stream.readInt()];
+        stream.readFully(bytes);
+        return bytes;
+    }
+
+    /** Loads world data written by {@link #writeWorld(Player, OutputStream)}. The input should not be decompressed. */
     public static void loadWorld(InputStream is){
+        try{
+            loadWorld(decompressWorld(is));
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Loads world data that has been decompressed with {@link #readWorld(InputStream, Cons, Cons)}, along with the regions it contains. */
+    public static void loadWorld(WorldData data){
 
-        try(DataInputStream stream = new DataInputStream(is)){
+        try(DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data.header))){
             Time.clear();
             state.rules = JsonIO.read(Rules.class, stream.readUTF());
             state.map = new Map(SaveIO.getSaveWriter().readStringMap(stream));
@@ -67,13 +264,63 @@ public class NetworkIO{
             player.read(Reads.get(stream));
             player.id = id;
             player.add();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
 
+        world.beginMapLoad();
+        try(DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data.map))){
             SaveIO.getSaveWriter().readContentHeader(stream);
             SaveIO.getSaveWriter().readMap(stream, world.context);
+
+            //buildings are created before their data arrives
+            int buildings = stream.readInt();
+            for(int i = 0; i < buildings; i++){
+                Tile tile = world.tile(stream.readInt());
+                Block block = content.block(stream.readShort());
+                Team team = Team.get(stream.readByte());
+                int rotation = stream.readByte();
+
+                if(tile != null && block != null){
+                    tile.setBlock(block, team, rotation);
+                }
+            }
+
+            for(byte[] region : data.regions){
+                loadRegion(region, null);
+            }
         }catch(IOException e){
             throw new RuntimeException(e);
         }finally{
             content.setTemporaryMapper(null);
+            world.endMapLoad();
+        }
+    }
+
+    /**
+     * Loads the data of the buildings in a region. Like block snapshots, this can be done after the world was loaded.
+     * @param outdated positions of buildings whose data should not be loaded, e.g. because they changed since the world data was written.
+     */
+    public static void loadRegion(byte[] data, @Nullable IntSet outdated){
+
+        try(DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data))){
+            int amount = stream.readInt();
+            for(int i = 0; i < amount; i++){
+                int pos = stream.readInt();
+                short block = stream.readShort();
+                byte revision = stream.readByte();
+                int length = stream.readInt();
+
+                Tile tile = world.tile(pos);
+                if(tile == null || tile.build == null || !tile.isCenter() || tile.build.block.id != block || (outdated != null && outdated.contains(pos))){
+                    stream.skipBytes(length);
+                    continue;
+                }
+
+                tile.build.readAll(Reads.get(stream), revision);
+            }
+        }catch(IOException e){
+            throw new RuntimeException(e);
         }
     }
 
@@ -138,4 +385,16 @@ public class NetworkIO{
         buffer.get(bytes);
         return new String(bytes, charset);
     }
+
+    /** World data that is needed to start playing; see {@link #readWorld(InputStream, Cons, Cons)}. */
+    public static class WorldData{
+        final byte[] header, map;
+        /** Building data of the regions that are loaded with the world. */
+        final Seq<byte[]> regions = new Seq<>();
+
+        WorldData(byte[] header, byte[] map){
+            this.header = header;
+            this.map = map;
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package mindustry.net;
+
+import arc.func.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.pooling.*;
+import mindustry.gen.*;
+import mindustry.net.Net.*;
+import mindustry.net.Packets.*;
+
+/**
+ * Schedules outgoing packets of a single connection.
+ * As long as the connection stays within its bandwidth limit, packets are written immediately.
+ * Once the limit is reached, packets are queued in two classes: reliable packets are sent before unreliable ones (snapshots)
+ * when bandwidth is available again. All reliable packets share one queue, so they are always sent in the order they were written.
+ * Important packets are never held back; reliable packets queued before an important one are written with it.
+ * Queued calls of methods marked as {@link mindustry.annotations.Annotations.Remote#superseded()}, i.e. snapshots, are dropped when
+ * a newer call of the same method is queued in a later frame. Other unreliable calls, e.g. effects, are never dropped.
+ */
+public class OutboundQueue{
+    /** How many seconds of bandwidth can be accumulated while the connection is idle. */
+    private static final float burstSeconds = 0.25f;
+
+    private final Cons2<Object, SendMode> writer;
+    @SuppressWarnings("unchecked")
+    private final Queue<Entry>[] queues = new Queue[]{new Queue<>(), new Queue<>()};
+
+    /** Maximum bandwidth in bytes per second; 0 if unlimited. */
+    private volatile int rate;
+    private float tokens;
+    private long lastRefill = Time.millis();
+    /** Incremented on every flush, used to find superseded packets. */
+    private int frame;
+    /** Queued calls that may be superseded, by method. Only calls of the latest frame they were queued in are kept here. */
+    private final IntMap<Seq<Entry>> supersedable = new IntMap<>();
+    private volatile int queued;
+
+    /** Total packets that had to be queued, and queued packets that were dropped because they were superseded. */
+    public long packetsDeferred, packetsSuperseded;
+
+    /** @param writer writes a packet to the underlying connection. */
+    public OutboundQueue(Cons2<Object, SendMode> writer){
+        this.writer = writer;
+    }
+
+    /** Sets the bandwidth limit, in bytes per second. 0 disables it. */
+    public void setRate(int bytesPerSecond){
+        rate = bytesPerSecond;
+    }
+
+    /** Sends a packet, or queues it if the bandwidth limit has been reached. */
+    public void send(Object object, SendMode mode){
+        int size = sizeOf(object);
+        int type = classOf(object, mode);
+
+        //important packets are never held back, but still count towards the limit
+        if(type == -1){
+            //reliable packets must keep their order, so the ones queued before have to go first
+            if(mode == SendMode.tcp) drain(queues[0]);
+            take(size, true);
+            writer.get(object, mode);
+            return;
+        }
+
+        if(queued == 0 && take(size, false)){
+            writer.get(object, mode);
+            return;
+        }
+
+        //the payload of invoke packets is a shared buffer, which will be overwritten by the next call
+        if(object instanceof InvokePacket packet){
+            object = packet.copy();
+        }else if(object instanceof InvokeBundle bundle){
+            object = bundle.copy();
+        }
+
+        Entry entry = Pools.obtain(Entry.class, Entry::new);
+        entry.object = object;
+        entry.mode = mode;
+        entry.size = size;
+        entry.frame = frame;
+        entry.dropped = false;
+        entry.supersedable = mode == SendMode.udp && object instanceof InvokePacket packet && superseded(packet);
+
+        if(entry.supersedable){
+            Seq<Entry> previous = supersedable.get(((InvokePacket)object).type, Seq::new);
+            //calls of the same frame belong to the same snapshot
+            if(previous.any() && previous.first().frame < frame){
+                for(Entry other : previous){
+                    drop(other);
+                }
+                previous.clear();
+            }
+            previous.add(entry);
+        }
+
+        queues[type].addLast(entry);
+        queued++;
+        packetsDeferred++;
+    }
+
+    /** @return whether a call may be dropped when a newer one of the same method is queued. */
+    public static boolean superseded(InvokePacket packet){
+        int type = packet.type & 0xff;
+        return type < Call.methodSuperseded.length && Call.methodSuperseded[type];
+    }
+
+    /** Writes queued packets for which bandwidth is available. Should be called once per frame. */
+    public void flush(){
+        frame++;
+
+        for(Queue<Entry> queue : queues){
+            while(!queue.isEmpty()){
+                Entry entry = queue.first();
+                //dropped entries stay in the queue, as removing them from the middle would mean a scan
+                if(!entry.dropped){
+                    if(!take(entry.size, false)) break;
+                    queued--;
+                    writer.get(entry.object, entry.mode);
+                }
+                queue.removeFirst();
+                free(entry);
+            }
+
+            //lower classes have to wait until this one is empty
+            if(!queue.isEmpty()) break;
+        }
+    }
+
+    /**
+     * Called from the network thread before a stream chunk is sent.
+     * @return whether bandwidth is available and no other packets are waiting, in which case the bandwidth is consumed.
+     */
+    public boolean takeStream(int size){
+        return queued == 0 && take(size, false);
+    }
+
+    /** @return the amount of packets waiting to be sent. */
+    public int queued(){
+        return queued;
+    }
+
+    /** Discards all queued packets. */
+    public void clear(){
+        for(Queue<Entry> queue : queues){
+            while(!queue.isEmpty()){
+                free(queue.removeFirst());
+            }
+        }
+        supersedable.clear();
+        queued = 0;
+    }
+
+    /** Writes all packets of a queue, regardless of the bandwidth limit. */
+    private void drain(Queue<Entry> queue){
+        while(!queue.isEmpty()){
+            Entry entry = queue.removeFirst();
+            queued--;
+            take(entry.size, true);
+            writer.get(entry.object, entry.mode);
+            free(entry);
+        }
+    }
+
+    /** Marks a queued entry as superseded, and frees its packet; the entry itself is freed when it reaches the front of its queue. */
+    private void drop(Entry entry){
+        entry.dropped = true;
+        entry.supersedable = false;
+        queued--;
+        packetsSuperseded++;
+        Pools.free(entry.object);
+        entry.object = null;
+    }
+
+    private synchronized boolean take(int size, boolean force){
+        int rate = this.rate;
+        if(rate <= 0) return true;
+
+        long time = Time.millis();
+        tokens = Math.min(tokens + rate * (time - lastRefill) / 1000f, rate * burstSeconds);
+        lastRefill = time;
+
+        //tokens may go into debt, so that a single large packet can always be sent eventually
+        if(force || tokens > 0){
+            tokens -= size;
+            return true;
+        }
+        return false;
+    }
+
+    private void free(Entry entry){
+        if(entry.supersedable){
+            Seq<Entry> entries = supersedable.get(((InvokePacket)entry.object).type);
+            if(entries != null) entries.remove(entry, true);
+        }
+
+        //copies are owned by this queue
+        if(entry.object instanceof InvokePacket || entry.object instanceof InvokeBundle){
+            Pools.free(entry.object);
+        }
+        entry.object = null;
+        Pools.free(entry);
+    }
+
+    /**
+     * @return the priority class of a packet; lower classes are sent first, -1 is sent immediately.
+     * Only the transport decides the class of other packets, as reordering reliable packets would break calls that depend on each other.
+     */
+    private static int classOf(Object object, SendMode mode){
+        if(object instanceof Packet packet && packet.isImportant()) return -1;
+        return mode == SendMode.udp ? 1 : 0;
+    }
+
+    /** @return the approximate serialized size of a packet. */
+    private static int sizeOf(Object object){
+        if(object instanceof InvokePacket packet) return packet.length + 5;
+        if(object instanceof InvokeBundle bundle) return bundle.length + 6;
+        if(object instanceof StreamChunk chunk) return chunk.data.length + 7;
+        return 32;
+    }
+
+    static class Entry{
+        Object object;
+        SendMode mode;
+        int size, frame;
+        /** Whether this entry is in {@link #supersedable}. */
+        boolean supersedable;
+        /** Whether this entry was superseded, and is only left in the queue to be removed. */
+        boolean dropped;
+    }
+}
@@ -3,6 +3,7 @@ package mindustry.net;
 import arc.*;
 import arc.struct.*;
 import arc.util.io.*;
+import arc.util.pooling.*;
 import arc.util.serialization.*;
 import mindustry.core.*;
 import mindustry.io.*;
@@ -73,16 +74,20 @@ public class Packets{
 
         public byte type, priority;
 
+        /** Payload of this packet. When written, this is usually a shared buffer, so only the first {@link #length} bytes are valid. */
         public byte[] bytes;
         public int length;
 
+        /** Array obtained from {@link NetBuffers} when reading; returned to it on reset. */
+        private byte[] pooled;
+
         @Override
         public void read(ByteBuffer buffer){
             type = buffer.get();
             priority = buffer.get();
-            short writeLength = buffer.getShort();
-            bytes = new byte[writeLength];
-            buffer.get(bytes);
+            length = buffer.getShort();
+            bytes = pooled = NetBuffers.obtain(length);
+            buffer.get(bytes, 0, length);
         }
 
         @Override
@@ -96,6 +101,12 @@ public class Packets{
         @Override
         public void reset(){
             priority = 0;
+            length = 0;
+            bytes = null;
+            if(pooled != null){
+                NetBuffers.free(pooled);
+                pooled = null;
+            }
         }
 
         @Override
@@ -112,6 +123,125 @@ public class Packets{
             bin.setBytes(bytes);
             return read;
         }
+
+        /** @return a pooled copy of this packet that owns its payload, so it can still be sent after the shared write buffer has changed. */
+        public InvokePacket copy(){
+            InvokePacket copy = Pools.obtain(InvokePacket.class, InvokePacket::new);
+            copy.type = type;
+            copy.priority = priority;
+            copy.length = length;
+            copy.bytes = copy.pooled = NetBuffers.obtain(length);
+            System.arraycopy(bytes, 0, copy.bytes, 0, length);
+            return copy;
+        }
+    }
+
+    /**
+     * Several unreliable remote calls packed into one packet, which is sent at the end of a frame.
+     * Calls are handled in the order they were added. See {@link NetConnection#sendBatched}.
+     */
+    public static class InvokeBundle implements Packet{
+        /** Maximum size of the calls in a bundle, so that it fits into a single datagram. */
+        public static final int maxSize = 1200;
+
+        private static ReusableByteInStream bin;
+        private static Reads read = new Reads(new DataInputStream(bin = new ReusableByteInStream()));
+
+        /** Calls in this bundle; each call is stored as its type, its length as a short, and its payload. */
+        public byte[] bytes;
+        public int length, count;
+        /** 2 if every call in this bundle has a low priority, 0 otherwise. */
+        public byte priority = 2;
+
+        /** Array obtained from {@link NetBuffers} when reading or copying; returned to it on reset. */
+        private byte[] pooled;
+
+        /** @return whether a call is small enough to be put into a bundle at all. */
+        public static boolean fits(InvokePacket packet){
+            return packet.length + 3 <= maxSize;
+        }
+
+        /** Appends a call to this bundle. @return false if there is no space left for it. */
+        public boolean add(InvokePacket packet){
+            if(length + packet.length + 3 > maxSize) return false;
+            if(bytes == null) bytes = new byte[maxSize];
+
+            bytes[length] = packet.type;
+            bytes[length + 1] = (byte)(packet.length >> 8);
+            bytes[length + 2] = (byte)packet.length;
+            System.arraycopy(packet.bytes, 0, bytes, length + 3, packet.length);
+            length += packet.length + 3;
+            count++;
+            if(!packet.isUnimportant()) priority = 0;
+            return true;
+        }
+
+        /** Removes all calls, so that this bundle can be filled again. */
+        public void clear(){
+            length = 0;
+            count = 0;
+            priority = 2;
+        }
+
+        /** Calls the reader for every call in this bundle, in order. */
+        public void each(CallReader reader){
+            for(int i = 0, offset = 0; i < count; i++){
+                byte type = bytes[offset];
+                int size = ((bytes[offset + 1] & 0xff) << 8) | (bytes[offset + 2] & 0xff);
+
+                bin.setBytes(bytes);
+                bin.skip(offset + 3);
+                reader.read(type, read);
+                offset += size + 3;
+            }
+        }
+
+        @Override
+        public void read(ByteBuffer buffer){
+            count = buffer.getShort();
+            priority = buffer.get();
+            length = buffer.getShort() & 0xffff;
+            bytes = pooled = NetBuffers.obtain(length);
+            buffer.get(bytes, 0, length);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer){
+            buffer.putShort((short)count);
+            buffer.put(priority);
+            buffer.putShort((short)length);
+            buffer.put(bytes, 0, length);
+        }
+
+        @Override
+        public void reset(){
+            clear();
+            bytes = null;
+            if(pooled != null){
+                NetBuffers.free(pooled);
+                pooled = null;
+            }
+        }
+
+        @Override
+        public boolean isUnimportant(){
+            return priority == 2;
+        }
+
+        /** @return a pooled copy of this bundle that owns its payload. */
+        public InvokeBundle copy(){
+            InvokeBundle copy = Pools.obtain(InvokeBundle.class, InvokeBundle::new);
+            copy.count = count;
+            copy.priority = priority;
+            copy.length = length;
+            copy.bytes = copy.pooled = NetBuffers.obtain(length);
+            System.arraycopy(bytes, 0, copy.bytes, 0, length);
+            return copy;
+        }
+
+        public interface CallReader{
+            void read(byte type, Reads read);
+        }
     }
 
     /** Marks the beginning of a stream. */
@@ -158,6 +288,8 @@ public class Packets{
 
     public static class ConnectPacket implements Packet{
         public int version;
+        /** {@link Version#protocol} of the client. Written last, so it is 0 for clients from before it existed. */
+        public int protocol;
         public String versionType;
         public Seq<String> mods;
         public String name, locale, uuid, usid;
@@ -184,6 +316,7 @@ public class Packets{
             for(int i = 0; i < mods.size; i++){
                 TypeIO.writeString(buffer, mods.get(i));
             }
+            buffer.putInt(Version.protocol);
         }
 
         @Override
@@ -203,6 +336,7 @@ public class Packets{
             for(int i = 0; i < totalMods; i++){
                 mods.add(TypeIO.readString(buffer));
             }
+            protocol = buffer.remaining() >= 4 ? buffer.getInt() : 0;
         }
     }
 }
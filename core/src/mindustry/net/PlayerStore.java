@@ -0,0 +1,354 @@
+package mindustry.net;
+
+import arc.files.*;
+import arc.struct.*;
+import arc.util.*;
+import mindustry.net.Administration.*;
+
+import java.io.*;
+
+/**
+ * Persists player info as an append-only log of records, with indices for the lookups that {@link Administration} needs.
+ * Every change appends the record of a single player; the whole file is only rewritten once most of it consists of outdated records.
+ * Players are never removed, so the latest record of each player is always the valid one.
+ * <p>
+ * All lookups return the live players, which may only be used and modified on the main thread.
+ * Call {@link #changed(PlayerInfo)} after modifying one, so that it is indexed and written with the next {@link #flush()}.
+ * Players modified without it, e.g. by plugins, are found by {@link #flushAll()}, which checks every player that was looked up since it last ran.
+ */
+public class PlayerStore{
+    static final int formatVersion = 1;
+    /** The log is compacted once it has this many times more records than players. */
+    static final int compactRatio = 3;
+    /** Logs with fewer records than this are never compacted. */
+    static final int minCompactRecords = 1000;
+
+    final Fi file;
+
+    /** Live players, by ID. */
+    private final ObjectMap<String, PlayerInfo> byId = new ObjectMap<>();
+    /** Copies of every player as of their last change, by ID. Records and indices are made from these. */
+    private final ObjectMap<String, PlayerInfo> indexed = new ObjectMap<>();
+    private final ObjectMap<String, ObjectSet<String>> byIP = new ObjectMap<>(), byName = new ObjectMap<>();
+    private final ObjectSet<String> banned = new ObjectSet<>(), admins = new ObjectSet<>();
+    /** IDs of players that changed since the last flush. */
+    private final OrderedSet<String> dirty = new OrderedSet<>();
+    /** IDs of players that were looked up since the last {@link #flushAll()}, so they may have been modified. */
+    private final ObjectSet<String> lookedUp = new ObjectSet<>();
+
+    private @Nullable DataOutputStream output;
+    private int records;
+
+    public PlayerStore(Fi file){
+        this.file = file;
+        read();
+    }
+
+    /** @return the player with this ID. */
+    public @Nullable PlayerInfo get(String id){
+        PlayerInfo info = byId.get(id);
+        if(info != null) lookedUp.add(id);
+        return info;
+    }
+
+    /** @return the player with this ID, which is created and persisted if it does not exist. */
+    public PlayerInfo getCreate(String id){
+        PlayerInfo info = byId.get(id);
+        if(info == null){
+            info = new PlayerInfo(id);
+            byId.put(id, info);
+            changed(info);
+            flush();
+        }
+        lookedUp.add(id);
+        return info;
+    }
+
+    /** Adds or replaces a player, e.g. when importing data. */
+    public void add(PlayerInfo info){
+        byId.put(info.id, info);
+        changed(info);
+    }
+
+    /** @return all players. */
+    public Seq<PlayerInfo> all(){
+        return lookup(byId.keys());
+    }
+
+    public int size(){
+        return byId.size;
+    }
+
+    /** @return all players that have ever used this IP. */
+    public Seq<PlayerInfo> byIP(String ip){
+        return lookup(byIP.get(ip));
+    }
+
+    /** @return any player that has used this IP, or null. This does not look up every player with the IP. */
+    public @Nullable PlayerInfo firstByIP(String ip){
+        ObjectSet<String> ids = byIP.get(ip);
+        return ids == null || ids.isEmpty() ? null : get(ids.first());
+    }
+
+    /**
+     * @return all players that have used a name that matches this one, ignoring case and colors.
+     * Callers should check the exact name, as the index is more permissive than most lookups.
+     */
+    public Seq<PlayerInfo> byName(String name){
+        return lookup(byName.get(name.toLowerCase()));
+    }
+
+    /**
+     * @return all players that have used a name containing this text, ignoring case and colors.
+     * This scans the distinct names rather than every player. Callers should check the exact condition.
+     */
+    public Seq<PlayerInfo> searchNames(String text){
+        String lower = text.toLowerCase();
+        ObjectSet<String> ids = new ObjectSet<>();
+        for(var entry : byName.entries()){
+            if(entry.key.contains(lower)) ids.addAll(entry.value);
+        }
+        return lookup(ids);
+    }
+
+    /** @return all ID-banned players. */
+    public Seq<PlayerInfo> banned(){
+        return lookup(banned);
+    }
+
+    /** @return all admins. */
+    public Seq<PlayerInfo> admins(){
+        return lookup(admins);
+    }
+
+    /** Indexes a player that was modified, and marks it to be written with the next {@link #flush()}. */
+    public void changed(PlayerInfo info){
+        PlayerInfo copy = info.copy();
+        PlayerInfo previous = indexed.put(info.id, copy);
+        if(previous != null) unindex(previous);
+        index(copy);
+        dirty.add(info.id);
+    }
+
+    /** Appends the records of all changed players to the log. */
+    public void flush(){
+        if(dirty.isEmpty()) return;
+
+        try{
+            if(output == null){
+                boolean exists = file.exists() && file.length() > 0;
+                output = new DataOutputStream(file.write(true, 8192));
+                if(!exists) output.writeInt(formatVersion);
+            }
+
+            for(String id : dirty){
+                write(output, indexed.get(id));
+                records++;
+            }
+            output.flush();
+            dirty.clear();
+        }catch(IOException e){
+            Log.err("Failed to write player data", e);
+            closeOutput();
+        }
+
+        if(records >= minCompactRecords && records > byId.size * compactRatio){
+            compact();
+        }
+    }
+
+    /**
+     * Like {@link #flush()}, but first finds players that were modified without calling {@link #changed(PlayerInfo)}.
+     * Only players that were looked up since the last call are compared with their last record, as no others can have been modified,
+     * unless a reference was kept from before that call.
+     */
+    public void flushAll(){
+        for(String id : lookedUp){
+            PlayerInfo info = byId.get(id);
+            if(!info.same(indexed.get(id))){
+                changed(info);
+            }
+        }
+        lookedUp.clear();
+        flush();
+    }
+
+    /** Rewrites the log with only the latest record of every player. */
+    public void compact(){
+        closeOutput();
+        Fi temp = file.sibling(file.name() + ".tmp");
+
+        try(DataOutputStream stream = new DataOutputStream(temp.write(false, 8192))){
+            stream.writeInt(formatVersion);
+            for(PlayerInfo info : indexed.values()){
+                write(stream, info);
+            }
+        }catch(IOException e){
+            Log.err("Failed to compact player data", e);
+            temp.delete();
+            return;
+        }
+
+        temp.moveTo(file);
+        Log.debug("Compacted player data from @ to @ records.", records, indexed.size);
+        records = indexed.size;
+        dirty.clear();
+    }
+
+    void read(){
+        if(!file.exists()) return;
+        boolean truncated = false, corrupt = false;
+
+        try(DataInputStream stream = new DataInputStream(new BufferedInputStream(file.read(), 8192))){
+            int version = stream.readInt();
+            if(version != formatVersion) throw new IOException("Unknown player data version: " + version);
+
+            while(true){
+                stream.mark(1);
+                if(stream.read() == -1) break;
+                stream.reset();
+
+                PlayerInfo info;
+                try{
+                    info = read(stream);
+                }catch(EOFException e){
+                    //an incomplete last record, which needs to be removed before anything is appended
+                    truncated = true;
+                    break;
+                }
+
+                //later records replace earlier ones; indices are built once everything is read
+                byId.put(info.id, info);
+                records++;
+            }
+        }catch(IOException e){
+            Log.err("Failed to read player data; records after the error are lost", e);
+            corrupt = true;
+        }
+
+        if(corrupt){
+            //nothing may be appended to a file that can't be read back; the original is kept for manual recovery
+            Fi backup = file.sibling(file.name() + ".corrupt");
+            file.copyTo(backup);
+            Log.err("Moved unreadable player data to @.", backup.name());
+        }
+
+        for(PlayerInfo info : byId.values()){
+            PlayerInfo copy = info.copy();
+            indexed.put(info.id, copy);
+            index(copy);
+        }
+
+        if(truncated || corrupt || (records >= minCompactRecords && records > byId.size * compactRatio)){
+            compact();
+        }
+    }
+
+    Seq<PlayerInfo> lookup(@Nullable Iterable<String> ids){
+        Seq<PlayerInfo> result = new Seq<>();
+        if(ids == null) return result;
+        for(String id : ids){
+            result.add(byId.get(id));
+            lookedUp.add(id);
+        }
+        return result;
+    }
+
+    void index(PlayerInfo info){
+        for(String ip : info.ips){
+            byIP.get(ip, ObjectSet::new).add(info.id);
+        }
+        for(String name : nameKeys(info)){
+            byName.get(name, ObjectSet::new).add(info.id);
+        }
+        if(info.banned) banned.add(info.id);
+        if(info.admin) admins.add(info.id);
+    }
+
+    void unindex(PlayerInfo info){
+        removeKeys(byIP, info.ips, info.id);
+        removeKeys(byName, nameKeys(info), info.id);
+        banned.remove(info.id);
+        admins.remove(info.id);
+    }
+
+    static Seq<String> nameKeys(PlayerInfo info){
+        Seq<String> keys = new Seq<>();
+        for(String name : info.names){
+            addName(keys, name);
+        }
+        addName(keys, info.lastName);
+        return keys;
+    }
+
+    static void addName(Seq<String> keys, @Nullable String name){
+        if(name == null) return;
+        String lower = name.toLowerCase(), stripped = Strings.stripColors(name).toLowerCase();
+        keys.addUnique(lower);
+        keys.addUnique(stripped);
+    }
+
+    static void removeKeys(ObjectMap<String, ObjectSet<String>> index, Seq<String> keys, String id){
+        for(String key : keys){
+            ObjectSet<String> set = index.get(key);
+            if(set != null){
+                set.remove(id);
+                if(set.isEmpty()) index.remove(key);
+            }
+        }
+    }
+
+    void closeOutput(){
+        if(output != null){
+            try{
+                output.close();
+            }catch(IOException ignored){
+            }
+            output = null;
+        }
+    }
+
+    static void write(DataOutput stream, PlayerInfo info) throws IOException{
+        stream.writeUTF(info.id);
+        stream.writeUTF(info.lastName);
+        stream.writeUTF(info.lastIP);
+        writeStrings(stream, info.ips);
+        writeStrings(stream, info.names);
+        stream.writeBoolean(info.adminUsid != null);
+        if(info.adminUsid != null) stream.writeUTF(info.adminUsid);
+        stream.writeInt(info.timesKicked);
+        stream.writeInt(info.timesJoined);
+        stream.writeBoolean(info.banned);
+        stream.writeBoolean(info.admin);
+        stream.writeLong(info.lastKicked);
+    }
+
+    static PlayerInfo read(DataInput stream) throws IOException{
+        PlayerInfo info = new PlayerInfo(stream.readUTF());
+        info.lastName = stream.readUTF();
+        info.lastIP = stream.readUTF();
+        readStrings(stream, info.ips);
+        readStrings(stream, info.names);
+        if(stream.readBoolean()) info.adminUsid = stream.readUTF();
+        info.timesKicked = stream.readInt();
+        info.timesJoined = stream.readInt();
+        info.banned = stream.readBoolean();
+        info.admin = stream.readBoolean();
+        info.lastKicked = stream.readLong();
+        return info;
+    }
+
+    static void writeStrings(DataOutput stream, Seq<String> strings) throws IOException{
+        stream.writeInt(strings.size);
+        for(String s : strings){
+            stream.writeUTF(s);
+        }
+    }
+
+    static void readStrings(DataInput stream, Seq<String> out) throws IOException{
+        int amount = stream.readInt();
+        for(int i = 0; i < amount; i++){
+            out.add(stream.readUTF());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package mindustry.net;
+
+import arc.files.*;
+import arc.func.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.pooling.*;
+import mindustry.core.GameState.*;
+import mindustry.core.*;
+import mindustry.gen.*;
+import mindustry.io.*;
+import mindustry.io.ReplayIO.*;
+import mindustry.net.Registrator.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Plays back a replay written by {@link ReplayRecorder}, applying it to the game state like a client would.
+ * Playback is driven by {@link #advance(long)}, so it can run at any speed, and does not need a connection or a renderer.
+ * Packets that fail to apply, e.g. because they need the UI on a headless instance, are counted and skipped.
+ * <p>
+ * Packets are applied through the global {@link mindustry.Vars#netClient} and {@link mindustry.Vars#player}. Headless instances have neither,
+ * so temporary ones are created and removed again on {@link #close()}; playback must not run while the instance is hosting a game.
+ * All methods must be called on the main thread, as they change the global game state.
+ */
+public class ReplayPlayer implements Closeable{
+    /** Gaps between packets longer than this are reported as lag spikes, in milliseconds. */
+    public static final long spikeThreshold = 500;
+
+    private final ReplayReader reader;
+    private final ReplayRecord record = new ReplayRecord();
+    private final boolean ownsClient, ownsPlayer;
+    /** Whether the record that was read last has not been applied yet, as it is in the future. */
+    private boolean pending;
+    /** Whether the next world or keyframe record should be loaded. Only the first one after seeking is. */
+    private boolean loadKeyframe = true;
+    private long time, lastPacket = -1;
+
+    /** Packet counts and handling times of this playback. */
+    public final NetStats stats = new NetStats();
+    /** Gaps between packets that are longer than {@link #spikeThreshold}. */
+    public final Seq<Spike> spikes = new Seq<>();
+    /** Number of packets that were applied, and of packets that failed to apply. */
+    public int packets, errors;
+
+    /** Opens a replay. Playback starts at the beginning; call {@link #advance(long)} to apply it. */
+    public ReplayPlayer(Fi file) throws IOException{
+        reader = new ReplayReader(file);
+
+        //headless instances have no client, which is needed to handle packets
+        ownsClient = netClient == null;
+        if(ownsClient) netClient = new NetClient();
+        ownsPlayer = player == null;
+        if(ownsPlayer) player = Player.create();
+    }
+
+    /** Jumps to a point in time by loading the last keyframe before it, then applying all packets after it. */
+    public void seek(long target) throws IOException{
+        reader.seek(reader.keyframeAt(target));
+        pending = false;
+        loadKeyframe = true;
+        lastPacket = -1;
+        time = 0;
+        advance(target);
+    }
+
+    /**
+     * Applies all records up to a point in time.
+     * @return false once the end of the replay has been reached.
+     */
+    public boolean advance(long target) throws IOException{
+        boolean applied = false, finished = false;
+
+        while(true){
+            if(!pending){
+                if(!reader.next(record)){
+                    finished = true;
+                    break;
+                }
+                pending = true;
+            }
+
+            if(record.time > target) break;
+
+            pending = false;
+            apply();
+            applied = true;
+        }
+
+        time = finished ? Math.max(time, reader.duration()) : Math.max(time, target);
+
+        if(applied){
+            //entities are only interpolated while connected, so move them to their synced positions directly
+            for(Syncc entity : Groups.sync){
+                if(entity.lastUpdated() != 0) entity.snapSync();
+            }
+        }
+
+        return !finished;
+    }
+
+    /** @return the current playback time, in milliseconds. */
+    public long time(){
+        return time;
+    }
+
+    /** @return the length of the replay, in milliseconds. */
+    public long duration(){
+        return reader.duration();
+    }
+
+    public Seq<Keyframe> keyframes(){
+        return reader.keyframes();
+    }
+
+    /** Stops playback and unloads the world. */
+    @Override
+    public void close() throws IOException{
+        reader.close();
+        net.setClientLoaded(false);
+        netClient.snapshots.clear();
+        logic.reset();
+
+        if(ownsClient){
+            netClient.removeListeners();
+            netClient = null;
+        }
+        if(ownsPlayer) player = null;
+    }
+
+    private void apply(){
+        switch(record.kind){
+            case ReplayIO.recordWorld, ReplayIO.recordKeyframe -> {
+                //keyframes are only needed for seeking; during normal playback, the state is already up to date
+                if(!loadKeyframe) return;
+                loadKeyframe = false;
+
+                net.setClientLoaded(false);
+                netClient.snapshots.clear();
+                ByteArrayInputStream input = new ByteArrayInputStream(record.data, 0, record.length);
+                if(record.kind == ReplayIO.recordWorld){
+                    NetworkIO.loadWorld(input);
+                }else{
+                    SaveIO.load(new InflaterInputStream(input), world.context);
+                }
+                state.set(State.playing);
+                net.setClientLoaded(true);
+            }
+            case ReplayIO.recordPacket -> applyPacket();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyPacket(){
+        if(lastPacket >= 0 && record.time - lastPacket > spikeThreshold){
+            spikes.add(new Spike(lastPacket, record.time - lastPacket));
+        }
+        lastPacket = record.time;
+
+        ByteBuffer buffer = ByteBuffer.wrap(record.data, 0, record.length);
+        ClassEntry entry = Registrator.getByID(buffer.get());
+        Packet packet = Pools.obtain((Class<Packet>)entry.type, (Prov<Packet>)entry.constructor);
+        packet.read(buffer);
+        String name = NetStats.name(packet);
+
+        long start = Time.nanos();
+        try{
+            net.handleClientReceived(packet);
+            //snapshots are applied right away, as playback does not happen in real time
+            netClient.snapshots.flush();
+            packets++;
+        }catch(Throwable e){
+            errors++;
+            Log.debug("Failed to apply replay packet '@': @", name, Strings.getSimpleMessage(e));
+        }
+        stats.received(name, record.length, Time.timeSinceNanos(start));
+    }
+
+    public static class Spike{
+        /** Time of the last packet before the gap, in milliseconds since the start of the replay. */
+        public final long time;
+        /** Length of the gap, in milliseconds. */
+        public final long length;
+
+        Spike(long time, long length){
+            this.time = time;
+            this.length = length;
+        }
+    }
+}
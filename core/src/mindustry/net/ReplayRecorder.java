@@ -0,0 +1,186 @@
+package mindustry.net;
+
+import arc.files.*;
+import arc.util.*;
+import mindustry.game.*;
+import mindustry.gen.*;
+import mindustry.io.*;
+import mindustry.io.ReplayIO.*;
+import mindustry.io.versions.*;
+import mindustry.net.Administration.*;
+import mindustry.net.Net.*;
+import mindustry.net.Packets.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Records a match on the server into a replay file; see {@link ReplayIO} for the format.
+ * The recorder acts like a connection that is not part of the provider: it receives every packet the server broadcasts,
+ * as well as its own entity snapshots, which always contain every entity in the world.
+ * <p>
+ * Packets that the server sends to a single connection, e.g. reliable calls with a player parameter such as info messages,
+ * are not recorded, as they describe the view of that player rather than the match. Anything that only reaches players this way
+ * is missing from replays until the next keyframe.
+ * <p>
+ * Keyframes are captured on the main thread, then compressed and written on a background thread. Packets sent in the meantime
+ * are held in memory and written after the keyframe, so that seeking to it does not skip them.
+ */
+public class ReplayRecorder extends NetConnection{
+    /** Compresses and writes keyframes of all recorders, one at a time. */
+    private static final ExecutorService keyframeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Replay Keyframe Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public final Fi file;
+
+    private final ReplayWriter writer;
+    private final ByteBuffer buffer = ByteBuffer.allocate(32768);
+    /** Packets sent while a keyframe is being written, as their time, length and data. Null if no keyframe is being written. */
+    private @Nullable ByteArrayOutputStream held;
+    private @Nullable DataOutputStream heldStream;
+    private long lastKeyframe;
+    private boolean closed;
+
+    /** Starts recording, writing the current world as the first record. */
+    public ReplayRecorder(Fi file) throws IOException{
+        super("replay");
+        this.file = file;
+        writer = new ReplayWriter(file);
+        hasConnected = true;
+
+        //the world is written for a spectator that is never added
+        Player spectator = Player.create();
+        spectator.name = "replay";
+        spectator.team(Team.derelict);
+
+        ByteArrayOutputStream world = new ByteArrayOutputStream();
+        NetworkIO.writeWorld(spectator, world);
+        writer.write(ReplayIO.recordWorld, world.toByteArray(), 0, world.size());
+        lastKeyframe = writer.time();
+    }
+
+    @Override
+    public synchronized void send(Object object, SendMode mode){
+        //streams are only used to send the world to joining players, which is already part of the replay
+        if(closed || !(object instanceof Packet packet) || object instanceof StreamBegin || object instanceof StreamChunk) return;
+
+        buffer.clear();
+        buffer.put(Registrator.getID(object.getClass()));
+        packet.write(buffer);
+
+        try{
+            if(heldStream != null){
+                heldStream.writeLong(writer.time());
+                heldStream.writeInt(buffer.position());
+                heldStream.write(buffer.array(), 0, buffer.position());
+            }else{
+                writer.write(ReplayIO.recordPacket, buffer.array(), 0, buffer.position());
+            }
+            stats.sent(object, buffer.position());
+        }catch(IOException e){
+            Log.err("Failed to write replay packet", e);
+            close();
+        }
+    }
+
+    /** Captures a keyframe if it is due, and the previous one has been written. Should be called every frame. */
+    public void update(){
+        if(closed || writer.time() - lastKeyframe < Config.replayKeyframeInterval.num() * 1000L) return;
+        synchronized(this){
+            if(held != null) return;
+        }
+
+        Time.mark();
+        Save5 version = (Save5)SaveIO.getSaveWriter();
+        Save5.Image image;
+        try{
+            image = version.capture(null);
+        }catch(IOException e){
+            Log.err("Failed to capture replay keyframe", e);
+            close();
+            return;
+        }
+
+        long time = writer.time();
+        lastKeyframe = time;
+        synchronized(this){
+            held = new ByteArrayOutputStream();
+            heldStream = new DataOutputStream(held);
+        }
+        Log.debug("Captured replay keyframe in @ms.", Time.elapsed());
+
+        keyframeExecutor.submit(() -> writeKeyframe(version, image, time));
+    }
+
+    private void writeKeyframe(Save5 version, Save5.Image image, long time){
+        ByteArrayOutputStream save = new ByteArrayOutputStream();
+        Throwable error = null;
+        try{
+            SaveIO.writeImage(save, version, image);
+        }catch(Throwable e){
+            error = e;
+        }
+
+        synchronized(this){
+            if(closed) return;
+
+            try{
+                if(error == null){
+                    writer.write(ReplayIO.recordKeyframe, time, save.toByteArray(), 0, save.size());
+                    Log.debug("Wrote replay keyframe (@ KB).", save.size() / 1024);
+                }else{
+                    Log.err("Failed to write replay keyframe", error);
+                }
+                writeHeld();
+            }catch(IOException e){
+                Log.err("Failed to write replay keyframe", e);
+                close();
+            }
+        }
+    }
+
+    /** Writes the packets that were held back while a keyframe was written. */
+    private void writeHeld() throws IOException{
+        if(held == null) return;
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(held.toByteArray()));
+        held = null;
+        heldStream = null;
+
+        while(input.available() > 0){
+            long time = input.readLong();
+            int length = input.readInt();
+            input.readFully(buffer.array(), 0, length);
+            writer.write(ReplayIO.recordPacket, time, buffer.array(), 0, length);
+        }
+    }
+
+    /** @return the time since recording started, in milliseconds. */
+    public long time(){
+        return writer.time();
+    }
+
+    @Override
+    public boolean isConnected(){
+        return !closed;
+    }
+
+    /** Stops recording. */
+    @Override
+    public synchronized void close(){
+        if(closed) return;
+        closed = true;
+
+        try{
+            //a keyframe that is still being written is dropped, but the packets after it are kept
+            writeHeld();
+            writer.close();
+        }catch(IOException e){
+            Log.err("Failed to close replay", e);
+        }
+    }
+}
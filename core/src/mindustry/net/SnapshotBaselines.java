@@ -0,0 +1,234 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Keeps recently sent (server) or received (client) entity sync data, which is used as a baseline for delta-compressed entity snapshots.
+ * Entity data is sent as an XOR against the most recent baseline that the receiving side has acknowledged;
+ * unchanged bytes become zeroes, which compress very well.
+ */
+public class SnapshotBaselines{
+    /** Number of past snapshots remembered for every entity. */
+    public static final int entityHistory = 4;
+    /** Number of snapshot rounds that acknowledgements are tracked for. Also the size of the acknowledgement bitmask. */
+    public static final int ackHistory = 32;
+    /** Entities that have not been part of a snapshot for this many rounds are discarded. */
+    private static final int maxAge = 120;
+
+    private final IntMap<History> entities = new IntMap<>();
+    private final IntSeq removals = new IntSeq();
+    /** Round IDs that have been acknowledged, indexed by round ID modulo {@link #ackHistory}. */
+    private final int[] acked = new int[ackHistory];
+    /** Client-side tracking of how many parts of a round have been received. */
+    private final int[] partRounds = new int[ackHistory], partsReceived = new int[ackHistory], partsTotal = new int[ackHistory];
+    private int latestAcked = -1;
+
+    public SnapshotBaselines(){
+        reset();
+    }
+
+    /** Discards all baselines and acknowledgements. */
+    public void reset(){
+        entities.clear();
+        latestAcked = -1;
+        Arrays.fill(acked, -1);
+        Arrays.fill(partRounds, -1);
+    }
+
+    /** Marks a round and every round in the bitmask as acknowledged. Bit N of the mask represents round {@code round - 1 - N}. */
+    public void acknowledge(int round, int mask){
+        if(round < 0) return;
+
+        markAcked(round);
+        for(int i = 0; i < ackHistory; i++){
+            if((mask & (1 << i)) != 0){
+                markAcked(round - 1 - i);
+            }
+        }
+    }
+
+    public boolean isAcknowledged(int round){
+        return round >= 0 && acked[round % ackHistory] == round;
+    }
+
+    /** @return the most recent acknowledged round, or -1 if there is none. */
+    public int latestAcknowledged(){
+        return latestAcked;
+    }
+
+    /** @return a bitmask of acknowledged rounds before the latest one, in the format used by {@link #acknowledge(int, int)}. */
+    public int acknowledgedMask(){
+        int mask = 0;
+        for(int i = 0; i < ackHistory; i++){
+            if(isAcknowledged(latestAcked - 1 - i)){
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Client-side: registers a received part of a snapshot round. Once all parts have arrived, the round is acknowledged.
+     * @return whether the round is now complete.
+     */
+    public boolean receivePart(int round, boolean last, int part){
+        if(round < 0) return false;
+
+        int index = round % ackHistory;
+        if(partRounds[index] != round){
+            partRounds[index] = round;
+            partsReceived[index] = 0;
+            partsTotal[index] = -1;
+        }
+
+        partsReceived[index]++;
+        if(last) partsTotal[index] = part + 1;
+
+        if(partsReceived[index] == partsTotal[index]){
+            markAcked(round);
+            return true;
+        }
+        return false;
+    }
+
+    /** @return the most recent baseline of an entity that was sent in an acknowledged round before the specified one, or null if there is none. */
+    public @Nullable Baseline findAcknowledged(int id, int round){
+        History history = entities.get(id);
+        if(history == null) return null;
+
+        Baseline result = null;
+        for(Baseline base : history.entries){
+            if(base.round >= 0 && base.round < round && isAcknowledged(base.round) && (result == null || base.round > result.round)){
+                result = base;
+            }
+        }
+        return result;
+    }
+
+    /** @return the baseline of an entity from a specific round, or null if it is not known. */
+    public @Nullable Baseline find(int id, int round){
+        History history = entities.get(id);
+        if(history == null) return null;
+
+        for(Baseline base : history.entries){
+            if(base.round == round) return base;
+        }
+        return null;
+    }
+
+    /** Remembers the sync data of an entity for a round. */
+    public void put(int id, int round, byte[] bytes, int offset, int length){
+        History history = entities.get(id);
+        if(history == null){
+            entities.put(id, history = new History(id));
+        }
+
+        history.latest = Math.max(history.latest, round);
+
+        //replace the oldest entry
+        Baseline target = history.entries[0];
+        for(Baseline base : history.entries){
+            if(base.round == round){
+                target = base;
+                break;
+            }
+            if(base.round < target.round) target = base;
+        }
+
+        if(target.data.length < length){
+            target.data = new byte[length];
+        }
+        System.arraycopy(bytes, offset, target.data, 0, length);
+        target.length = length;
+        target.round = round;
+    }
+
+    /**
+     * Server-side: writes the sync data of an entity for a round, followed by the baseline offset and length it needs to be decoded.
+     * The data is delta-encoded against the most recent acknowledged baseline, if there is a usable one, and remembered as a baseline of this round.
+     * Format: byte offset to the baseline round (0 if there is none), short length, data (XORed with the baseline if the offset is not 0).
+     */
+    public void encode(int id, int round, byte[] bytes, int offset, int length, DataOutput out) throws IOException{
+        Baseline base = findAcknowledged(id, round);
+
+        if(base != null && base.length == length && round - base.round <= 255){
+            //unchanged bytes become zero
+            out.writeByte(round - base.round);
+            out.writeShort(length);
+            for(int i = 0; i < length; i++){
+                out.writeByte(bytes[offset + i] ^ base.data[i]);
+            }
+        }else{
+            //no usable baseline, write everything
+            out.writeByte(0);
+            out.writeShort(length);
+            out.write(bytes, offset, length);
+        }
+
+        put(id, round, bytes, offset, length);
+    }
+
+    /**
+     * Client-side: decodes the sync data of an entity in place and remembers it as a baseline of this round.
+     * @param baseOffset the offset to the round of the baseline, as written by {@link #encode(int, int, byte[], int, int, DataOutput)}.
+     * @return whether the baseline was known. If not, the data can't be used and the snapshot part must not be acknowledged.
+     */
+    public boolean decode(int id, int round, int baseOffset, byte[] bytes, int offset, int length){
+        if(baseOffset != 0){
+            Baseline base = find(id, round - baseOffset);
+            if(base == null || base.length != length) return false;
+
+            for(int i = 0; i < length; i++){
+                bytes[offset + i] ^= base.data[i];
+            }
+        }
+
+        put(id, round, bytes, offset, length);
+        return true;
+    }
+
+    /** Removes data of entities that have not been sent in a while. */
+    public void prune(int round){
+        removals.clear();
+        for(History history : entities.values()){
+            if(round - history.latest > maxAge){
+                removals.add(history.id);
+            }
+        }
+
+        for(int i = 0; i < removals.size; i++){
+            entities.remove(removals.items[i]);
+        }
+    }
+
+    private void markAcked(int round){
+        if(round < 0 || acked[round % ackHistory] > round) return;
+
+        acked[round % ackHistory] = round;
+        latestAcked = Math.max(latestAcked, round);
+    }
+
+    public static class Baseline{
+        /** Round this data was sent in; -1 if unused. */
+        public int round = -1;
+        public byte[] data = {};
+        public int length;
+    }
+
+    static class History{
+        final int id;
+        final Baseline[] entries = new Baseline[entityHistory];
+        int latest = -1;
+
+        History(int id){
+            this.id = id;
+            for(int i = 0; i < entries.length; i++){
+                entries[i] = new Baseline();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package mindustry.net;
+
+import arc.math.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.pooling.*;
+import arc.util.pooling.Pool.*;
+
+/**
+ * Client-side jitter buffer for snapshots. Instead of applying snapshots as soon as they arrive, they are held back
+ * for a short, adaptive delay, so that they are applied at the regular interval at which the server sent them.
+ * This keeps entity interpolation smooth even if packets arrive unevenly.
+ * <p>
+ * The server sends a snapshot round at a fixed interval, so the round ID acts as a send timestamp.
+ * The transit time of every round (arrival time minus send time) and its variation are tracked like a TCP round trip estimate;
+ * rounds are released at their send time plus the average transit time plus a multiple of its variation.
+ * <p>
+ * Snapshots are buffered as {@link Snapshot} objects holding their data, which are obtained from {@link Pools} and freed once applied or discarded.
+ */
+public class SnapshotBuffer{
+    /** Maximum time a snapshot is held back, in milliseconds. */
+    public static final float maxDelay = 250f;
+    /** Maximum time entities are extrapolated past their latest snapshot when no new one arrives, in milliseconds. */
+    public static final float maxExtrapolation = 250f;
+    /** Multiple of the transit time variation that is added to the delay. Higher values mean less stutter, but more latency. */
+    private static final float jitterScale = 4f;
+    /** Bounds of the estimated interval between rounds, in milliseconds. */
+    private static final float minInterval = 10f, maxInterval = 1000f;
+
+    private final Queue<Snapshot> entries = new Queue<>();
+
+    /** Last round that arrived, and its arrival time. */
+    private int lastRound = -1;
+    private long lastArrival;
+    /** Estimated time between rounds. 0 if not known yet. */
+    private float interval;
+    /** Estimated send time of the last round, in local time. Advanced by the interval for every round, so changes in the interval estimate do not cause jumps. */
+    private double sendTime;
+    /** Smoothed transit time relative to the estimated send time, and its mean deviation. */
+    private float transit, deviation;
+    /** Release time of the last round. Rounds are never released before earlier ones. */
+    private double lastRelease;
+
+    /** Buffers data of a snapshot round, which is applied once it is due. Must be called for every part of a round. */
+    public void add(int round, Snapshot snapshot){
+        add(round, snapshot, Time.millis());
+    }
+
+    /** Buffers data of a snapshot round that arrived at a specific local time, in milliseconds. */
+    public void add(int round, Snapshot snapshot, long time){
+        //parts of older rounds that arrive out of order are applied right away, before the newer rounds that are still buffered
+        if(round < lastRound){
+            apply(snapshot);
+            return;
+        }
+
+        if(round > lastRound){
+            arrived(round, time);
+            if(interval > 0){
+                lastRelease = Math.max(lastRelease, Math.min(sendTime + transit + deviation * jitterScale, time + maxDelay));
+            }
+        }
+
+        snapshot.release = Math.max(lastRelease, time);
+        entries.addLast(snapshot);
+    }
+
+    /** Buffers data that is not part of a snapshot round; it is applied with the current delay, after any buffered rounds. */
+    public void add(Snapshot snapshot){
+        add(snapshot, Time.millis());
+    }
+
+    /** Buffers data that is not part of a snapshot round and arrived at a specific local time, in milliseconds. */
+    public void add(Snapshot snapshot, long time){
+        snapshot.release = Math.max(lastRelease, time + delay());
+        entries.addLast(snapshot);
+    }
+
+    /** Applies all snapshot data that is due. Should be called every frame. */
+    public void update(){
+        update(Time.millis());
+    }
+
+    /** Applies all snapshot data that is due at a specific local time, in milliseconds. */
+    public void update(long time){
+        while(!entries.isEmpty() && entries.first().release <= time){
+            apply(entries.removeFirst());
+        }
+    }
+
+    /** Applies all buffered snapshot data immediately, e.g. when playing back a replay faster than real time. */
+    public void flush(){
+        while(!entries.isEmpty()){
+            apply(entries.removeFirst());
+        }
+    }
+
+    /** @return the amount of buffered snapshots. */
+    public int size(){
+        return entries.size;
+    }
+
+    /** @return the current delay at which snapshots are applied after they arrive, in milliseconds. */
+    public float delay(){
+        if(interval <= 0) return 0f;
+        return Mathf.clamp((float)(sendTime + transit + deviation * jitterScale - lastArrival), 0f, maxDelay);
+    }
+
+    /** @return the estimated time between snapshot rounds, in milliseconds. 0 if not known yet. */
+    public float interval(){
+        return interval;
+    }
+
+    /**
+     * @param timeSinceUpdate time since the last snapshot of an entity, in milliseconds
+     * @param updateSpacing time between its last two snapshots, in milliseconds
+     * @return how far to interpolate an entity from its previous to its latest snapshot. Values above 1 extrapolate,
+     * for at most one update and {@link #maxExtrapolation} milliseconds.
+     */
+    public static float interpolationAlpha(float timeSinceUpdate, float updateSpacing){
+        return Math.min(timeSinceUpdate / updateSpacing, 1f + Math.min(updateSpacing, maxExtrapolation) / updateSpacing);
+    }
+
+    /** Discards all buffered snapshots and timing estimates. */
+    public void clear(){
+        while(!entries.isEmpty()){
+            Pools.free(entries.removeFirst());
+        }
+        lastRound = -1;
+        interval = 0f;
+        transit = deviation = 0f;
+        lastRelease = 0;
+    }
+
+    private void arrived(int round, long time){
+        if(lastRound == -1){
+            sendTime = time;
+        }else{
+            int rounds = round - lastRound;
+            float spacing = Mathf.clamp((float)(time - lastArrival) / rounds, minInterval, maxInterval);
+            interval = interval <= 0 ? spacing : interval + (spacing - interval) / 16f;
+            sendTime += interval * rounds;
+
+            //smooth the transit time and its deviation like TCP does for round trip times
+            float sample = (float)(time - sendTime);
+            deviation += (Math.abs(sample - transit) - deviation) / 4f;
+            transit += (sample - transit) / 8f;
+        }
+
+        lastRound = round;
+        lastArrival = time;
+    }
+
+    private static void apply(Snapshot snapshot){
+        snapshot.apply();
+        Pools.free(snapshot);
+    }
+
+    /** Data of a snapshot that is applied once it is due. */
+    public static abstract class Snapshot implements Poolable{
+        /** Local time at which this snapshot is applied. */
+        double release;
+
+        public abstract void apply();
+
+        @Override
+        public void reset(){}
+    }
+}
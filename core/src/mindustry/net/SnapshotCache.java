@@ -0,0 +1,59 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.io.*;
+import mindustry.gen.*;
+
+import java.io.*;
+
+/**
+ * Per-round cache of encoded entity sync data.
+ * Each entity is serialized at most once per sync round, no matter how many connections it is sent to;
+ * snapshots for individual players are assembled from the cached slices.
+ */
+public class SnapshotCache{
+    private final ReusableByteOutStream stream = new ReusableByteOutStream(8192);
+    private final Writes write = new Writes(new DataOutputStream(stream));
+    /** Maps entity IDs to the offset and length of their data in the stream. */
+    private final IntIntMap offsets = new IntIntMap(), lengths = new IntIntMap();
+
+    /** Discards all cached data. Must be called whenever entities may have changed, e.g. once per sync round. */
+    public void clear(){
+        stream.reset();
+        offsets.clear();
+        lengths.clear();
+    }
+
+    /**
+     * Encodes the sync data of an entity, if that hasn't happened since the last {@link #clear()}.
+     * @return the offset of the entity's data in {@link #getBytes()}.
+     */
+    public int encode(Syncc entity){
+        int id = entity.id();
+        int offset = offsets.get(id, -1);
+
+        if(offset == -1){
+            offset = stream.size();
+            entity.writeSync(write);
+            offsets.put(id, offset);
+            lengths.put(id, stream.size() - offset);
+        }
+
+        return offset;
+    }
+
+    /** @return the length of an encoded entity's data. Only valid after {@link #encode(Syncc)} has been called. */
+    public int length(Syncc entity){
+        return lengths.get(entity.id(), 0);
+    }
+
+    /** @return the backing array of all cached data. */
+    public byte[] getBytes(){
+        return stream.getBytes();
+    }
+
+    /** @return the total size of all entity data cached this round, in bytes. */
+    public int size(){
+        return stream.size();
+    }
+}
@@ -5,6 +5,9 @@ import mindustry.net.Packets.*;
 import java.io.*;
 
 public class Streamable implements Packet{
+    /** Maximum size of a single stream chunk, in bytes. */
+    public static final int chunkSize = 4096;
+
     public transient ByteArrayInputStream stream;
 
     @Override
@@ -16,24 +19,35 @@ public class Streamable implements Packet{
         public final int id;
         public final byte type;
         public final int total;
-        public final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        public final ByteArrayOutputStream stream;
+
+        private final ChunkBuffer buffer = new ChunkBuffer();
+        private boolean cancelled;
 
         public StreamBuilder(StreamBegin begin){
             id = begin.id;
             type = begin.type;
             total = begin.total;
+            stream = buffer;
         }
 
         public float progress(){
             return (float)stream.size() / total;
         }
 
-        public void add(byte[] bytes){
+        public synchronized void add(byte[] bytes){
             try{
                 stream.write(bytes);
             }catch(IOException e){
                 throw new RuntimeException(e);
             }
+            notifyAll();
+        }
+
+        /** Stops this stream. Anything blocked on reading the {@link #input()} will receive an exception. */
+        public synchronized void cancel(){
+            cancelled = true;
+            notifyAll();
         }
 
         public Streamable build(){
@@ -45,5 +59,64 @@ public class Streamable implements Packet{
         public boolean isDone(){
             return stream.size() >= total;
         }
+
+        /**
+         * @return a new input stream over the data of this stream, which can be read while chunks are still arriving.
+         * Reads block until enough data is available, so this should only be used from a separate thread.
+         */
+        public InputStream input(){
+            return new InputStream(){
+                int position;
+
+                @Override
+                public int read() throws IOException{
+                    synchronized(StreamBuilder.this){
+                        if(!await()) return -1;
+                        return buffer.bytes()[position++] & 0xff;
+                    }
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException{
+                    if(len == 0) return 0;
+
+                    synchronized(StreamBuilder.this){
+                        if(!await()) return -1;
+                        int amount = Math.min(len, buffer.size() - position);
+                        System.arraycopy(buffer.bytes(), position, b, off, amount);
+                        position += amount;
+                        return amount;
+                    }
+                }
+
+                @Override
+                public int available(){
+                    synchronized(StreamBuilder.this){
+                        return buffer.size() - position;
+                    }
+                }
+
+                /** @return false if the end of the stream was reached. */
+                boolean await() throws IOException{
+                    while(position >= buffer.size() && position < total && !cancelled){
+                        try{
+                            StreamBuilder.this.wait();
+                        }catch(InterruptedException e){
+                            throw new InterruptedIOException();
+                        }
+                    }
+
+                    if(cancelled) throw new IOException("Stream cancelled.");
+                    return position < buffer.size();
+                }
+            };
+        }
+    }
+
+    /** Exposes the backing array of a byte stream, so it can be read without copying. */
+    private static class ChunkBuffer extends ByteArrayOutputStream{
+        byte[] bytes(){
+            return buf;
+        }
     }
 }
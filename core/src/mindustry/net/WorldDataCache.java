@@ -0,0 +1,94 @@
+package mindustry.net;
+
+import arc.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import mindustry.game.EventType.*;
+import mindustry.gen.*;
+import mindustry.world.*;
+
+import java.io.*;
+
+/**
+ * Caches the map part of the world data sent to joining players, so that it is not rebuilt for every join.
+ * The terrain and building list, and the data of every region of buildings, are cached separately and uncompressed, as they do not depend on the player;
+ * they are ordered around the spawn of each player and compressed when needed, and that result is cached once for every {@link NetworkIO#worldOrigin(Player)}.
+ * <p>
+ * Changes only discard the parts they affect: tile changes discard the terrain and the region of the tile, configurations the region of the building,
+ * and block syncs the regions of the buildings they send. Block syncs only send buildings that changed since the last one, so a region cached
+ * from before one would leave joining players with outdated buildings until the next sweep. Regions whose set of buildings changed are rebuilt as well.
+ */
+public class WorldDataCache{
+    private @Nullable byte[] base;
+    private final IntMap<Region> regions = new IntMap<>();
+    /** Compressed map data, by origin. Discarded whenever any part changes. */
+    private final IntMap<byte[]> compressed = new IntMap<>();
+
+    public WorldDataCache(){
+        Events.on(WorldLoadEvent.class, e -> invalidate());
+        Events.on(ResetEvent.class, e -> invalidate());
+        Events.on(TileChangeEvent.class, e -> {
+            base = null;
+            invalidate(e.tile);
+            if(e.tile.build != null) invalidate(e.tile.build.tile);
+        });
+        Events.on(ConfigEvent.class, e -> invalidate(e.tile.tile));
+    }
+
+    /** Discards all cached data. */
+    public void invalidate(){
+        base = null;
+        regions.clear();
+        compressed.clear();
+    }
+
+    /** Discards the cached data of the region that contains a tile. Must be called for every building sent in a block sync; see {@link mindustry.core.NetServer#writeBlockSnapshots()}. */
+    public void invalidate(Tile tile){
+        regions.remove(NetworkIO.worldRegion(tile));
+        compressed.clear();
+    }
+
+    /** @return the compressed map data for a player, written with {@link NetworkIO#writeWorldMap(OutputStream, Tile, byte[], IntMap)}. */
+    public byte[] get(Player player){
+        Tile origin = NetworkIO.worldOrigin(player);
+        byte[] result = compressed.get(origin.pos());
+        if(result != null) return result;
+
+        if(base == null) base = NetworkIO.writeWorldBase();
+
+        //buildings can be added and removed without a tile change event in the region, e.g. when a multiblock is removed from an edge
+        IntMap<Seq<Building>> current = NetworkIO.worldRegions();
+        IntMap<byte[]> data = new IntMap<>();
+        for(var entry : current){
+            Region region = regions.get(entry.key);
+            if(region == null || !region.buildings.equals(entry.value)){
+                region = new Region(entry.value, NetworkIO.writeWorldRegion(entry.value));
+                regions.put(entry.key, region);
+            }
+            data.put(entry.key, region.data);
+        }
+
+        //regions without buildings left
+        IntSeq keys = regions.keys().toArray();
+        for(int i = 0; i < keys.size; i++){
+            if(!current.containsKey(keys.get(i))) regions.remove(keys.get(i));
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        NetworkIO.writeWorldMap(new FastDeflaterOutputStream(stream), origin, base, data);
+        result = stream.toByteArray();
+        compressed.put(origin.pos(), result);
+        return result;
+    }
+
+    static class Region{
+        final Seq<Building> buildings;
+        final byte[] data;
+
+        Region(Seq<Building> buildings, byte[] data){
+            this.buildings = buildings;
+            this.data = data;
+        }
+    }
+}
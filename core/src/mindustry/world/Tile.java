@@ -49,6 +49,15 @@ public class Tile implements Position, QuadTreeObject, Displayable{
         changed();
     }
 
+    /** Creates a tile with only a floor and overlay. Unlike the other constructors, this does not access the world, so it can be used on any thread. */
+    public Tile(int x, int y, Floor floor, Floor overlay){
+        this.x = (short)x;
+        this.y = (short)y;
+        this.floor = floor;
+        this.overlay = overlay;
+        this.block = Blocks.air;
+    }
+
     public Tile(int x, int y, int floor, int overlay, int wall){
         this(x, y, content.block(floor), content.block(overlay), content.block(wall));
     }
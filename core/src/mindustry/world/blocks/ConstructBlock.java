@@ -10,6 +10,7 @@ import arc.util.*;
 import arc.util.io.*;
 import mindustry.annotations.Annotations.*;
 import mindustry.content.*;
+import mindustry.core.*;
 import mindustry.entities.*;
 import mindustry.entities.units.*;
 import mindustry.game.EventType.*;
@@ -377,6 +378,12 @@ public class ConstructBlock extends Block{
             this.totalAccumulator = new float[previous.requirements.length];
         }
 
+        @Override
+        public long syncState(){
+            //progress is what clients need to see, so any change is relevant
+            return NetServer.syncHash(super.syncState(), Float.floatToIntBits(progress));
+        }
+
         @Override
         public void write(Writes write){
             super.write(write);
@@ -466,6 +466,11 @@ public class Turret extends ReloadTurret{
             ammoUseEffect.at(x - Angles.trnsx(rotation, ammoEjectBack), y - Angles.trnsy(rotation, ammoEjectBack), rotation * scl);
         }
 
+        @Override
+        public long syncState(){
+            return NetServer.syncHash(super.syncState(), totalAmmo);
+        }
+
         @Override
         public void write(Writes write){
             super.write(write);
@@ -6,6 +6,7 @@ import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
 import mindustry.content.*;
+import mindustry.core.*;
 import mindustry.entities.*;
 import mindustry.gen.*;
 import mindustry.type.*;
@@ -141,6 +142,12 @@ public class GenericCrafter extends Block{
             return cons.valid();
         }
 
+        @Override
+        public long syncState(){
+            //clients advance progress themselves, so it is only resent in quarter steps
+            return NetServer.syncHash(super.syncState(), (int)(progress * 4f));
+        }
+
         @Override
         public void write(Writes write){
             super.write(write);
@@ -5,6 +5,7 @@ import arc.math.*;
 import arc.util.*;
 import mindustry.annotations.Annotations.*;
 import mindustry.content.*;
+import mindustry.core.*;
 import mindustry.game.EventType.*;
 import mindustry.gen.*;
 import mindustry.world.*;
@@ -39,6 +40,13 @@ public class UnitBlock extends PayloadAcceptor{
             payload = null;
         }
 
+        @Override
+        public long syncState(){
+            //clients advance progress themselves, so it is only resent every second of progress
+            long result = NetServer.syncHash(super.syncState(), (int)(progress / 60f));
+            return NetServer.syncHash(result, payload == null ? -1 : payload.unit.type.id);
+        }
+
         @Override
         public void dumpPayload(){
             if(payload.dump()){
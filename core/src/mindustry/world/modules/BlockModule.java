@@ -4,6 +4,14 @@ import arc.util.io.*;
 
 /** A class that represents compartmentalized tile entity state. */
 public abstract class BlockModule{
+    /** Incremented every time the contents of this module change. */
+    protected int changes;
+
+    /** @return a counter that changes whenever the contents of this module change. Used to detect buildings that need to be synced. */
+    public int changes(){
+        return changes;
+    }
+
     public abstract void write(Writes write);
 
     public void read(Reads read, boolean legacy){
@@ -37,6 +37,7 @@ public class ItemModule extends BlockModule{
         total = other.total;
         takeRotation = other.takeRotation;
         System.arraycopy(other.items, 0, items, 0, items.length);
+        changes++;
     }
 
     public void update(boolean showFlow){
@@ -198,6 +199,7 @@ public class ItemModule extends BlockModule{
                 items[index] --;
                 total --;
                 takeRotation = index + 1;
+                changes++;
                 return content.item(index);
             }
         }
@@ -239,6 +241,7 @@ public class ItemModule extends BlockModule{
     public void set(Item item, int amount){
         total += (amount - items[item.id]);
         items[item.id] = amount;
+        changes++;
     }
 
     public void add(Iterable<ItemStack> stacks){
@@ -264,6 +267,7 @@ public class ItemModule extends BlockModule{
     private void add(int item, int amount){
         items[item] += amount;
         total += amount;
+        changes++;
         if(flow != null){
             cacheSums[item] += amount;
         }
@@ -280,6 +284,7 @@ public class ItemModule extends BlockModule{
 
         items[item.id] -= amount;
         total -= amount;
+        changes++;
     }
 
     public void remove(ItemStack[] stacks){
@@ -301,6 +306,7 @@ public class ItemModule extends BlockModule{
     public void clear(){
         Arrays.fill(items, 0);
         total = 0;
+        changes++;
     }
 
     @Override
@@ -333,6 +339,7 @@ public class ItemModule extends BlockModule{
             items[content.item(itemid).id] = itemamount;
             total += itemamount;
         }
+        changes++;
     }
 
     public interface ItemConsumer{
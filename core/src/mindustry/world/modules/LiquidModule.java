@@ -72,6 +72,7 @@ public class LiquidModule extends BlockModule{
         liquids[liquid.id] = amount;
         total = amount;
         current = liquid;
+        changes++;
     }
 
     public float currentAmount(){
@@ -85,12 +86,14 @@ public class LiquidModule extends BlockModule{
     public void clear(){
         total = 0;
         Arrays.fill(liquids, 0);
+        changes++;
     }
 
     public void add(Liquid liquid, float amount){
         liquids[liquid.id] += amount;
         total += amount;
         current = liquid;
+        changes++;
 
         if(flow != null){
             lastAdded += Math.max(amount, 0);
@@ -151,6 +154,7 @@ public class LiquidModule extends BlockModule{
             }
             this.total += amount;
         }
+        changes++;
     }
 
     public interface LiquidConsumer{
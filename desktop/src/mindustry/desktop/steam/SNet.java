@@ -135,6 +135,7 @@ public class SNet implements SteamNetworkingCallback, SteamMatchmakingCallback,
                 writeBuffer.flip();
 
                 snet.sendP2PPacket(currentServer, writeBuffer, mode == SendMode.tcp || length >= 1200 ? P2PSend.Reliable : P2PSend.UnreliableNoDelay, 0);
+                if(NetStats.enabled) net.stats.sent(object, length);
             }catch(Exception e){
                 net.showError(e);
             }
@@ -467,6 +468,7 @@ public class SNet implements SteamNetworkingCallback, SteamMatchmakingCallback,
                 writeBuffer.flip();
 
                 snet.sendP2PPacket(sid, writeBuffer, mode == SendMode.tcp || length >= 1200 ? object instanceof StreamChunk ? P2PSend.ReliableWithBuffering : P2PSend.Reliable : P2PSend.UnreliableNoDelay, 0);
+                countSent(object, length);
             }catch(Exception e){
                 Log.err(e);
                 Log.info("Error sending packet. Disconnecting invalid client!");
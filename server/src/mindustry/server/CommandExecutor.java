@@ -0,0 +1,144 @@
+package mindustry.server;
+
+import arc.func.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.CommandHandler.*;
+
+import java.util.concurrent.*;
+
+import static arc.util.Log.*;
+
+/**
+ * Runs read-only server commands on worker threads, and keeps timing statistics for every command.
+ * Commands are always dispatched on the main thread. Most of them run there completely, as they modify the game.
+ * Commands registered with {@link #background} only take a snapshot of the state they need on the main thread,
+ * and do their slow work, such as scanning files or searching player data, on a worker.
+ */
+public class CommandExecutor{
+    /** Number of threads running background commands. */
+    static final int workerThreads = 2;
+    /** Number of histogram buckets. Bucket {@code i} counts runs that took less than {@code 2^i} microseconds. */
+    static final int buckets = 24;
+
+    final CommandHandler handler;
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(workerThreads, r -> {
+        Thread thread = new Thread(r, "Command Worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ObjectMap<String, Timings> timings = new ObjectMap<>();
+
+    public CommandExecutor(CommandHandler handler){
+        this.handler = handler;
+    }
+
+    /**
+     * Registers a command that runs on a worker thread.
+     * @param snapshot called on the main thread; copies everything the command reads that the game may modify. May return null.
+     * @param runner called on a worker thread with the snapshot, which it must not modify.
+     * Apart from the snapshot, it may only read thread-safe state, such as player lookups that return copies.
+     */
+    public <T> Command background(String text, String params, String description, Func<String[], T> snapshot, Cons2<String[], T> runner){
+        return handler.register(text, params, description, args -> {
+            T data = snapshot.get(args);
+            workers.submit(() -> {
+                long start = Time.nanos();
+                try{
+                    runner.get(args, data);
+                }catch(Throwable e){
+                    err("Error running command '" + text + "'", e);
+                }
+                record(text, Time.timeSinceNanos(start), true);
+            });
+        });
+    }
+
+    public <T> Command background(String text, String description, Func<String[], T> snapshot, Cons2<String[], T> runner){
+        return background(text, "", description, snapshot, runner);
+    }
+
+    /** Records how long a command took, either on the main thread or on a worker. Thread-safe. */
+    public void record(String command, long nanos, boolean worker){
+        Timings result;
+        synchronized(timings){
+            result = timings.get(command, Timings::new);
+        }
+        (worker ? result.worker : result.main).add(nanos);
+    }
+
+    /** Logs the timing statistics of every command that was run. */
+    public void printTimings(){
+        Seq<String> names;
+        Seq<Timings> values = new Seq<>();
+        synchronized(timings){
+            names = timings.keys().toSeq().sort();
+            for(String name : names){
+                values.add(timings.get(name));
+            }
+        }
+
+        if(names.isEmpty()){
+            info("No commands have been run yet.");
+            return;
+        }
+
+        info("Command timings (main thread / worker):");
+        for(int i = 0; i < names.size; i++){
+            String name = names.get(i);
+            Timings time = values.get(i);
+            info("  &lm@&fr: @", name, time.main.summary());
+            if(time.worker.count() > 0){
+                info("    worker: @", time.worker.summary());
+            }
+        }
+    }
+
+    public void resetTimings(){
+        synchronized(timings){
+            timings.clear();
+        }
+    }
+
+    static class Timings{
+        final Histogram main = new Histogram(), worker = new Histogram();
+    }
+
+    /** Counts durations in exponential buckets, which is enough for percentiles at a glance. */
+    static class Histogram{
+        final long[] counts = new long[buckets];
+        long count, total, max;
+
+        synchronized void add(long nanos){
+            long micros = Math.max(nanos / 1000, 0);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), buckets - 1);
+            counts[bucket]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        synchronized long count(){
+            return count;
+        }
+
+        /** @return the upper bound of the bucket containing the given fraction of runs, in milliseconds. */
+        synchronized float percentile(float fraction){
+            long target = (long)Math.ceil(count * fraction), seen = 0;
+            for(int i = 0; i < buckets; i++){
+                seen += counts[i];
+                if(seen >= target) return (1L << i) / 1000f;
+            }
+            return max / 1000000f;
+        }
+
+        synchronized String summary(){
+            if(count == 0) return "not run";
+            return Strings.format("@ runs, avg @ms, p50 <@ms, p90 <@ms, p99 <@ms, max @ms",
+                count, Strings.fixed(total / (float)count / 1000000f, 2),
+                Strings.fixed(percentile(0.5f), 2), Strings.fixed(percentile(0.9f), 2), Strings.fixed(percentile(0.99f), 2),
+                Strings.fixed(max / 1000000f, 2));
+        }
+    }
+}
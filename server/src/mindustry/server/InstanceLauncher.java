@@ -0,0 +1,106 @@
+package mindustry.server;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Starts several independent servers from one console, e.g. for many small arenas.
+ * Every instance is a separate server process with its own data folder and port; nothing is shared between them,
+ * so each instance loads its own content, mods and assets, and stopping or crashing one does not affect the others.
+ * <p>
+ * Usage: {@code InstanceLauncher <count> [base port] [commands]}. Instance {@code i} stores its data in {@code instances/i/config},
+ * hosts on {@code base port + i} and runs the comma-separated startup commands. The -X options of the launcher's JVM, e.g. heap sizes, are passed on to every instance.
+ * Console commands are sent to one instance by prefixing them with its number, or to all of them with 'all'.
+ */
+public class InstanceLauncher{
+    /** System property with the name of the instance, read by {@link ServerLauncher}. */
+    static final String instanceProperty = "mindustry.instance";
+
+    public static void main(String[] args) throws Exception{
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int basePort = args.length > 1 ? Integer.parseInt(args[1]) : mindustry.Vars.port;
+        String commands = args.length > 2 ? String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : "";
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> instances = new ArrayList<>();
+        List<PrintWriter> inputs = new ArrayList<>();
+
+        for(int i = 0; i < count; i++){
+            String startup = "config port " + (basePort + i) + (commands.isEmpty() ? "" : "," + commands);
+
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            //memory and GC options; debugger agents would conflict between processes
+            for(String option : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+                if(option.startsWith("-X")) command.add(option);
+            }
+            command.add("-D" + instanceProperty + "=" + i);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ServerLauncher.class.getName());
+            command.add(startup);
+
+            //output goes straight to this console; log lines are prefixed with the instance name
+            Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+            instances.add(process);
+            inputs.add(new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true));
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> instances.forEach(Process::destroy)));
+
+        System.out.println("Started " + count + " instances. Prefix commands with an instance number or 'all'.");
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while((line = reader.readLine()) != null){
+            line = line.trim();
+            int space = line.indexOf(' ');
+            if(space == -1){
+                System.out.println("Usage: <instance/all> <command>");
+                continue;
+            }
+
+            String target = line.substring(0, space), command = line.substring(space + 1);
+            if(target.equals("all")){
+                for(int i = 0; i < instances.size(); i++){
+                    send(instances, inputs, i, command);
+                }
+            }else{
+                int index = parseIndex(target);
+                if(index < 0 || index >= instances.size()){
+                    System.out.println("No instance '" + target + "'. Instances are numbered 0 to " + (instances.size() - 1) + ".");
+                }else{
+                    send(instances, inputs, index, command);
+                }
+            }
+
+            if(instances.stream().noneMatch(Process::isAlive)){
+                System.out.println("All instances have stopped.");
+                break;
+            }
+        }
+    }
+
+    static void send(List<Process> instances, List<PrintWriter> inputs, int index, String command){
+        if(!instances.get(index).isAlive()){
+            System.out.println("[" + index + "] Not running.");
+            return;
+        }
+        inputs.get(index).println(command);
+    }
+
+    static int parseIndex(String text){
+        try{
+            return Integer.parseInt(text);
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package mindustry.server;
+
+import arc.files.*;
+import arc.util.*;
+import arc.util.io.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * Writes log lines to files on a background thread, so that logging never waits for the disk.
+ * Lines are put into a bounded queue; if the disk cannot keep up and the queue is full, further lines are dropped and counted instead of blocking.
+ * The current file is kept open. It is rotated once it exceeds a size limit or the day changes, and rotated files are compressed with gzip.
+ */
+public class LogWriter{
+    /** Maximum number of lines waiting to be written. */
+    static final int queueSize = 8192;
+    /** Maximum number of lines written at once. */
+    static final int batchSize = 512;
+
+    final Fi folder;
+    final long maxSize;
+
+    private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(queueSize);
+    private final ArrayList<String> batch = new ArrayList<>(batchSize);
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024 * 64);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Thread thread;
+
+    private final AtomicInteger dropped = new AtomicInteger();
+    private volatile boolean closed;
+    private @Nullable FileChannel channel;
+    private Fi file;
+    private int index;
+    private long size;
+    private LocalDate date;
+
+    public LogWriter(Fi folder, long maxSize){
+        this.folder = folder;
+        this.maxSize = maxSize;
+
+        thread = Threads.daemon("Log Writer", this::run);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /** Queues a line to be written. Never blocks. */
+    public void write(String line){
+        if(closed || !queue.offer(line)){
+            dropped.incrementAndGet();
+        }
+    }
+
+    /** Writes all queued lines and closes the file. Waits at most a second. */
+    public void close(){
+        if(closed) return;
+        closed = true;
+        try{
+            thread.join(1000);
+        }catch(InterruptedException ignored){
+        }
+    }
+
+    void run(){
+        try{
+            open(nextIndex());
+
+            while(!closed || !queue.isEmpty()){
+                //the channel is closed when a thread writing to it is interrupted, so this polls instead of waiting indefinitely
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                int lost = dropped.getAndSet(0);
+                if(lost > 0){
+                    batch.add("[" + lost + " log lines were dropped, as the disk could not keep up]");
+                }
+
+                if(size >= maxSize || !LocalDate.now().equals(date)){
+                    rotate();
+                }
+
+                for(String line : batch){
+                    append(line);
+                }
+                flushBuffer();
+                batch.clear();
+            }
+        }catch(Throwable e){
+            //this still reaches the console; the line for the file is queued, and dropped once the queue is full
+            Log.err("Log writer stopped", e);
+        }finally{
+            closeChannel();
+        }
+    }
+
+    /** @return the index of the file to write to, which is the last one if it is not full yet. */
+    int nextIndex(){
+        int last = -1;
+        for(Fi child : folder.list()){
+            String name = child.name();
+            if(!name.startsWith("log-")) continue;
+
+            int end = name.indexOf('.');
+            int number = Strings.parseInt(end == -1 ? "" : name.substring(4, end), -1);
+            last = Math.max(last, number);
+        }
+
+        if(last == -1) return 0;
+        Fi current = folder.child("log-" + last + ".txt");
+        return current.exists() && current.length() < maxSize ? last : last + 1;
+    }
+
+    void open(int index) throws IOException{
+        folder.mkdirs();
+        this.index = index;
+        file = folder.child("log-" + index + ".txt");
+        channel = FileChannel.open(file.file().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        date = LocalDate.now();
+    }
+
+    void rotate() throws IOException{
+        append("[End of log file. Date: " + LocalDateTime.now() + "]");
+        flushBuffer();
+        closeChannel();
+
+        Fi old = file;
+        open(index + 1);
+        compress(old);
+    }
+
+    /** Replaces a finished log file with a gzip-compressed copy. */
+    static void compress(Fi file){
+        Fi target = file.sibling(file.name() + ".gz");
+        try(InputStream in = file.read(8192); OutputStream out = new GZIPOutputStream(target.write(false, 8192))){
+            Streams.copy(in, out);
+        }catch(IOException e){
+            Log.err("Failed to compress log file " + file.name(), e);
+            target.delete();
+            return;
+        }
+        file.delete();
+    }
+
+    void append(String line) throws IOException{
+        CharBuffer chars = CharBuffer.wrap(line + "\n");
+        while(true){
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if(result.isOverflow()){
+                flushBuffer();
+            }else{
+                break;
+            }
+        }
+        encoder.reset();
+    }
+
+    void flushBuffer() throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            size += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    void closeChannel(){
+        if(channel != null){
+            try{
+                channel.close();
+            }catch(IOException ignored){
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package mindustry.server;
+
+import arc.*;
+import arc.func.*;
+import arc.graphics.*;
+import arc.math.*;
+import arc.net.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+import arc.util.pooling.*;
+import arc.util.serialization.*;
+import mindustry.core.*;
+import mindustry.gen.*;
+import mindustry.io.*;
+import mindustry.net.*;
+import mindustry.net.Administration.*;
+import mindustry.net.ArcNetProvider.*;
+import mindustry.net.Net.*;
+import mindustry.net.Packets.*;
+import mindustry.net.Streamable.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import static arc.util.Log.*;
+import static mindustry.Vars.*;
+
+/**
+ * Relays the game of another server to spectators, without simulating it.
+ * The relay joins the upstream server as a single player that can see the whole map, and rebroadcasts the world data
+ * and every packet it receives to its own connections as-is. Its snapshots are never acknowledged, so the upstream server sends them
+ * without delta compression, and any viewer can apply them regardless of when it joined.
+ * <p>
+ * Viewers that join later receive the world data the relay received, followed by all reliable calls since then.
+ * Packets sent by viewers are ignored, and all viewers share the player of the relay.
+ * The relay reconnects whenever the upstream connection is lost, unless it was kicked for a reason that would apply again, e.g. a ban.
+ */
+public class RelayServer implements ApplicationListener{
+    /** Time between client snapshots sent upstream, in milliseconds. */
+    static final long snapshotSpacing = 250;
+    /** Delay before reconnecting after the upstream connection was lost, in milliseconds. */
+    static final long reconnectDelay = 5000;
+    /** Size of the view sent upstream. Large enough to cover any map, so all entities are synced. */
+    static final float viewSize = 1000000f;
+    /** Kick reasons that would apply again after reconnecting, so the relay stops instead. */
+    static final EnumSet<KickReason> finalKicks = EnumSet.of(KickReason.kick, KickReason.banned, KickReason.vote, KickReason.recentKick,
+        KickReason.clientOutdated, KickReason.serverOutdated, KickReason.typeMismatch, KickReason.customClient, KickReason.whitelist);
+
+    public final String host;
+    public final int port;
+
+    private final Client client = new Client(8192, 8192, new RelaySerializer());
+    /** Used to encode the calls of the relay player. Points at the upstream connection instead of the hosted server. */
+    private final Net upstreamCalls = new Net(new UpstreamProvider());
+    private final Seq<NetConnection> viewers = new Seq<>(), waiting = new Seq<>();
+    /** Reliable calls since the world was received, sent to viewers that join later. */
+    private final Seq<InvokePacket> log = new Seq<>();
+
+    private @Nullable StreamBuilder worldStream;
+    private @Nullable byte[] worldData;
+    private boolean connected, confirmed, stopped;
+    private int logBytes, snapshotID, kickID, kickReasonID;
+    private long lastSnapshot, reconnectTime;
+
+    public RelayServer(String host, int port){
+        this.host = host;
+        this.port = port;
+
+        upstreamCalls.setClientConnected();
+
+        client.addListener(new NetListener(){
+            @Override
+            public void connected(Connection connection){
+                Core.app.post(() -> upstreamConnected());
+            }
+
+            @Override
+            public void disconnected(Connection connection, DcReason reason){
+                Core.app.post(() -> upstreamDisconnected(reason.toString()));
+            }
+
+            @Override
+            public void received(Connection connection, Object object){
+                if(object instanceof FrameworkMessage) return;
+                Core.app.post(() -> upstreamReceived(object));
+            }
+        });
+
+        Threads.daemon("Relay Client", () -> {
+            try{
+                client.run();
+            }catch(Exception e){
+                err("Relay client stopped", e);
+            }
+        });
+    }
+
+    /** Opens the server for viewers and connects to the upstream server. */
+    public void start() throws IOException{
+        net.handleServer(ConnectPacket.class, this::viewerConnected);
+        net.handleServer(Disconnect.class, (con, packet) -> {
+            viewers.remove(con);
+            waiting.remove(con);
+        });
+        //viewers cannot interact with the game
+        net.handleServer(InvokePacket.class, (con, packet) -> {});
+        net.handleServer(InvokeBundle.class, (con, packet) -> {});
+
+        net.host(Config.port.num());
+        info("Opened a relay on port @.", Config.port.num());
+
+        //kicks are identified by the IDs of the generated calls, which are only known by sending them
+        kickID = callID(con -> Call.kick(con, ""));
+        kickReasonID = callID(con -> Call.kick(con, KickReason.kick));
+
+        connect();
+    }
+
+    @Override
+    public void update(){
+        long now = Time.millis();
+
+        if(!connected && !stopped && reconnectTime != 0 && now >= reconnectTime){
+            reconnectTime = 0;
+            connect();
+        }
+
+        if(confirmed && now - lastSnapshot >= snapshotSpacing){
+            lastSnapshot = now;
+            //a dead player without a unit; the acknowledged ID of -1 makes the server send every entity in full
+            sendUpstream(() -> Call.clientSnapshot(snapshotID++, -1, 0, -1, true, 0f, 0f, 0f, 0f, 0f, 0f, 0f, 0f,
+                null, false, false, false, false, null, 0f, 0f, viewSize, viewSize));
+        }
+    }
+
+    /** @return the number of viewers that are watching. */
+    public int viewers(){
+        return viewers.size;
+    }
+
+    /** @return the number of viewers that are waiting for world data. */
+    public int waiting(){
+        return waiting.size;
+    }
+
+    /** @return whether the relay was kicked for good and will not reconnect. */
+    public boolean isStopped(){
+        return stopped;
+    }
+
+    public boolean isConnected(){
+        return confirmed;
+    }
+
+    void connect(){
+        info("Relay connecting to @:@...", host, port);
+
+        Threads.daemon(() -> {
+            try{
+                client.connect(5000, host, port, port);
+            }catch(IOException e){
+                Core.app.post(() -> upstreamDisconnected(Strings.getSimpleMessage(e)));
+            }
+        });
+    }
+
+    void upstreamConnected(){
+        connected = true;
+
+        ConnectPacket packet = new ConnectPacket();
+        packet.name = Config.name.string();
+        packet.locale = "en";
+        packet.versionType = Version.type;
+        packet.mods = mods.getModStrings();
+        packet.mobile = false;
+        packet.color = Color.white.rgba();
+        packet.uuid = randomID();
+        packet.usid = randomID();
+        client.sendTCP(packet);
+    }
+
+    void upstreamDisconnected(String reason){
+        if(stopped){
+            connected = confirmed = false;
+            resync();
+            //nothing will be relayed anymore
+            for(NetConnection con : waiting){
+                con.kick(KickReason.serverClose);
+            }
+            waiting.clear();
+            return;
+        }
+        if(reconnectTime != 0) return;
+
+        if(connected || confirmed){
+            warn("Relay lost connection to the upstream server: @. Reconnecting...", reason);
+        }else{
+            warn("Relay failed to connect to the upstream server: @. Retrying...", reason);
+        }
+
+        connected = confirmed = false;
+        reconnectTime = Time.millis() + reconnectDelay;
+        resync();
+    }
+
+    void upstreamReceived(Object object){
+        if(object instanceof StreamBegin begin){
+            if(begin.type == Registrator.getID(WorldStream.class)){
+                worldStream = new StreamBuilder(begin);
+                //the upstream server changed maps or the relay reconnected; the old world and calls are no longer valid
+                resync();
+            }
+        }else if(object instanceof StreamChunk chunk){
+            if(worldStream != null && worldStream.id == chunk.id){
+                worldStream.add(chunk.data);
+                if(worldStream.isDone()){
+                    worldReceived(worldStream.stream.toByteArray());
+                    worldStream = null;
+                }
+            }
+        }else if(object instanceof InvokePacket packet){
+            //kicks are meant for the relay; viewers wait for the reconnect instead
+            if(packet.type == kickID || packet.type == kickReasonID){
+                kicked(packet);
+            }else{
+                forward(packet);
+            }
+            packet.reset();
+        }else if(object instanceof InvokeBundle bundle){
+            //bundles only contain unreliable calls, which are not logged
+            if(worldData != null){
+                for(NetConnection con : viewers){
+                    con.send(bundle, SendMode.udp);
+                }
+            }
+            bundle.reset();
+        }
+    }
+
+    void kicked(InvokePacket packet){
+        Reads read = new Reads(new DataInputStream(new ByteArrayInputStream(packet.bytes, 0, packet.length)));
+        KickReason reason = packet.type == kickReasonID ? TypeIO.readKick(read) : null;
+        String message = reason == null ? TypeIO.readString(read) : reason.name();
+
+        //custom messages are sent by admins and plugins on purpose, so they are treated like a kick
+        if(reason == null || finalKicks.contains(reason)){
+            err("Relay was kicked from the upstream server: @. Not reconnecting.", message);
+            stopped = true;
+        }else{
+            warn("Relay was kicked from the upstream server: @.", message);
+        }
+    }
+
+    void worldReceived(byte[] data){
+        worldData = data;
+        info("Relay received world data (@ KB).", data.length / 1024);
+
+        for(NetConnection con : waiting){
+            sendWorld(con);
+        }
+        waiting.clear();
+
+        if(!confirmed){
+            sendUpstream(Call::connectConfirm);
+            confirmed = true;
+        }
+    }
+
+    void forward(InvokePacket packet){
+        //calls sent before the world has arrived are part of it
+        if(worldData == null) return;
+
+        boolean unreliable = (packet.type & 0xff) < Call.methodUnreliable.length && Call.methodUnreliable[packet.type & 0xff];
+        SendMode mode = unreliable ? SendMode.udp : SendMode.tcp;
+
+        for(NetConnection con : viewers){
+            con.send(packet, mode);
+        }
+
+        if(!unreliable){
+            log.add(packet.copy());
+            logBytes += packet.length;
+
+            if(logBytes > Config.relayLogLimit.num() * 1024){
+                info("Relay call log is full; reconnecting for fresh world data.");
+                client.close();
+            }
+        }
+    }
+
+    /** Discards the current world and makes all viewers wait for the next one. */
+    void resync(){
+        worldData = null;
+        //the copies own pooled buffers
+        for(InvokePacket packet : log){
+            Pools.free(packet);
+        }
+        log.clear();
+        logBytes = 0;
+
+        for(NetConnection con : viewers){
+            Call.worldDataBegin(con);
+            waiting.add(con);
+        }
+        viewers.clear();
+    }
+
+    void sendWorld(NetConnection con){
+        WorldStream stream = new WorldStream();
+        stream.stream = new ByteArrayInputStream(worldData);
+        con.sendStream(stream);
+
+        for(InvokePacket packet : log){
+            con.send(packet, SendMode.tcp);
+        }
+
+        viewers.add(con);
+    }
+
+    void viewerConnected(NetConnection con, ConnectPacket packet){
+        if(con.kicked) return;
+
+        if(con.hasBegunConnecting){
+            con.kick(KickReason.idInUse);
+            return;
+        }
+
+        if(stopped){
+            con.kick(KickReason.serverClose);
+            return;
+        }
+        con.hasBegunConnecting = true;
+        con.connectTime = Time.millis();
+
+        if(packet.uuid == null || packet.usid == null){
+            con.kick(KickReason.idInUse);
+            return;
+        }
+
+        if(netServer.admins.isIPBanned(con.address) || netServer.admins.isSubnetBanned(con.address) || netServer.admins.isIDBanned(packet.uuid)){
+            con.kick(KickReason.banned);
+            return;
+        }
+
+        int limit = netServer.admins.getPlayerLimit();
+        if(limit > 0 && viewers.size + waiting.size >= limit){
+            con.kick(KickReason.playerLimit);
+            return;
+        }
+
+        if(packet.versionType == null || !packet.versionType.equals(Version.type)){
+            con.kick(KickReason.typeMismatch);
+            return;
+        }
+
+        if(packet.version != Version.build && Version.build != -1 && packet.version != -1){
+            con.kick(packet.version > Version.build ? KickReason.serverOutdated : KickReason.clientOutdated);
+            return;
+        }
+
+        if(packet.protocol != Version.protocol){
+            con.kick(packet.protocol > Version.protocol ? KickReason.serverOutdated : KickReason.clientOutdated);
+            return;
+        }
+
+        con.uuid = packet.uuid;
+        con.usid = packet.usid;
+        con.mobile = packet.mobile;
+        con.hasConnected = true;
+        info("&lm[@] &y@ started watching.", packet.uuid, packet.name);
+
+        if(worldData != null){
+            sendWorld(con);
+        }else{
+            //the world is sent once it has been received
+            Call.worldDataBegin(con);
+            waiting.add(con);
+        }
+    }
+
+    /** Runs a generated call, sending it to the upstream server as the relay player. */
+    void sendUpstream(Runnable call){
+        Net previous = net;
+        net = upstreamCalls;
+        try{
+            call.run();
+        }finally{
+            net = previous;
+        }
+    }
+
+    /** @return the packet ID used by a generated call to a single connection. */
+    static int callID(Cons<NetConnection> call){
+        int[] result = {-1};
+        call.get(new NetConnection("relay"){
+            @Override
+            public void send(Object object, SendMode mode){
+                if(object instanceof InvokePacket packet) result[0] = packet.type;
+            }
+
+            @Override
+            public void close(){
+
+            }
+        });
+        return result[0];
+    }
+
+    static String randomID(){
+        byte[] bytes = new byte[8];
+        Mathf.rand.nextBytes(bytes);
+        return new String(Base64Coder.encode(bytes));
+    }
+
+    /** Sends client calls straight to the upstream connection. */
+    class UpstreamProvider implements NetProvider{
+
+        @Override
+        public void sendClient(Object object, SendMode mode){
+            if(!client.isConnected()) return;
+
+            if(mode == SendMode.tcp){
+                client.sendTCP(object);
+            }else{
+                client.sendUDP(object);
+            }
+        }
+
+        @Override
+        public void connectClient(String ip, int port, Runnable success){
+
+        }
+
+        @Override
+        public void disconnectClient(){
+
+        }
+
+        @Override
+        public void discoverServers(Cons<Host> callback, Runnable done){
+
+        }
+
+        @Override
+        public void pingHost(String address, int port, Cons<Host> valid, Cons<Exception> failed){
+
+        }
+
+        @Override
+        public void hostServer(int port){
+
+        }
+
+        @Override
+        public Iterable<? extends NetConnection> getConnections(){
+            return Seq.with();
+        }
+
+        @Override
+        public void closeServer(){
+
+        }
+    }
+
+    /** Creates packets without pooling, as upstream packets are read on a separate thread from the hosted server. */
+    static class RelaySerializer extends PacketSerializer{
+
+        @Override
+        public Object read(ByteBuffer buffer){
+            byte id = buffer.get();
+            if(id == -2) return readFramework(buffer);
+
+            Packet packet = (Packet)Registrator.getByID(id).constructor.get();
+            packet.read(buffer);
+            return packet;
+        }
+    }
+}
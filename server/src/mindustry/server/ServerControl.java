@@ -2,6 +2,7 @@ package mindustry.server;
 
 import arc.*;
 import arc.files.*;
+import arc.math.*;
 import arc.struct.*;
 import arc.util.*;
 import arc.util.Timer;
@@ -15,6 +16,7 @@ import mindustry.game.EventType.*;
 import mindustry.game.*;
 import mindustry.gen.*;
 import mindustry.io.*;
+import mindustry.io.SaveIO.*;
 import mindustry.maps.Map;
 import mindustry.maps.*;
 import mindustry.maps.Maps.*;
@@ -29,6 +31,7 @@ import java.net.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static arc.util.ColorCodes.*;
 import static arc.util.Log.*;
@@ -36,6 +39,10 @@ import static mindustry.Vars.*;
 
 public class ServerControl implements ApplicationListener{
     private static final int roundExtraTime = 12;
+    /** Seconds between checks of whether the next map has been read, if it takes longer than the game over screen. */
+    private static final float readyPollTime = 0.1f;
+    /** Longest time that replay playback runs for in a frame, in milliseconds. */
+    private static final long replayStepTime = 50;
     private static final int maxLogLength = 1024 * 512;
 
     protected static String[] tags = {"&lc&fb[D]&fr", "&lb&fb[I]&fr", "&ly&fb[W]&fr", "&lr&fb[E]", ""};
@@ -43,14 +50,28 @@ public class ServerControl implements ApplicationListener{
         autosaveDate = DateTimeFormatter.ofPattern("MM-dd-yyyy_HH-mm-ss");
 
     public final CommandHandler handler = new CommandHandler("");
+    /** Runs read-only commands on worker threads and measures how long every command takes. */
+    public final CommandExecutor commands = new CommandExecutor(handler);
     public final Fi logFolder = Core.settings.getDataDirectory().child("logs/");
+    public final Fi replayFolder = Core.settings.getDataDirectory().child("replays/");
 
-    private Fi currentLogFile;
+    private @Nullable LogWriter logWriter;
     private boolean inExtraRound;
     private Task lastTask;
     private Gamemode lastMode;
     private @Nullable Map nextMapOverride;
+    private @Nullable RelayServer relay;
+    /** Replay that is being played back by the 'replay' command. */
+    private @Nullable ReplayRun replay;
+    /** Records changes since the last autosave, if journaling is enabled. */
+    private @Nullable SaveJournal journal;
     private Interval autosaveCount = new Interval();
+    private Interval netStatsCount = new Interval();
+    /** Time taken by the last frames, from the first to the last listener, in milliseconds. */
+    private WindowedMean tickTime = new WindowedMean(60);
+    /** Longest frame since the last status report, in milliseconds. */
+    private float worstTick;
+    private long tickStart;
 
     private Thread socketThread;
     private ServerSocket serverSocket;
@@ -79,7 +100,8 @@ public class ServerControl implements ApplicationListener{
         }
 
         logger = (level1, text) -> {
-            String result = bold + lightBlack + "[" + dateTime.format(LocalDateTime.now()) + "] " + reset + format(tags[level1.ordinal()] + " " + text + "&fr");
+            String result = bold + lightBlack + "[" + dateTime.format(LocalDateTime.now()) + "] " + (ServerLauncher.instanceName == null ? "" : "[" + ServerLauncher.instanceName + "] ") +
+                reset + format(tags[level1.ordinal()] + " " + text + "&fr");
             System.out.println(result);
 
             if(Config.logging.bool()){
@@ -183,7 +205,9 @@ public class ServerControl implements ApplicationListener{
 
                 info("Selected next map to be @.", map.name());
 
-                play(true, () -> world.loadMap(map, map.applyRules(lastMode)));
+                //read and decompress the map while the game over screen is shown, so only decoding happens on the main thread
+                Future<PreloadedSave> preload = SaveIO.preload(map.file);
+                play(true, preload, () -> world.loadMap(map, map.applyRules(lastMode), preloaded(map, preload)));
             }else{
                 netServer.kickAll(KickReason.gameover);
                 state.set(State.menu);
@@ -194,6 +218,23 @@ public class ServerControl implements ApplicationListener{
         //reset autosave on world load
         Events.on(WorldLoadEvent.class, e -> {
             autosaveCount.reset(0, Config.autosaveSpacing.num() * 60);
+            //the journal belongs to the previous game
+            closeJournal();
+        });
+
+        //record changes between autosaves to the journal of the last one
+        Events.on(TileChangeEvent.class, e -> {
+            if(journal != null) journal.tileChanged(e.tile);
+        });
+
+        Events.on(ConfigEvent.class, e -> {
+            if(journal != null) journal.configured(e.tile, e.value);
+        });
+
+        Events.run(Trigger.update, () -> {
+            if(journal != null && state.isPlaying()){
+                journal.update(Config.journalInterval.num() * 1000L);
+            }
         });
 
         //autosave periodically
@@ -206,13 +247,14 @@ public class ServerControl implements ApplicationListener{
                     String mapName = (state.map.file == null ? "unknown" : state.map.file.nameWithoutExtension()).replace(" ", "_");
                     String date = autosaveDate.format(LocalDateTime.now());
 
-                    Seq<Fi> autosaves = saveDirectory.findAll(f -> f.name().startsWith("auto_"));
+                    Seq<Fi> autosaves = saveDirectory.findAll(f -> f.name().startsWith("auto_") && f.extension().equals(saveExtension) && !f.name().endsWith("-backup." + saveExtension));
                     autosaves.sort(f -> -f.lastModified());
 
                     //delete older saves
                     if(autosaves.size >= max){
                         for(int i = max - 1; i < autosaves.size; i++){
                             autosaves.get(i).delete();
+                            SaveIO.journalFileFor(autosaves.get(i)).delete();
                         }
                     }
 
@@ -221,8 +263,27 @@ public class ServerControl implements ApplicationListener{
                     info("Autosaving...");
 
                     try{
-                        SaveIO.save(file);
-                        info("Autosave completed.");
+                        //the world is serialized synchronously here, which blocks the server for the time logged below; compression and writing happen in the background
+                        Time.mark();
+                        SaveIO.saveAsync(file, null, e -> {
+                            if(e == null){
+                                info("Autosave completed.");
+                            }else{
+                                err("Autosave failed.", e);
+                                //the journal has nothing to apply to
+                                if(journal != null && journal.file.equals(SaveIO.journalFileFor(file))){
+                                    closeJournal();
+                                    SaveIO.journalFileFor(file).delete();
+                                }
+                            }
+                        });
+                        debug("Autosave snapshot took @ms.", Time.elapsed());
+
+                        //changes from now on are relative to the state that was just captured
+                        closeJournal();
+                        if(Config.journalInterval.num() > 0){
+                            journal = new SaveJournal(file);
+                        }
                     }catch(Throwable e){
                         err("Autosave failed.", e);
                     }
@@ -230,6 +291,18 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
+        //write network stats periodically
+        Events.run(Trigger.update, () -> {
+            int interval = Config.netStatsInterval.num();
+            if(interval > 0 && netStatsCount.get(interval * 60)){
+                try{
+                    Core.settings.getDataDirectory().child("netstats.json").writeString(netStatsJson());
+                }catch(Throwable e){
+                    err("Failed to write network stats.", e);
+                }
+            }
+        });
+
         Events.run(Trigger.socketConfigChanged, () -> {
             toggleSocket(false);
             toggleSocket(Config.socketInput.bool());
@@ -279,6 +352,12 @@ public class ServerControl implements ApplicationListener{
 
 
         handler.register("stop", "Stop hosting the server.", arg -> {
+            if(replay != null){
+                Core.app.post(this::closeReplay);
+                info("Stopped replay.");
+                return;
+            }
+
             net.closeServer();
             if(lastTask != null) lastTask.cancel();
             state.set(State.menu);
@@ -291,6 +370,16 @@ public class ServerControl implements ApplicationListener{
                 return;
             }
 
+            if(replay != null){
+                err("Playing back a replay. Type 'stop' to cancel it first.");
+                return;
+            }
+
+            if(relay != null){
+                err("Relaying another server. Restart the server to host a game.");
+                return;
+            }
+
             if(lastTask != null) lastTask.cancel();
 
             Gamemode preset = Gamemode.survival;
@@ -335,10 +424,10 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
-        handler.register("maps", "Display all available maps.", arg -> {
-            if(!maps.all().isEmpty()){
+        commands.background("maps", "Display all available maps.", arg -> maps.all().copy(), (arg, all) -> {
+            if(!all.isEmpty()){
                 info("Maps:");
-                for(Map map : maps.all()){
+                for(Map map : all){
                     if(map.custom){
                         info("  @ (@): &fiCustom / @x@", map.name().replace(' ', '_'), map.file.name(), map.width, map.height);
                     }else{
@@ -375,6 +464,8 @@ public class ServerControl implements ApplicationListener{
                 }
 
                 info("  @ FPS, @ MB used.", Core.graphics.getFramesPerSecond(), Core.app.getJavaHeap() / 1024 / 1024);
+                info("  Tick time: @ms average, @ms worst.", Strings.fixed(tickTime.mean(), 2), Strings.fixed(worstTick, 2));
+                worstTick = 0f;
 
                 if(Groups.player.size() > 0){
                     info("  Players: @", Groups.player.size());
@@ -483,6 +574,7 @@ public class ServerControl implements ApplicationListener{
                 }
 
                 Core.settings.put("globalrules", base.toString());
+                if(journal != null) journal.rulesChanged();
                 Call.setRules(state.rules);
             }
         });
@@ -701,7 +793,7 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
-        handler.register("bans", "List all banned IPs and IDs.", arg -> {
+        commands.background("bans", "List all banned IPs and IDs.", arg -> netServer.admins.getBannedIPs().copy(), (arg, ipbans) -> {
             Seq<PlayerInfo> bans = netServer.admins.getBanned();
 
             if(bans.size == 0){
@@ -713,8 +805,6 @@ public class ServerControl implements ApplicationListener{
                 }
             }
 
-            Seq<String> ipbans = netServer.admins.getBannedIPs();
-
             if(ipbans.size == 0){
                 info("No IP-banned players have been found.");
             }else{
@@ -743,6 +833,7 @@ public class ServerControl implements ApplicationListener{
 
             if(info != null){
                 info.lastKicked = 0;
+                netServer.admins.updateInfo(info);
                 info("Pardoned player: @", info.lastName);
             }else{
                 err("That ID can't be found.");
@@ -784,7 +875,7 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
-        handler.register("admins", "List all admins.", arg -> {
+        commands.background("admins", "List all admins.", arg -> null, (arg, ignored) -> {
             Seq<PlayerInfo> admins = netServer.admins.getAdmins();
 
             if(admins.size == 0){
@@ -824,6 +915,11 @@ public class ServerControl implements ApplicationListener{
                 return;
             }
 
+            if(replay != null){
+                err("Playing back a replay. Type 'stop' to cancel it first.");
+                return;
+            }
+
             Fi file = saveDirectory.child(arg[0] + "." + saveExtension);
 
             if(!SaveIO.isSaveValid(file)){
@@ -844,6 +940,112 @@ public class ServerControl implements ApplicationListener{
             });
         });
 
+        handler.register("record", "<start/stop>", "Record the current match into a replay file. Only packets sent to all players are recorded, not messages to single players.", arg -> {
+            if(arg[0].equals("start")){
+                if(!state.is(State.playing) || !net.server()){
+                    err("Not hosting. Host a game first.");
+                    return;
+                }
+
+                if(net.recorder != null){
+                    err("Already recording to @.", net.recorder.file.name());
+                    return;
+                }
+
+                String mapName = (state.map.file == null ? "unknown" : state.map.file.nameWithoutExtension()).replace(" ", "_");
+                Fi file = replayFolder.child("replay_" + mapName + "_" + autosaveDate.format(LocalDateTime.now()) + ".mrep");
+
+                Core.app.post(() -> {
+                    try{
+                        net.recorder = new ReplayRecorder(file);
+                        info("Recording to @.", file.name());
+                    }catch(Throwable e){
+                        err("Failed to start recording.", e);
+                    }
+                });
+            }else if(arg[0].equals("stop")){
+                ReplayRecorder recorder = net.recorder;
+                if(recorder == null){
+                    err("Not recording.");
+                    return;
+                }
+
+                net.recorder = null;
+                recorder.close();
+                info("Replay saved to @ (@ seconds, @ KB).", recorder.file.name(), recorder.time() / 1000, recorder.file.length() / 1024);
+            }else{
+                err("Invalid argument. Use 'start' or 'stop'.");
+            }
+        });
+
+        handler.register("replay", "<file> [seconds]", "Play back a replay as fast as possible and print an analysis. Optionally starts at a point in time.", arg -> {
+            if(state.is(State.playing)){
+                err("Already hosting. Type 'stop' to stop hosting first.");
+                return;
+            }
+
+            if(replay != null){
+                err("Already playing back a replay. Type 'stop' to cancel it.");
+                return;
+            }
+
+            Fi file = replayFolder.child(arg[0].endsWith(".mrep") ? arg[0] : arg[0] + ".mrep");
+            if(!file.exists()){
+                err("No replay named '@' found.", file.name());
+                return;
+            }
+
+            int seconds = arg.length > 1 ? Strings.parseInt(arg[1], -1) : 0;
+            if(seconds < 0){
+                err("Invalid start time: '@'.", arg[1]);
+                return;
+            }
+
+            Core.app.post(() -> {
+                try{
+                    replay = new ReplayRun(new ReplayPlayer(file), seconds);
+                    long start = Time.millis();
+                    replay.player.seek(seconds * 1000L);
+                    replay.seekTime = Time.timeSinceMillis(start);
+                    info("Playing back @...", file.name());
+                    stepReplay(replay);
+                }catch(Throwable e){
+                    err("Failed to play replay.", e);
+                    closeReplay();
+                }
+            });
+        });
+
+        handler.register("relay", "<host> [port]", "Relay the game of another server to spectators, without hosting a game. Lasts until restart.", arg -> {
+            if(relay != null){
+                info("Relaying @:@ to @ viewers (@ waiting for world data). Upstream @.", relay.host, relay.port, relay.viewers(), relay.waiting(),
+                    relay.isConnected() ? "connected" : "disconnected");
+                return;
+            }
+
+            if(state.is(State.playing) || net.server()){
+                err("Already hosting. Type 'stop' to stop hosting first.");
+                return;
+            }
+
+            int relayPort = arg.length > 1 ? Strings.parseInt(arg[1], -1) : port;
+            if(relayPort <= 0){
+                err("Invalid port: '@'.", arg[1]);
+                return;
+            }
+
+            Core.app.post(() -> {
+                try{
+                    RelayServer server = new RelayServer(arg[0], relayPort);
+                    server.start();
+                    Core.app.addListener(server);
+                    relay = server;
+                }catch(Throwable e){
+                    err("Failed to start relay.", e);
+                }
+            });
+        });
+
         handler.register("save", "<slot>", "Save game state to a slot.", arg -> {
             if(!state.is(State.playing)){
                 err("Not hosting. Host a game first.");
@@ -858,13 +1060,21 @@ public class ServerControl implements ApplicationListener{
             });
         });
 
-        handler.register("saves", "List all saves in the save directory.", arg -> {
+        commands.background("saves", "List all saves in the save directory.", arg -> null, (arg, ignored) -> {
             info("Save files: ");
             for(Fi file : saveDirectory.list()){
                 if(file.extension().equals(saveExtension)){
-                    info("| @", file.nameWithoutExtension());
+                    //read from the index, so this does not decompress every save
+                    SaveIndex.Entry entry = SaveIndex.get(file);
+                    if(entry == null){
+                        info("| @ &fi(invalid)", file.nameWithoutExtension());
+                    }else{
+                        StringMap tags = entry.tags();
+                        info("| @ &fi(@, wave @, @ KB)", file.nameWithoutExtension(), tags.get("mapname", "unknown"), tags.get("wave", "?"), entry.size / 1024);
+                    }
                 }
             }
+            SaveIndex.flush();
         });
 
         handler.register("gameover", "Force a game over.", arg -> {
@@ -878,7 +1088,7 @@ public class ServerControl implements ApplicationListener{
             Events.fire(new GameOverEvent(Team.crux));
         });
 
-        handler.register("info", "<IP/UUID/name...>", "Find player info(s). Can optionally check for all names or IPs a player has had.", arg -> {
+        commands.background("info", "<IP/UUID/name...>", "Find player info(s). Can optionally check for all names or IPs a player has had.", arg -> null, (arg, ignored) -> {
             ObjectSet<PlayerInfo> infos = netServer.admins.findByName(arg[0]);
 
             if(infos.size > 0){
@@ -898,7 +1108,7 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
-        handler.register("search", "<name...>", "Search players who have used part of a name.", arg -> {
+        commands.background("search", "<name...>", "Search players who have used part of a name.", arg -> null, (arg, ignored) -> {
             ObjectSet<PlayerInfo> infos = netServer.admins.searchNames(arg[0]);
 
             if(infos.size > 0){
@@ -913,6 +1123,50 @@ public class ServerControl implements ApplicationListener{
             }
         });
 
+        handler.register("netstats", "[player/reset...]", "Display network traffic per packet type, for the whole server or a single player.", arg -> {
+            if(arg.length > 0 && arg[0].equals("reset")){
+                net.stats.reset();
+                for(NetConnection con : net.getConnections()){
+                    con.stats.reset();
+                }
+                info("Network stats reset.");
+                return;
+            }
+
+            NetStats stats = net.stats;
+            if(arg.length > 0){
+                Player target = Groups.player.find(p -> p.name().equals(arg[0]));
+                if(target == null || target.con == null){
+                    err("Nobody with that name could be found.");
+                    return;
+                }
+                stats = target.con.stats;
+            }
+
+            float seconds = Math.max(stats.elapsed(), 1) / 1000f;
+            info("Network stats over the last @ seconds:", (int)seconds);
+            for(boolean outgoing : new boolean[]{true, false}){
+                Seq<NetStats.Entry> entries = stats.entries(outgoing);
+                info("&lc@ (@ types):", outgoing ? "Sent" : "Received", entries.size);
+
+                for(NetStats.Entry e : entries){
+                    info("  &lb@&fr: @ packets, @ KB (@ KB/s)@, @ us avg",
+                        e.name, e.count, e.bytes / 1024, Strings.fixed(e.bytes / 1024f / seconds, 2),
+                        e.rawBytes > 0 ? ", compression " + Strings.fixed((float)e.compressedBytes / e.rawBytes * 100f, 1) + "%" : "",
+                        e.count == 0 ? 0 : e.nanos / e.count / 1000);
+                }
+            }
+        });
+
+        handler.register("commandstats", "[reset]", "Display how long each command took to run, on the main thread and on workers.", arg -> {
+            if(arg.length > 0 && arg[0].equals("reset")){
+                commands.resetTimings();
+                info("Command timings reset.");
+            }else{
+                commands.printTimings();
+            }
+        });
+
         handler.register("gc", "Trigger a garbage collection. Testing only.", arg -> {
             int pre = (int)(Core.app.getJavaHeap() / 1024 / 1024);
             System.gc();
@@ -931,6 +1185,19 @@ public class ServerControl implements ApplicationListener{
         mods.eachClass(p -> p.registerServerCommands(handler));
     }
 
+    /** @return global network stats and the stats of every connection, as JSON. */
+    private String netStatsJson(){
+        StringBuilder out = new StringBuilder("{\"global\":").append(net.stats.toJson()).append(",\"connections\":{");
+        boolean first = true;
+        for(NetConnection con : net.getConnections()){
+            if(con.player == null) continue;
+            if(!first) out.append(",");
+            out.append("\"").append(con.uuid).append("\":").append(con.stats.toJson());
+            first = false;
+        }
+        return out.append("}}").toString();
+    }
+
     private void readCommands(){
         Scanner scan = new Scanner(System.in);
         while(scan.hasNext()){
@@ -939,7 +1206,20 @@ public class ServerControl implements ApplicationListener{
         }
     }
 
-    private void handleCommandString(String line){
+    /** Called before any other listener updates. */
+    void beginTick(){
+        tickStart = Time.nanos();
+    }
+
+    /** Called after every other listener updated, to measure the time of the whole frame. */
+    void endTick(){
+        float time = Time.timeSinceNanos(tickStart) / 1000000f;
+        tickTime.add(time);
+        worstTick = Math.max(worstTick, time);
+    }
+
+    void handleCommandString(String line){
+        long start = Time.nanos();
         CommandResponse response = handler.handleMessage(line);
 
         if(response.type == ResponseType.unknownCommand){
@@ -967,10 +1247,16 @@ public class ServerControl implements ApplicationListener{
             err("Too many command arguments. Usage: " + response.command.text + " " + response.command.paramText);
         }else if(response.type == ResponseType.valid){
             suggested = null;
+            commands.record(response.command.text, Time.timeSinceNanos(start), false);
         }
     }
 
     private void play(boolean wait, Runnable run){
+        play(wait, null, run);
+    }
+
+    /** @param ready if not null, the game is only started once this is done; the main thread keeps running while waiting for it. */
+    private void play(boolean wait, @Nullable Future<?> ready, Runnable run){
         inExtraRound = true;
         Runnable r = () -> {
             WorldReloader reloader = new WorldReloader();
@@ -990,6 +1276,11 @@ public class ServerControl implements ApplicationListener{
             lastTask = new Task(){
                 @Override
                 public void run(){
+                    if(ready != null && !ready.isDone()){
+                        Timer.schedule(this, readyPollTime);
+                        return;
+                    }
+
                     try{
                         r.run();
                     }catch(MapException e){
@@ -1005,26 +1296,33 @@ public class ServerControl implements ApplicationListener{
         }
     }
 
-    private void logToFile(String text){
-        if(currentLogFile != null && currentLogFile.length() > maxLogLength){
-            currentLogFile.writeString("[End of log file. Date: " + dateTime.format(LocalDateTime.now()) + "]\n", true);
-            currentLogFile = null;
+    /** @return the preloaded data of a map, or null if preloading failed and the map should be read normally. Only call once the preload is done. */
+    private @Nullable PreloadedSave preloaded(Map map, Future<PreloadedSave> preload){
+        try{
+            return preload.get();
+        }catch(InterruptedException | ExecutionException e){
+            err("Failed to preload map @", map.name(), e.getCause() == null ? e : e.getCause());
+            return null;
+        }
+    }
+
+    private void closeJournal(){
+        if(journal != null){
+            journal.close();
+            journal = null;
         }
+    }
 
+    private synchronized void logToFile(String text){
         for(String value : values){
             text = text.replace(value, "");
         }
 
-        if(currentLogFile == null){
-            int i = 0;
-            while(logFolder.child("log-" + i + ".txt").length() >= maxLogLength){
-                i++;
-            }
-
-            currentLogFile = logFolder.child("log-" + i + ".txt");
+        //lines are written on a background thread
+        if(logWriter == null){
+            logWriter = new LogWriter(logFolder, maxLogLength);
         }
-
-        currentLogFile.writeString(text + "\n", true);
+        logWriter.write(text);
     }
 
     private void toggleSocket(boolean on){
@@ -1068,4 +1366,78 @@ public class ServerControl implements ApplicationListener{
             socketOutput = null;
         }
     }
+
+    /**
+     * Plays back part of a replay, for at most {@link #replayStepTime} milliseconds, then continues in the next frame.
+     * This keeps the server responsive to commands during long replays. The world is paused between steps, so that it is only changed by the replay.
+     */
+    private void stepReplay(ReplayRun run){
+        //the replay was stopped
+        if(replay != run) return;
+
+        try{
+            ReplayPlayer player = run.player;
+            state.set(State.playing);
+            long start = Time.millis();
+            boolean more;
+            do{
+                more = player.advance(player.time() + 1000);
+            }while(more && Time.timeSinceMillis(start) < replayStepTime);
+            run.playTime += Time.timeSinceMillis(start);
+
+            if(more){
+                state.set(State.paused);
+                Core.app.post(() -> stepReplay(run));
+                return;
+            }
+
+            long played = player.duration() - run.start * 1000L;
+            info("Skipped to @s in @ms, then played @s in @ms (@x real time).", run.start, run.seekTime, played / 1000, run.playTime, (int)(played / Math.max(run.playTime, 1L)));
+            info("@ packets applied, @ failed. @ keyframes.", player.packets, player.errors, player.keyframes().size - 1);
+
+            info("&lcLag spikes (gaps over @ms): @", ReplayPlayer.spikeThreshold, player.spikes.size);
+            player.spikes.sort(s -> -s.length);
+            for(int i = 0; i < Math.min(player.spikes.size, 10); i++){
+                ReplayPlayer.Spike spike = player.spikes.get(i);
+                info("  at @s: @ms", Strings.fixed(spike.time / 1000f, 1), spike.length);
+            }
+
+            info("&lcPackets by handling time:");
+            Seq<NetStats.Entry> entries = player.stats.entries(false);
+            entries.sort(e -> -e.nanos);
+            for(int i = 0; i < Math.min(entries.size, 10); i++){
+                NetStats.Entry e = entries.get(i);
+                info("  &lb@&fr: @ packets, @ KB, @ms total", e.name, e.count, e.bytes / 1024, e.nanos / 1000000);
+            }
+        }catch(Throwable e){
+            err("Failed to play replay.", e);
+        }
+
+        closeReplay();
+    }
+
+    private void closeReplay(){
+        if(replay == null) return;
+
+        try{
+            replay.player.close();
+        }catch(Throwable e){
+            err("Failed to close replay.", e);
+        }
+        replay = null;
+    }
+
+    /** State of a replay that is played back over several frames. */
+    private static class ReplayRun{
+        final ReplayPlayer player;
+        /** Time that playback started at, in seconds. */
+        final int start;
+        /** Time spent seeking to the start and playing back, in milliseconds. */
+        long seekTime, playTime;
+
+        ReplayRun(ReplayPlayer player, int start){
+            this.player = player;
+            this.start = start;
+        }
+    }
 }
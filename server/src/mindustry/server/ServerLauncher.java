@@ -21,12 +21,22 @@ import static mindustry.server.ServerControl.*;
 
 public class ServerLauncher implements ApplicationListener{
     static String[] args;
+    /** Name of this instance, if it was started by {@link InstanceLauncher}. */
+    static @Nullable String instanceName;
+    static String dataDirectory = "config";
+    static @Nullable ServerControl control;
 
     public static void main(String[] args){
         try{
             ServerLauncher.args = args;
             Vars.platform = new Platform(){};
+            instanceName = System.getProperty(InstanceLauncher.instanceProperty);
+            if(instanceName != null){
+                dataDirectory = "instances/" + instanceName + "/config";
+            }
             Vars.net = new Net(platform.getNet());
+            //traffic can be inspected with the netstats command
+            NetStats.enabled = true;
 
             logger = (level1, text) -> {
                 String result = "[" + dateTime.format(LocalDateTime.now()) + "] " + format(tags[level1.ordinal()] + " " + text + "&fr");
@@ -40,7 +50,7 @@ public class ServerLauncher implements ApplicationListener{
 
     @Override
     public void init(){
-        Core.settings.setDataDirectory(Core.files.local("config"));
+        Core.settings.setDataDirectory(Core.files.local(dataDirectory));
         loadLocales = false;
         headless = true;
 
@@ -70,19 +80,25 @@ public class ServerLauncher implements ApplicationListener{
                 }
             }
             err("The server will now exit.");
-            System.exit(1);
+            platform.exit(1);
+            return;
         }
 
         bases.load();
 
-        Core.app.addListener(new ApplicationListener(){public void update(){ asyncCore.begin(); }});
+        Core.app.addListener(new ApplicationListener(){public void update(){ if(control != null) control.beginTick(); asyncCore.begin(); }});
         Core.app.addListener(logic = new Logic());
         Core.app.addListener(netServer = new NetServer());
-        Core.app.addListener(new ServerControl(args));
-        Core.app.addListener(new ApplicationListener(){public void update(){ asyncCore.end(); }});
+        Core.app.addListener(control = new ServerControl(args));
+        Core.app.addListener(new ApplicationListener(){public void update(){ asyncCore.end(); if(control != null) control.endTick(); }});
 
         mods.eachClass(Mod::init);
 
         Events.fire(new ServerLoadEvent());
     }
+
+    @Override
+    public void dispose(){
+        control = null;
+    }
 }
@@ -1,5 +1,6 @@
 import arc.*;
 import arc.backend.headless.*;
+import arc.files.*;
 import arc.func.*;
 import arc.math.*;
 import arc.math.geom.*;
@@ -16,12 +17,18 @@ import mindustry.entities.units.*;
 import mindustry.game.*;
 import mindustry.gen.*;
 import mindustry.io.*;
+import mindustry.io.versions.*;
 import mindustry.maps.*;
+import mindustry.net.*;
+import mindustry.net.Administration.*;
 import mindustry.net.Net;
 import mindustry.type.*;
 import mindustry.world.*;
 import org.junit.jupiter.api.*;
 
+import java.io.*;
+import java.nio.*;
+
 import static mindustry.Vars.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -235,6 +242,204 @@ public class ApplicationTests{
         assertTrue(state.teams.playerCores().size > 0);
     }
 
+    @Test
+    void saveChunkedRegions() throws Exception{
+        //large enough for the map region to be split into several blocks
+        resetWorld();
+        SaveIO.load(Core.files.internal("114.msav"));
+        int buildings = Groups.build.size();
+
+        Fi file = saveDirectory.child("chunked.msav");
+        SaveIO.save(file);
+        try(DataInputStream stream = SaveIO.getStream(file)){
+            SaveIO.readHeader(stream);
+            assertEquals(SaveIO.getVersion().version, stream.readInt());
+        }
+        assertEquals(500, SaveIO.getMeta(file).tags.getInt("width"));
+
+        resetWorld();
+        SaveIO.load(file);
+
+        assertEquals(500, world.width());
+        assertEquals(500, world.height());
+        assertEquals(buildings, Groups.build.size());
+
+        //regions can be read without reading the ones before them
+        ByteArrayOutputStream map = new ByteArrayOutputStream();
+        SaveIO.getSaveWriter().writeMap(new DataOutputStream(map));
+        ByteBuffer data = SaveIO.preload(file).get().data;
+        assertArrayEquals(map.toByteArray(), Save5.readRegion(data, 1));
+        assertThrows(IOException.class, () -> Save5.readRegion(data, Save5.regions.length));
+    }
+
+    @Test
+    void preloadMap() throws Exception{
+        resetWorld();
+        world.loadMap(testMap);
+        int buildings = Groups.build.size();
+
+        resetWorld();
+        world.loadMap(testMap, new Rules(), SaveIO.preload(testMap.file).get());
+
+        assertEquals(testMap.width, world.width());
+        assertEquals(testMap.height, world.height());
+        assertEquals(buildings, Groups.build.size());
+
+        //written again, the map is version 5, so its floors are decoded ahead of time and swapped into the world
+        Fi file = saveDirectory.child("preload.msav");
+        SaveIO.write(file);
+        Map map = new Map(file, world.width(), world.height(), new StringMap(), true);
+
+        resetWorld();
+        SaveIO.PreloadedSave preloaded = SaveIO.preload(file).get();
+        assertNotNull(preloaded.tiles);
+        world.loadMap(map, new Rules(), preloaded);
+
+        assertSame(preloaded.tiles, world.tiles);
+        assertEquals(testMap.width, world.width());
+        assertEquals(buildings, Groups.build.size());
+    }
+
+    @Test
+    void migratePlayerData(){
+        Core.settings.getDataDirectory().child("player-data.bin").delete();
+
+        PlayerInfo info = new PlayerInfo();
+        info.id = "legacy-id";
+        info.lastName = "legacy";
+        info.names.add("legacy");
+        info.ips.add("1.2.3.4");
+        info.banned = true;
+        ObjectMap<String, PlayerInfo> legacy = new ObjectMap<>();
+        legacy.put(info.id, info);
+        Core.settings.putJson("player-data", legacy);
+
+        Administration admins = new Administration();
+        assertFalse(Core.settings.has("player-data"));
+        assertEquals("legacy", admins.getInfoOptional("legacy-id").lastName);
+        assertEquals(1, admins.findByIPs("1.2.3.4").size);
+        assertEquals(1, admins.getBanned().size);
+
+        //lookups return the live player, and changes made without updateInfo are found when saving
+        assertSame(admins.getInfo("legacy-id"), admins.findByIP("1.2.3.4"));
+        admins.getInfoOptional("legacy-id").lastKicked = 5;
+        admins.save();
+
+        //the migrated players are read back from the new file
+        Administration read = new Administration();
+        assertTrue(read.isIDBanned("legacy-id"));
+        assertEquals(5, read.getInfo("legacy-id").lastKicked);
+    }
+
+    @Test
+    void saveIndex(){
+        resetWorld();
+        world.loadMap(testMap);
+        state.wave = 3;
+
+        Fi file = saveDirectory.child("indexed.msav");
+        SaveIO.save(file);
+        assertTrue(saveDirectory.child(SaveIndex.fileName).exists());
+        assertEquals(3, SaveIO.getMeta(file).wave);
+
+        //a changed file is read again
+        state.wave = 7;
+        SaveIO.save(file);
+        SaveIndex.Entry entry = SaveIndex.get(file);
+        assertNotNull(entry);
+        assertEquals(file.length(), entry.size);
+        assertEquals(7, SaveIO.getMeta(file).wave);
+
+        assertFalse(SaveIO.isSaveValid(saveDirectory.child(SaveIndex.fileName)));
+    }
+
+    @Test
+    void replayJournal() throws IOException{
+        resetWorld();
+        world.loadMap(testMap);
+
+        Fi file = saveDirectory.child("journaled.msav");
+        SaveIO.save(file);
+        SaveJournal journal = new SaveJournal(file);
+
+        Tile tile = null;
+        for(Tile other : world.tiles){
+            if(other.block() == Blocks.air && !other.floor().isDeep()){
+                tile = other;
+                break;
+            }
+        }
+        assertNotNull(tile);
+        int pos = tile.pos();
+
+        tile.setBlock(Blocks.sorter, Team.sharded, 0);
+        journal.tileChanged(tile);
+        tile.build.configured(null, Items.copper);
+        journal.configured(tile.build, Items.copper);
+
+        Unit moved = UnitTypes.dagger.spawn(Team.sharded, tile.worldx(), tile.worldy());
+        Unit removed = UnitTypes.dagger.spawn(Team.sharded, tile.worldx(), tile.worldy());
+        state.wave = 5;
+        journal.checkpoint();
+
+        //the second checkpoint only contains the changes
+        moved.set(tile.worldx() + 16f, tile.worldy());
+        removed.remove();
+        UnitTypes.flare.spawn(Team.sharded, tile.worldx(), tile.worldy());
+        state.rules.unitCap = 123;
+        journal.rulesChanged();
+        journal.checkpoint();
+        journal.close();
+
+        resetWorld();
+        SaveIO.load(file);
+
+        assertEquals(Blocks.sorter, world.tile(pos).block());
+        assertEquals(Items.copper, world.tile(pos).build.config());
+        assertEquals(5, state.wave);
+        assertEquals(123, state.rules.unitCap);
+        assertEquals(2, Groups.unit.size());
+        assertEquals(1, Groups.unit.count(u -> u.type == UnitTypes.flare));
+        assertTrue(Groups.unit.contains(u -> u.type == UnitTypes.dagger && Mathf.equal(u.x, world.tile(pos).worldx() + 16f)));
+    }
+
+    @Test
+    void interestGrid(){
+        resetWorld();
+        Tiles tiles = world.resize(64, 64);
+        world.beginMapLoad();
+        tiles.fill();
+        world.endMapLoad();
+
+        float cell = InterestGrid.cellSize;
+        Unit near = UnitTypes.dagger.spawn(Team.sharded, cell * 0.5f, cell * 0.5f);
+        Unit far = UnitTypes.dagger.spawn(Team.sharded, cell * 3.5f, cell * 3.5f);
+        Unit boss = UnitTypes.dagger.spawn(Team.sharded, cell * 3.5f, cell * 0.5f);
+        boss.apply(StatusEffects.boss);
+
+        InterestGrid grid = new InterestGrid();
+        grid.rebuild();
+
+        assertTrue(grid.getAlways().contains(boss));
+        assertEquals(2, grid.getSpatial().size);
+
+        //a viewport inside one cell only gets the entities of that cell
+        Seq<Syncc> out = new Seq<>();
+        grid.getNear(new Rect(8f, 8f, 16f, 16f), out);
+        assertEquals(1, out.size);
+        assertTrue(out.contains(near));
+
+        //a viewport that overlaps several cells gets the entities of all of them, except those that are always relevant
+        grid.getNear(new Rect(0f, 0f, cell * 4f, cell * 4f), out);
+        assertEquals(2, out.size);
+        assertTrue(out.contains(far));
+
+        //viewports outside of the world are clamped to the cells at its edge
+        grid.getNear(new Rect(-1000f, -1000f, 16f, 16f), out);
+        assertEquals(1, out.size);
+        assertTrue(out.contains(near));
+    }
+
     void updateBlocks(int times){
         for(Tile tile : world.tiles){
             if(tile.build != null && tile.isCenter()){
@@ -1,12 +1,21 @@
+import arc.files.*;
+import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
+import arc.util.pooling.*;
 import mindustry.game.*;
 import mindustry.io.*;
+import mindustry.io.ReplayIO.*;
+import mindustry.net.*;
+import mindustry.net.Administration.*;
+import mindustry.net.SnapshotBuffer.*;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.*;
 import org.junit.jupiter.params.provider.*;
 
+import java.io.*;
 import java.nio.*;
+import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -60,4 +69,277 @@ public class IOTests{
         }});
         Log.info(str2);
     }
+
+    @Test
+    void replayRecords() throws IOException{
+        Fi file = new Fi(File.createTempFile("replay", ".mrep"));
+        file.file().deleteOnExit();
+
+        try(ReplayWriter writer = new ReplayWriter(file)){
+            writer.write(ReplayIO.recordWorld, new byte[]{1, 2, 3}, 0, 3);
+            writer.write(ReplayIO.recordPacket, new byte[300], 0, 300);
+            writer.write(ReplayIO.recordKeyframe, new byte[]{4, 5}, 0, 2);
+            writer.write(ReplayIO.recordPacket, new byte[]{9, 8, 7, 6}, 1, 2);
+        }
+
+        try(ReplayReader reader = new ReplayReader(file)){
+            assertEquals(2, reader.keyframes().size);
+            assertEquals(ReplayIO.recordWorld, reader.keyframeAt(-1).kind);
+
+            ReplayRecord record = new ReplayRecord();
+            int[] lengths = {3, 300, 2, 2};
+            for(int length : lengths){
+                assertTrue(reader.next(record));
+                assertEquals(length, record.length);
+            }
+            assertFalse(reader.next(record));
+            assertEquals(8, record.data[0]);
+
+            //seeking to the keyframe returns it again, followed by the last packet
+            reader.seek(reader.keyframeAt(reader.duration()));
+            assertTrue(reader.next(record));
+            assertEquals(ReplayIO.recordKeyframe, record.kind);
+            assertTrue(reader.next(record));
+            assertEquals(7, record.data[1]);
+        }
+    }
+
+    @Test
+    void snapshotDeltaLostRounds() throws IOException{
+        SnapshotBaselines server = new SnapshotBaselines(), client = new SnapshotBaselines();
+
+        //nothing has been acknowledged yet, so the first rounds are sent in full
+        assertEquals(0, sendSnapshot(server, client, 0, true));
+        assertEquals(0, sendSnapshot(server, client, 1, true));
+        server.acknowledge(client.latestAcknowledged(), client.acknowledgedMask());
+
+        //round 2 is lost; round 3 is still encoded against round 1, which the client has
+        assertEquals(1, sendSnapshot(server, client, 2, false));
+        assertEquals(2, sendSnapshot(server, client, 3, true));
+        server.acknowledge(client.latestAcknowledged(), client.acknowledgedMask());
+
+        assertFalse(server.isAcknowledged(2));
+        assertTrue(server.isAcknowledged(1));
+        assertEquals(1, sendSnapshot(server, client, 4, true));
+
+        //data referencing an unknown baseline can't be decoded
+        byte[] data = entityData(5);
+        assertFalse(client.decode(1, 5, 3, data, 0, data.length));
+
+        //data of a different length is sent in full
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        server.encode(1, 5, new byte[4], 0, 4, new DataOutputStream(out));
+        assertEquals(0, out.toByteArray()[0]);
+    }
+
+    @Test
+    void snapshotDeltaReorderedAcks() throws IOException{
+        SnapshotBaselines server = new SnapshotBaselines(), client = new SnapshotBaselines();
+
+        sendSnapshot(server, client, 0, true);
+        server.acknowledge(client.latestAcknowledged(), client.acknowledgedMask());
+        int staleAck = client.latestAcknowledged(), staleMask = client.acknowledgedMask();
+
+        //round 2 arrives before round 1; both are encoded against round 0
+        byte[] delayed = encodeSnapshot(server, 1);
+        assertEquals(2, sendSnapshot(server, client, 2, true));
+        server.acknowledge(client.latestAcknowledged(), client.acknowledgedMask());
+        receiveSnapshot(client, 1, delayed);
+
+        //an older acknowledgement arriving late does not undo newer ones
+        server.acknowledge(staleAck, staleMask);
+        assertEquals(2, server.latestAcknowledged());
+        assertFalse(server.isAcknowledged(1));
+        assertEquals(1, sendSnapshot(server, client, 3, true));
+
+        server.acknowledge(client.latestAcknowledged(), client.acknowledgedMask());
+        assertTrue(server.isAcknowledged(1));
+        assertEquals(3, server.latestAcknowledged());
+
+        //rounds with several parts are only acknowledged once every part has arrived, in any order
+        assertFalse(client.receivePart(4, true, 1));
+        assertFalse(client.isAcknowledged(4));
+        assertTrue(client.receivePart(4, false, 0));
+        assertEquals(4, client.latestAcknowledged());
+    }
+
+    /** Sends the data of a single entity for a round, which is the only part of it. @return the baseline offset it was encoded with. */
+    static int sendSnapshot(SnapshotBaselines server, SnapshotBaselines client, int round, boolean received) throws IOException{
+        byte[] bytes = encodeSnapshot(server, round);
+        if(received) receiveSnapshot(client, round, bytes);
+        return bytes[0];
+    }
+
+    static byte[] encodeSnapshot(SnapshotBaselines server, int round) throws IOException{
+        byte[] data = entityData(round);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        server.encode(1, round, data, 0, data.length, new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    static void receiveSnapshot(SnapshotBaselines client, int round, byte[] bytes) throws IOException{
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        int baseOffset = input.readUnsignedByte();
+        byte[] data = new byte[input.readUnsignedShort()];
+        input.readFully(data);
+
+        assertTrue(client.decode(1, round, baseOffset, data, 0, data.length));
+        assertArrayEquals(entityData(round), data);
+        client.receivePart(round, true, 0);
+    }
+
+    /** @return sync data of an entity in a round, of which only some bytes change. */
+    static byte[] entityData(int round){
+        byte[] data = new byte[16];
+        data[0] = 7;
+        data[5] = (byte)round;
+        data[9] = (byte)(round * 31);
+        return data;
+    }
+
+    @Test
+    void snapshotBufferDelay(){
+        SnapshotBuffer buffer = new SnapshotBuffer();
+        IntSeq applied = new IntSeq();
+
+        //rounds that arrive every 100ms without jitter are applied as soon as they arrive
+        long time = 1000;
+        for(int round = 0; round < 20; round++, time += 100){
+            buffer.add(round, snapshot(applied, round), time);
+            buffer.update(time);
+        }
+        assertEquals(100f, buffer.interval(), 0.01f);
+        assertEquals(0f, buffer.delay(), 0.01f);
+        assertEquals(20, applied.size);
+
+        //with jitter, rounds are held back, but still applied in order and no later than the maximum delay
+        applied.clear();
+        int held = 0;
+        long arrival = time;
+        for(int round = 20; round < 40; round++, time += 100){
+            arrival = time + (round % 2 == 0 ? 0 : 60);
+            buffer.add(round, snapshot(applied, round), arrival);
+            buffer.update(arrival);
+            if(buffer.size() > 0) held++;
+        }
+        assertTrue(held > 0);
+        assertTrue(buffer.delay() > 0f && buffer.delay() <= SnapshotBuffer.maxDelay);
+
+        buffer.update(arrival + (long)SnapshotBuffer.maxDelay);
+        assertEquals(0, buffer.size());
+        assertEquals(20, applied.size);
+        for(int i = 0; i < applied.size; i++){
+            assertEquals(20 + i, applied.get(i));
+        }
+
+        //data that is not part of a round is applied after the buffered rounds, while late parts of old rounds are applied right away
+        applied.clear();
+        buffer.add(40, snapshot(applied, 40), time);
+        buffer.add(snapshot(applied, -1), time);
+        buffer.add(30, snapshot(applied, 30), time);
+        assertEquals(1, applied.size);
+        buffer.update(time + (long)SnapshotBuffer.maxDelay);
+        assertArrayEquals(new int[]{30, 40, -1}, applied.toArray());
+
+        //applied snapshots are reused
+        TestSnapshot first = snapshot(applied, 0);
+        buffer.add(first, time);
+        buffer.flush();
+        assertSame(first, snapshot(applied, 1));
+    }
+
+    @Test
+    void snapshotExtrapolation(){
+        assertEquals(0.5f, SnapshotBuffer.interpolationAlpha(50f, 100f), 0.001f);
+        //lost snapshots are extrapolated for at most one update
+        assertEquals(2f, SnapshotBuffer.interpolationAlpha(500f, 100f), 0.001f);
+        //and for no longer than the maximum extrapolation time
+        assertEquals(1f + SnapshotBuffer.maxExtrapolation / 1000f, SnapshotBuffer.interpolationAlpha(5000f, 1000f), 0.001f);
+    }
+
+    static TestSnapshot snapshot(IntSeq applied, int round){
+        TestSnapshot snapshot = Pools.obtain(TestSnapshot.class, TestSnapshot::new);
+        snapshot.applied = applied;
+        snapshot.round = round;
+        return snapshot;
+    }
+
+    static class TestSnapshot extends Snapshot{
+        IntSeq applied;
+        int round;
+
+        @Override
+        public void apply(){
+            applied.add(round);
+        }
+
+        @Override
+        public void reset(){
+            applied = null;
+        }
+    }
+
+    @Test
+    void playerStoreRoundTrip() throws IOException{
+        Fi file = new Fi(File.createTempFile("players", ".bin"));
+        file.file().deleteOnExit();
+        file.delete();
+
+        PlayerStore store = new PlayerStore(file);
+        PlayerInfo info = store.getCreate("id1");
+        info.lastName = "[red]Name";
+        info.names.add("[red]Name");
+        info.ips.add("1.2.3.4");
+        info.banned = true;
+        store.changed(info);
+        //modified without calling changed(), which flushAll() has to find
+        store.getCreate("id2").ips.add("1.2.3.4");
+        store.flushAll();
+
+        PlayerStore read = new PlayerStore(file);
+        assertEquals(2, read.size());
+        assertTrue(info.same(read.get("id1")));
+        assertEquals(1, read.banned().size);
+        assertEquals(2, read.byIP("1.2.3.4").size);
+        assertEquals(1, read.byName("name").size);
+
+        //lookups return the live players
+        read.byName("name").first().lastName = "changed";
+        assertEquals("changed", read.get("id1").lastName);
+    }
+
+    @Test
+    void playerStoreRecovery() throws IOException{
+        Fi file = new Fi(File.createTempFile("players", ".bin"));
+        Fi corrupt = file.sibling(file.name() + ".corrupt");
+        file.file().deleteOnExit();
+        corrupt.file().deleteOnExit();
+        file.delete();
+
+        PlayerStore store = new PlayerStore(file);
+        store.getCreate("id1");
+        PlayerInfo info = store.getCreate("id2");
+        info.timesJoined = 5;
+        store.changed(info);
+        store.flush();
+
+        //a crash while the last record was written
+        byte[] bytes = file.readBytes();
+        file.writeBytes(Arrays.copyOf(bytes, bytes.length - 3), false);
+
+        PlayerStore read = new PlayerStore(file);
+        assertEquals(2, read.size());
+        assertEquals(0, read.get("id2").timesJoined);
+
+        //the incomplete record was removed, so new records can be read back
+        read.getCreate("id3");
+        assertEquals(3, new PlayerStore(file).size());
+
+        //unreadable files are kept aside and replaced, rather than appended to
+        file.writeBytes(new byte[]{0, 0, 0, 99}, false);
+        assertEquals(0, new PlayerStore(file).size());
+        assertTrue(corrupt.exists());
+        new PlayerStore(file).getCreate("id4");
+        assertEquals(1, new PlayerStore(file).size());
+    }
 }
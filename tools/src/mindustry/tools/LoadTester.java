@@ -0,0 +1,648 @@
+package mindustry.tools;
+
+import arc.func.*;
+import arc.graphics.*;
+import arc.math.*;
+import arc.net.*;
+import arc.net.FrameworkMessage.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.Log.*;
+import arc.util.async.*;
+import arc.util.io.*;
+import arc.util.pooling.*;
+import arc.util.serialization.*;
+import mindustry.content.*;
+import mindustry.core.*;
+import mindustry.entities.units.*;
+import mindustry.gen.*;
+import mindustry.io.*;
+import mindustry.net.*;
+import mindustry.net.ArcNetProvider.*;
+import mindustry.net.Net.*;
+import mindustry.net.Packets.*;
+import net.jpountz.lz4.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Measures how many players a server can handle, by connecting simulated players to it.
+ * Usage: {@code LoadTester [bots] [seconds] [map] [address]}. When no address is given, a local server is started in a separate process.
+ * <p>
+ * Every bot goes through the regular handshake, downloads the world and confirms the connection.
+ * After that, it sends client snapshots with scripted movement and building, chats, pings the server
+ * and validates every entity snapshot it receives, acknowledging it like a real client would.
+ * Only the bot's own player is decoded, to find the unit it moves.
+ * Calls are encoded by the generated {@link Call} class, which is pointed at a capturing {@link Net} instance.
+ */
+public class LoadTester{
+    /** Delay between two bots joining, in milliseconds. */
+    static final int joinSpacing = 100;
+    /** Delay between two iterations of the bot loop, in milliseconds. */
+    static final int frameTime = 16;
+    /** Delay between two client snapshots, in milliseconds. Matches the real client. */
+    static final int snapshotSpacing = 33;
+    /** Matches the tick time line of the server's status command. */
+    static final Pattern tickPattern = Pattern.compile("Tick time: ([\\d.]+)ms average, ([\\d.]+)ms worst");
+
+    static final CaptureProvider capture = new CaptureProvider();
+    static final Net clientCalls = new Net(capture), serverCalls = new Net(capture);
+    static final Seq<Bot> bots = new Seq<>();
+    /** Average and worst server tick time of every status report, in milliseconds. */
+    static final FloatSeq tickSamples = new FloatSeq(), worstTickSamples = new FloatSeq();
+    static final CountDownLatch serverReady = new CountDownLatch(1);
+
+    static int entitySnapshotID, blockSnapshotID, stateSnapshotID, pingResponseID, kickID, kickReasonID;
+    static @Nullable Process server;
+    static @Nullable PrintWriter serverInput;
+
+    public static void main(String[] args) throws Exception{
+        int amount = args.length > 0 ? Strings.parseInt(args[0], 20) : 20;
+        int seconds = args.length > 1 ? Strings.parseInt(args[1], 60) : 60;
+        String map = args.length > 2 ? args[2] : "fortress";
+        String address = args.length > 3 ? args[3] : null;
+
+        headless = true;
+        Log.logger = new NoopLogHandler();
+        content = new ContentLoader();
+        content.createBaseContent();
+        Log.logger = new DefaultLogHandler();
+        Version.init();
+
+        findCallIDs();
+
+        String host = "localhost";
+        int serverPort = port;
+
+        if(address == null){
+            startServer(map);
+        }else{
+            String[] split = address.split(":");
+            host = split[0];
+            if(split.length > 1) serverPort = Strings.parseInt(split[1], port);
+        }
+
+        Log.info("&lcStarting @ bots for @ seconds.", amount, seconds);
+
+        long end = Time.millis() + seconds * 1000L, lastJoin = 0, lastStatus = 0;
+
+        while(Time.millis() < end){
+            long now = Time.millis();
+
+            if(bots.size < amount && now - lastJoin >= joinSpacing){
+                Bot bot = new Bot(bots.size);
+                bots.add(bot);
+                bot.connect(host, serverPort);
+                lastJoin = now;
+            }
+
+            for(Bot bot : bots){
+                bot.update(now);
+            }
+
+            if(serverInput != null && now - lastStatus >= 1000){
+                serverInput.println("status");
+                serverInput.flush();
+                lastStatus = now;
+            }
+
+            Thread.sleep(frameTime);
+        }
+
+        report();
+
+        for(Bot bot : bots){
+            bot.close();
+        }
+
+        if(server != null){
+            server.destroy();
+        }
+        System.exit(0);
+    }
+
+    /** Uses the generated server-side calls to find the IDs of the packets the bots need to decode. */
+    static void findCallIDs() throws IOException{
+        serverCalls.host(port);
+        net = serverCalls;
+        NetConnection con = capture.connection;
+        ByteBuffer empty = ByteBuffer.allocate(0);
+
+        entitySnapshotID = encode(() -> Call.entitySnapshot(con, 0, (short)0, false, (short)0, (short)0, empty)).type;
+        blockSnapshotID = encode(() -> Call.blockSnapshot(con, (short)0, (short)0, empty)).type;
+        stateSnapshotID = encode(() -> Call.stateSnapshot(con, 0f, 0, 0, false, false, 0, (short)0, empty)).type;
+        pingResponseID = encode(() -> Call.pingResponse(con, 0L)).type;
+        kickID = encode(() -> Call.kick(con, "")).type;
+        kickReasonID = encode(() -> Call.kick(con, KickReason.kick)).type;
+
+        clientCalls.setClientConnected();
+        net = clientCalls;
+    }
+
+    /** Runs a generated call and returns the packet it sent. The packet must be freed after use. */
+    static InvokePacket encode(Runnable call){
+        call.run();
+        if(capture.packet == null) throw new IllegalStateException("Call did not send a packet.");
+        InvokePacket result = capture.packet;
+        capture.packet = null;
+        return result;
+    }
+
+    static void startServer(String map) throws Exception{
+        Path directory = Files.createTempDirectory("mindustry-loadtest");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        Log.info("&lcStarting server in @...", directory);
+
+        server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "mindustry.server.ServerLauncher",
+            "config antiSpam false,config interactRateLimit 1000,host " + map)
+            .directory(directory.toFile())
+            .redirectErrorStream(true)
+            .start();
+
+        serverInput = new PrintWriter(new OutputStreamWriter(server.getOutputStream()));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::destroy));
+
+        Threads.daemon("Server Output", () -> {
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(server.getInputStream()))){
+                String line;
+                while((line = reader.readLine()) != null){
+                    Matcher matcher = tickPattern.matcher(line);
+                    if(matcher.find()){
+                        synchronized(tickSamples){
+                            tickSamples.add(Float.parseFloat(matcher.group(1)));
+                            worstTickSamples.add(Float.parseFloat(matcher.group(2)));
+                        }
+                    }else if(!line.contains(" FPS, ")){
+                        if(line.contains("Opened a server")) serverReady.countDown();
+                        Log.info("&lb[server]&fr @", line);
+                    }
+                }
+            }catch(IOException ignored){
+            }
+        });
+
+        if(!serverReady.await(60, TimeUnit.SECONDS)){
+            server.destroy();
+            throw new IOException("Server did not start in time.");
+        }
+    }
+
+    static void report(){
+        FloatSeq joins = new FloatSeq(), pings = new FloatSeq();
+        float received = 0f, sent = 0f;
+        int joined = 0, kicked = 0, disconnected = 0, entitySnapshots = 0, rounds = 0, blockSnapshots = 0, stateSnapshots = 0;
+        long now = Time.millis();
+
+        for(Bot bot : bots){
+            if(bot.kicked) kicked++;
+            else if(bot.disconnected) disconnected++;
+
+            if(bot.joinTime < 0) continue;
+
+            joined++;
+            joins.add(bot.joinTime);
+            synchronized(bot){
+                pings.addAll(bot.pings);
+            }
+
+            float time = Math.max(now - bot.connectTime, 1) / 1000f;
+            received += bot.serializer.received.get() / time;
+            sent += bot.serializer.sent.get() / time;
+            entitySnapshots += bot.entitySnapshots;
+            rounds += bot.rounds;
+            blockSnapshots += bot.blockSnapshots;
+            stateSnapshots += bot.stateSnapshots;
+        }
+
+        int players = Math.max(joined, 1);
+
+        Log.info("&lc--- Load test results ---");
+        Log.info("Bots: @ joined, @ kicked, @ disconnected, @ total", joined, kicked, disconnected, bots.size);
+        Log.info("Join latency: @", percentiles(joins));
+        Log.info("Ping: @", percentiles(pings));
+
+        synchronized(tickSamples){
+            if(!tickSamples.isEmpty()){
+                float sum = 0f, worst = 0f;
+                for(int i = 0; i < tickSamples.size; i++){
+                    sum += tickSamples.items[i];
+                    worst = Math.max(worst, worstTickSamples.items[i]);
+                }
+                Log.info("Server tick time: @ms average, @ms worst", Strings.fixed(sum / tickSamples.size, 2), Strings.fixed(worst, 2));
+            }
+        }
+
+        Log.info("Server to player: @ KB/s per player", Strings.fixed(received / players / 1024f, 2));
+        Log.info("Player to server: @ KB/s per player", Strings.fixed(sent / players / 1024f, 2));
+        Log.info("Snapshots per player: @ entity parts (@ complete rounds), @ block, @ state",
+            entitySnapshots / players, rounds / players, blockSnapshots / players, stateSnapshots / players);
+    }
+
+    static String percentiles(FloatSeq values){
+        if(values.isEmpty()) return "no data";
+
+        values.sort();
+        return Strings.format("p50 @ms, p90 @ms, p99 @ms, max @ms",
+            (int)percentile(values, 0.5f), (int)percentile(values, 0.9f), (int)percentile(values, 0.99f), (int)values.peek());
+    }
+
+    static float percentile(FloatSeq sorted, float fraction){
+        return sorted.get(Math.min((int)(sorted.size * fraction), sorted.size - 1));
+    }
+
+    static class Bot implements NetListener{
+        final int index;
+        final BotSerializer serializer = new BotSerializer();
+        final Client client = new Client(8192, 8192, serializer);
+        final SnapshotBaselines baselines = new SnapshotBaselines();
+        final ReusableByteInStream input = new ReusableByteInStream();
+        final Reads read = new Reads(new DataInputStream(input));
+        final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+        final FloatSeq pings = new FloatSeq();
+        final BuildPlan[] plans;
+        final float centerX, centerY;
+
+        volatile boolean connected, worldReceived, kicked, disconnected;
+        volatile int entitySnapshots, rounds, blockSnapshots, stateSnapshots;
+        /** ID of the unit controlled by this bot, or -1 if it has none yet. */
+        volatile int unitID = -1;
+        boolean handshakeSent, confirmed;
+        long connectTime = -1, joinTime = -1, lastSnapshot, lastPing, nextChat;
+        int streamTotal, streamReceived, snapshotID, playerID = -1;
+        /** Start of the world stream, which is kept until the player ID in its header can be read. */
+        @Nullable ByteArrayOutputStream streamStart;
+        byte[] snapshotBytes = new byte[1024];
+        float angle;
+
+        Bot(int index){
+            this.index = index;
+
+            //every bot builds and moves around in its own small area
+            int x = 20 + (index % 10) * 6, y = 20 + (index / 10) * 6;
+            centerX = x * tilesize;
+            centerY = y * tilesize;
+            plans = new BuildPlan[]{
+                new BuildPlan(x, y, 0, Blocks.conveyor),
+                new BuildPlan(x + 1, y, 0, Blocks.conveyor),
+                new BuildPlan(x + 2, y, 0, Blocks.conveyor)
+            };
+
+            client.addListener(this);
+        }
+
+        void connect(String host, int port){
+            connectTime = Time.millis();
+
+            Threads.daemon("Bot " + index, () -> {
+                try{
+                    client.run();
+                }catch(Exception e){
+                    disconnected = true;
+                }
+            });
+
+            Threads.daemon(() -> {
+                try{
+                    client.connect(5000, host, port, port);
+                }catch(IOException e){
+                    Log.err("Bot @ failed to connect: @", index, e.getMessage());
+                    disconnected = true;
+                }
+            });
+        }
+
+        /** Called on the bot loop thread. All packets are sent from here, since calls can only be encoded on one thread. */
+        void update(long now){
+            if(kicked || disconnected) return;
+
+            if(connected && !handshakeSent){
+                ConnectPacket packet = new ConnectPacket();
+                packet.name = "bot" + index;
+                packet.locale = "en";
+                packet.versionType = Version.type;
+                packet.mods = new Seq<>();
+                packet.mobile = false;
+                packet.color = new Color().fromHsv(index * 37f % 360f, 0.8f, 1f).rgba();
+                packet.uuid = randomID();
+                packet.usid = randomID();
+                client.sendTCP(packet);
+                handshakeSent = true;
+            }
+
+            if(worldReceived && !confirmed){
+                send(Call::connectConfirm);
+                confirmed = true;
+                joinTime = now - connectTime;
+                nextChat = now + Mathf.random(5000, 20000);
+            }
+
+            if(!confirmed) return;
+
+            if(now - lastSnapshot >= snapshotSpacing){
+                sendSnapshot(now);
+                lastSnapshot = now;
+            }
+
+            if(now - lastPing >= 1000){
+                send(() -> Call.ping(now));
+                lastPing = now;
+            }
+
+            if(now >= nextChat){
+                send(() -> Call.sendChatMessage("load test message from bot " + index));
+                nextChat = now + Mathf.random(5000, 20000);
+            }
+        }
+
+        void sendSnapshot(long now){
+            angle += 3f;
+
+            float x = centerX + Angles.trnsx(angle, tilesize * 6f), y = centerY + Angles.trnsy(angle, tilesize * 6f), rotation = angle;
+            //alternate between building and shooting every few seconds
+            boolean building = (now / 4000) % 2 == 0;
+            int acked, mask;
+
+            synchronized(this){
+                acked = baselines.latestAcknowledged();
+                mask = baselines.acknowledgedMask();
+            }
+
+            int unit = unitID;
+            send(() -> Call.clientSnapshot(snapshotID++, acked, mask, unit, false, x, y, x, y, rotation, rotation, 0f, 0f,
+                null, false, !building, false, building, building ? plans : null, x, y, 1280f, 720f));
+        }
+
+        void send(Runnable call){
+            InvokePacket packet = encode(call);
+
+            if(capture.mode == SendMode.tcp){
+                client.sendTCP(packet);
+            }else{
+                client.sendUDP(packet);
+            }
+            Pools.free(packet);
+        }
+
+        @Override
+        public void connected(Connection connection){
+            connected = true;
+        }
+
+        @Override
+        public void disconnected(Connection connection, DcReason reason){
+            disconnected = true;
+        }
+
+        /** Called on the network thread of this bot. */
+        @Override
+        public void received(Connection connection, Object object){
+            if(object instanceof StreamBegin begin){
+                streamTotal = begin.total;
+                streamReceived = 0;
+                streamStart = new ByteArrayOutputStream();
+            }else if(object instanceof StreamChunk chunk){
+                streamReceived += chunk.data.length;
+                if(streamStart != null){
+                    streamStart.write(chunk.data, 0, chunk.data.length);
+                    readPlayerID();
+                }
+                if(streamReceived >= streamTotal){
+                    worldReceived = true;
+                }
+            }else if(object instanceof InvokePacket packet){
+                try{
+                    handleCall(packet);
+                }catch(Exception e){
+                    Log.err("Bot @ received an invalid packet", index);
+                    Log.err(e);
+                }
+                packet.reset();
+            }else if(object instanceof InvokeBundle bundle){
+                //split manually, as the reader of bundles is shared between threads
+                for(int i = 0, offset = 0; i < bundle.count; i++){
+                    int length = ((bundle.bytes[offset + 1] & 0xff) << 8) | (bundle.bytes[offset + 2] & 0xff);
+                    InvokePacket packet = new InvokePacket();
+                    packet.type = bundle.bytes[offset];
+                    packet.bytes = java.util.Arrays.copyOfRange(bundle.bytes, offset + 3, offset + 3 + length);
+                    packet.length = length;
+                    try{
+                        handleCall(packet);
+                    }catch(Exception e){
+                        Log.err("Bot @ received an invalid packet", index);
+                        Log.err(e);
+                    }
+                    offset += length + 3;
+                }
+                bundle.reset();
+            }
+        }
+
+        /** Reads the player ID from the world header once it has been received completely; see {@link NetworkIO#writeWorld(Player, OutputStream, byte[])}. */
+        void readPlayerID(){
+            byte[] bytes = streamStart.toByteArray();
+            if(bytes.length < 4) return;
+
+            try{
+                DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+                int length = stream.readInt();
+                if(bytes.length < 4 + length) return;
+
+                DataInputStream header = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes, 4, length)));
+                header.readUTF();
+                SaveIO.getSaveWriter().readStringMap(header);
+                header.readInt();
+                header.readFloat();
+                playerID = header.readInt();
+            }catch(IOException e){
+                Log.err("Bot @ received an invalid world header", index);
+                Log.err(e);
+            }
+            streamStart = null;
+        }
+
+        void handleCall(InvokePacket packet){
+            input.setBytes(packet.bytes);
+            int type = packet.type;
+
+            if(type == entitySnapshotID){
+                int round = read.i();
+                short part = read.s();
+                boolean last = read.bool();
+                short amount = read.s();
+                int length = read.s() & 0xffff;
+                byte[] data = TypeIO.readBytes(read);
+
+                if(snapshotBytes.length < length) snapshotBytes = new byte[length];
+                decompressor.decompress(data, 0, snapshotBytes, 0, length);
+
+                //walk over the entity entries to validate the data; only the bot's own player is interpreted
+                int position = 0;
+                boolean complete = true;
+                synchronized(this){
+                    for(int i = 0; i < amount; i++){
+                        //int ID, byte class ID, byte baseline offset, short length, data
+                        int id = readInt(snapshotBytes, position), baseOffset = snapshotBytes[position + 5] & 0xff;
+                        int size = ((snapshotBytes[position + 6] & 0xff) << 8) | (snapshotBytes[position + 7] & 0xff);
+                        position += 8;
+
+                        //data of other entities is not delta-decoded, so their baselines are never used
+                        if(id == playerID){
+                            complete &= readPlayer(id, round, baseOffset, position, size);
+                        }
+                        position += size;
+                    }
+
+                    if(position != length){
+                        throw new IllegalStateException("Entity snapshot length mismatch: " + position + " != " + length);
+                    }
+
+                    entitySnapshots++;
+                    //like the real client, parts with missing baselines are not acknowledged
+                    if(complete && baselines.receivePart(round, last, part)) rounds++;
+                }
+            }else if(type == blockSnapshotID){
+                blockSnapshots++;
+            }else if(type == stateSnapshotID){
+                stateSnapshots++;
+            }else if(type == pingResponseID){
+                long time = read.l();
+                synchronized(this){
+                    pings.add(Time.timeSinceMillis(time));
+                }
+            }else if(type == kickID || type == kickReasonID){
+                Log.warn("Bot @ was kicked: @", index, type == kickID ? TypeIO.readString(read) : TypeIO.readKick(read));
+                kicked = true;
+            }
+        }
+
+        /** Decodes the sync data of the bot's own player and reads the ID of its unit. @return whether the data could be decoded. */
+        boolean readPlayer(int id, int round, int baseOffset, int offset, int length){
+            if(!baselines.decode(id, round, baseOffset, snapshotBytes, offset, length)) return false;
+
+            //player sync data ends with its unit (byte type, int ID) followed by its position (float x, float y); see PlayerComp revision 0
+            int unit = offset + length - 13;
+            unitID = snapshotBytes[unit] == 2 ? readInt(snapshotBytes, unit + 1) : -1;
+            return true;
+        }
+
+        void close(){
+            client.stop();
+        }
+
+        static int readInt(byte[] bytes, int offset){
+            return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+        }
+
+        static String randomID(){
+            byte[] bytes = new byte[8];
+            Mathf.rand.nextBytes(bytes);
+            return new String(Base64Coder.encode(bytes));
+        }
+    }
+
+    /** Creates packets without pooling, as every bot reads on its own thread. Counts transferred bytes. */
+    static class BotSerializer extends PacketSerializer{
+        final AtomicLong received = new AtomicLong(), sent = new AtomicLong();
+
+        @Override
+        public Object read(ByteBuffer buffer){
+            int start = buffer.position();
+            byte id = buffer.get();
+            Object result;
+
+            if(id == -2){
+                result = readFramework(buffer);
+            }else{
+                Packet packet = (Packet)Registrator.getByID(id).constructor.get();
+                packet.read(buffer);
+                result = packet;
+            }
+
+            received.addAndGet(buffer.position() - start);
+            return result;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Object object){
+            int start = buffer.position();
+            super.write(buffer, object);
+            sent.addAndGet(buffer.position() - start);
+        }
+    }
+
+    /** Captures invoke packets sent by generated calls, instead of sending them anywhere. */
+    static class CaptureProvider implements NetProvider{
+        final NetConnection connection = new NetConnection("capture"){
+            @Override
+            public void send(Object object, SendMode mode){
+                capture(object, mode);
+            }
+
+            @Override
+            public void close(){
+
+            }
+        };
+        final Seq<NetConnection> connections = Seq.with(connection);
+
+        @Nullable InvokePacket packet;
+        SendMode mode;
+
+        void capture(Object object, SendMode mode){
+            //the original packet points at the shared call buffer, so it needs to be copied
+            if(object instanceof InvokePacket invoke){
+                packet = invoke.copy();
+                this.mode = mode;
+            }
+        }
+
+        @Override
+        public void connectClient(String ip, int port, Runnable success){
+
+        }
+
+        @Override
+        public void sendClient(Object object, SendMode mode){
+            capture(object, mode);
+        }
+
+        @Override
+        public void disconnectClient(){
+
+        }
+
+        @Override
+        public void discoverServers(Cons<Host> callback, Runnable done){
+
+        }
+
+        @Override
+        public void pingHost(String address, int port, Cons<Host> valid, Cons<Exception> failed){
+
+        }
+
+        @Override
+        public void hostServer(int port){
+
+        }
+
+        @Override
+        public Iterable<? extends NetConnection> getConnections(){
+            return connections;
+        }
+
+        @Override
+        public void closeServer(){
+
+        }
+    }
+}
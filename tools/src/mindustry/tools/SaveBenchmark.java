@@ -0,0 +1,86 @@
+package mindustry.tools;
+
+import arc.*;
+import arc.backend.headless.*;
+import arc.files.*;
+import arc.util.*;
+import mindustry.*;
+import mindustry.core.*;
+import mindustry.gen.*;
+import mindustry.io.*;
+import mindustry.net.*;
+
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Compares loading saves through an inflater stream with the buffered path of {@link SaveIO#load(Fi)}.
+ * Usage: {@code SaveBenchmark [iterations] [files...]}. Without files, the saves used by the tests are loaded.
+ * Only timings are reported, as they depend on the machine; the loaded worlds are checked to be the same.
+ */
+public class SaveBenchmark{
+    static final String[] defaultFiles = {"77", "85", "108", "114"};
+
+    public static void main(String[] args){
+        int iterations = args.length > 0 ? Strings.parseInt(args[0], 5) : 5;
+        Fi[] files = new Fi[args.length > 1 ? args.length - 1 : defaultFiles.length];
+        for(int i = 0; i < files.length; i++){
+            files[i] = args.length > 1 ? new Fi(args[i + 1]) : new Fi("tests/src/test/resources/" + defaultFiles[i] + ".msav");
+        }
+
+        new HeadlessApplication(new ApplicationCore(){
+            @Override
+            public void setup(){
+                headless = true;
+                net = new Net(null);
+                tree = new FileTree();
+                Vars.init();
+                world = new World();
+                content.createBaseContent();
+
+                add(logic = new Logic());
+                add(netServer = new NetServer());
+
+                content.init();
+            }
+
+            @Override
+            public void init(){
+                super.init();
+                try{
+                    for(Fi file : files){
+                        run(file, iterations);
+                    }
+                }catch(Throwable e){
+                    Log.err(e);
+                }
+                Core.app.exit();
+            }
+        }, Log::err);
+    }
+
+    static void run(Fi file, int iterations){
+        //the first load of each path is not measured, so that classes are loaded and the JIT has warmed up
+        SaveIO.load(new InflaterInputStream(file.read(Vars.bufferSize)), world.context);
+        Time.mark();
+        for(int i = 0; i < iterations; i++){
+            SaveIO.load(new InflaterInputStream(file.read(Vars.bufferSize)), world.context);
+        }
+        float streamTime = Time.elapsed() / iterations;
+        int width = world.width(), height = world.height(), buildings = Groups.build.size();
+
+        SaveIO.load(file);
+        Time.mark();
+        for(int i = 0; i < iterations; i++){
+            SaveIO.load(file);
+        }
+        float bufferedTime = Time.elapsed() / iterations;
+
+        if(width != world.width() || height != world.height() || buildings != Groups.build.size()){
+            Log.err("@: the buffered path loaded a different world.", file.name());
+        }
+
+        Log.info("@: @ms with streams, @ms buffered (@x)", file.name(), Strings.fixed(streamTime, 1), Strings.fixed(bufferedTime, 1), Strings.fixed(streamTime / Math.max(bufferedTime, 0.01f), 2));
+    }
+}